@@ -2,56 +2,86 @@ package com.leo.aiteacher.client;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.ResourceAccessException;
-import org.springframework.web.client.RestTemplate;
 
-import java.time.Duration;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class DeepSeekChatClient {
 
     private static final Logger logger = LoggerFactory.getLogger(DeepSeekChatClient.class);
+    private static final AtomicInteger CALLBACK_THREAD_SEQ = new AtomicInteger();
 
     private final ObjectMapper objectMapper;
-    private final RestTemplate restTemplate;
+    private final LlmHttpTransport httpTransport;
+    private final LlmResponseCache responseCache;
+    private final LlmRouter router;
+    private final LlmResilience resilience;
+    private final LlmLatencyTracker latencyTracker;
+    private final LlmHedgingPolicy hedgingPolicy;
+    private final LlmTimeoutPolicy timeoutPolicy;
+    private final LlmUsageRecorder usageRecorder;
+    // 只承载短小的回调（组装请求、记录指标、写缓存），HTTP 交换本身在传输层的 I/O 线程上进行
+    private final ExecutorService callbackExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "llm-callback-" + CALLBACK_THREAD_SEQ.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    @Value("${deepseek.api.url}")
-    private String apiUrl;
-
-    @Value("${deepseek.api.key}")
-    private String apiKey;
-
-    @Value("${deepseek.api.model:deepseek-v4-flash}")
-    private String modelName;
+    @Value("${deepseek.api.log.max-prompt-chars:12000}")
+    private int maxPromptLogChars;
 
-    @Value("${deepseek.api.retry.max-attempts:3}")
-    private int maxAttempts;
+    @Value("${deepseek.api.stream.enabled:true}")
+    private boolean streamEnabled;
 
-    @Value("${deepseek.api.retry.delay-ms:500}")
-    private long retryDelayMs;
+    // 原始报文默认不保留（rawResponse 为 null），按比例抽样保留用于排查
+    @Value("${deepseek.api.raw-capture.sample-rate:0}")
+    private double rawCaptureSampleRate;
 
-    @Value("${deepseek.api.log.max-prompt-chars:12000}")
-    private int maxPromptLogChars;
+    @Value("${deepseek.api.raw-capture.max-bytes:262144}")
+    private int rawCaptureMaxBytes;
 
-    public DeepSeekChatClient(RestTemplateBuilder restTemplateBuilder,
+    public DeepSeekChatClient(@Qualifier("deepSeekHttpTransport") LlmHttpTransport httpTransport,
                               ObjectMapper objectMapper,
-                              @Value("${deepseek.api.timeout.connect-ms:5000}") long connectTimeoutMs,
-                              @Value("${deepseek.api.timeout.read-ms:300000}") long readTimeoutMs) {
+                              LlmResponseCache responseCache,
+                              @Qualifier("deepSeekRouter") LlmRouter router,
+                              @Qualifier("deepSeekResilience") LlmResilience resilience,
+                              @Qualifier("deepSeekLatencyTracker") LlmLatencyTracker latencyTracker,
+                              @Qualifier("deepSeekHedgingPolicy") LlmHedgingPolicy hedgingPolicy,
+                              @Qualifier("deepSeekTimeoutPolicy") LlmTimeoutPolicy timeoutPolicy,
+                              LlmUsageRecorder usageRecorder) {
         this.objectMapper = objectMapper;
-        this.restTemplate = restTemplateBuilder
-                .setConnectTimeout(Duration.ofMillis(connectTimeoutMs))
-                .setReadTimeout(Duration.ofMillis(readTimeoutMs))
-                .build();
+        this.httpTransport = httpTransport;
+        this.responseCache = responseCache;
+        this.router = router;
+        this.resilience = resilience;
+        this.latencyTracker = latencyTracker;
+        this.hedgingPolicy = hedgingPolicy;
+        this.timeoutPolicy = timeoutPolicy;
+        this.usageRecorder = usageRecorder;
     }
 
     public ChatResult chat(String message) throws Exception {
@@ -59,70 +89,411 @@ public class DeepSeekChatClient {
     }
 
     public ChatResult chat(String scene, String message) throws Exception {
-        Exception lastException = null;
+        return chat(new ChatRequest(scene, null, message, null));
+    }
+
+    public ChatResult chat(ChatRequest request) throws Exception {
+        return await(chatAsync(request));
+    }
+
+    /**
+     * 流式调用：逐段解析服务端 SSE 分片并回调增量内容，最终仍返回完整结果。
+     * 关闭 deepseek.api.stream.enabled 时退化为普通调用，结束后一次性回调全部内容。
+     */
+    public ChatResult chatStream(ChatRequest request, StreamListener listener) throws Exception {
+        return await(chatStreamAsync(request, listener));
+    }
+
+    public CompletableFuture<ChatResult> chatAsync(String scene, String message) {
+        return chatAsync(new ChatRequest(scene, null, message, null));
+    }
+
+    /**
+     * 非阻塞调用：排队、退避、HTTP 交换都不占用调用方线程，future 在内部回调线程上完成。
+     * 调用方的后续处理（解析、落库）应通过 *Async 方法切回自己的线程池。
+     */
+    public CompletableFuture<ChatResult> chatAsync(ChatRequest request) {
+        return execute(request, null);
+    }
+
+    /**
+     * chatStream 的非阻塞版本，增量内容在 I/O 线程上回调，listener 不应阻塞。
+     */
+    public CompletableFuture<ChatResult> chatStreamAsync(ChatRequest request, StreamListener listener) {
+        if (!streamEnabled) {
+            return execute(request, null).thenApply(result -> {
+                listener.onDelta(result.content());
+                return result;
+            });
+        }
+        return execute(request, listener);
+    }
+
+    /**
+     * 流式调用不做对冲（增量内容无法在两路请求间切换），调用方可据此在流式与对冲之间取舍。
+     */
+    public boolean hedgingEnabled(String scene) {
+        return hedgingPolicy.isEnabled(safeScene(scene));
+    }
+
+    /**
+     * 调用方判定模型输出不可用（解析/校验失败）时调用，避免后续重试或重复提交命中同一份坏结果。
+     */
+    public void invalidate(ChatRequest request) {
+        String scene = safeScene(request.scene());
+        if (responseCache.isEnabled(scene)) {
+            responseCache.invalidate(scene, responseCache.key(scene, router.primary().model(), request));
+        }
+    }
+
+    private CompletableFuture<ChatResult> execute(ChatRequest request, StreamListener listener) {
+        String scene = safeScene(request.scene());
+        // 缓存键按主端点模型计算，备用端点产出的结果同样可复用
+        String cacheKey = responseCache.isEnabled(scene) ? responseCache.key(scene, router.primary().model(), request) : null;
+        if (cacheKey != null) {
+            LlmResponseCache.CachedResponse cached = responseCache.get(scene, cacheKey);
+            if (cached != null) {
+                logger.info("DeepSeek命中响应缓存，scene={}, model={}", scene, cached.modelName());
+                usageRecorder.recordCacheHit(scene);
+                if (listener != null) {
+                    listener.onDelta(cached.content());
+                }
+                // attempt=0 表示未发起上游调用
+                return CompletableFuture.completedFuture(
+                        new ChatResult(cached.content(), cached.rawResponse(), cached.modelName(), 0L, 0));
+            }
+        }
+        Set<LlmEndpoint> failedEndpoints = ConcurrentHashMap.newKeySet();
+        return resilience.executeAsync(scene, attempt -> {
+            // 重试优先换到本次调用尚未失败过的端点
+            LlmEndpoint endpoint = router.select(scene, failedEndpoints);
+            long estimatedTokens = endpoint.governor().estimateTokens(request.systemPrompt(), request.message());
+            return endpoint.governor().acquireAsync(scene, estimatedTokens).thenComposeAsync(permit -> {
+                long start = System.currentTimeMillis();
+                CompletableFuture<StreamedCompletion> call;
+                try {
+                    if (listener != null && attempt > 1) {
+                        listener.onReset();
+                    }
+                    if (listener != null && endpoint.streamEnabled()) {
+                        call = executeChatStream(request, endpoint, attempt, listener);
+                    } else {
+                        call = executeChatHedged(request, endpoint, attempt, estimatedTokens);
+                        if (listener != null) {
+                            call = call.thenApply(completion -> {
+                                listener.onDelta(completion.content());
+                                return completion;
+                            });
+                        }
+                    }
+                } catch (Exception e) {
+                    call = CompletableFuture.failedFuture(e);
+                }
+                return call.whenComplete((completion, error) -> {
+                    if (completion != null && completion.usage() != null && completion.endpoint() == endpoint) {
+                        permit.recordUsage(completion.usage().path("total_tokens").asLong(0L));
+                    }
+                    permit.close();
+                    if (error != null) {
+                        failedEndpoints.add(endpoint);
+                    }
+                }).thenApplyAsync(completion -> {
+                    long latencyMs = System.currentTimeMillis() - start;
+                    latencyTracker.record(scene, latencyMs);
+                    usageRecorder.record(scene, request.usageTag(), completion.endpoint(), completion.usage(), latencyMs);
+                    logger.info("DeepSeek响应成功，scene={}, attempt={}, latencyMs={}, endpoint={}, model={}, stream={}",
+                            scene, attempt, latencyMs, completion.endpoint().name(), completion.endpoint().model(), listener != null);
+                    if (cacheKey != null) {
+                        responseCache.put(scene, cacheKey, new LlmResponseCache.CachedResponse(
+                                completion.content(), completion.rawResponse(), completion.endpoint().label()));
+                    }
+                    return new ChatResult(completion.content(), completion.rawResponse(), completion.endpoint().label(), latencyMs, attempt);
+                }, callbackExecutor);
+            }, callbackExecutor);
+        });
+    }
+
+    /**
+     * 对开启对冲的场景：主请求超过该场景耗时分位数仍未返回时，在对冲额度和闸门余量允许的情况下补发一次，取先成功者。
+     * 配置了多个端点时对冲请求优先发往另一个端点。胜出后取消落败的请求，立即归还其连接和许可。
+     */
+    private CompletableFuture<StreamedCompletion> executeChatHedged(ChatRequest request, LlmEndpoint endpoint, int attempt,
+                                                                long estimatedTokens) throws Exception {
+        String scene = safeScene(request.scene());
+        long hedgeDelayMs = hedgingPolicy.hedgeDelayMs(scene);
+        CompletableFuture<StreamedCompletion> primary = executeChat(request, endpoint, attempt);
+        if (hedgeDelayMs < 0) {
+            return primary;
+        }
 
-        for (int attempt = 1; attempt <= Math.max(1, maxAttempts); attempt++) {
-            long start = System.currentTimeMillis();
+        HedgeRace race = new HedgeRace(scene, primary);
+        CompletableFuture.delayedExecutor(hedgeDelayMs, TimeUnit.MILLISECONDS, callbackExecutor).execute(() -> {
+            if (!race.canLaunch()) {
+                return;
+            }
+            LlmEndpoint hedgeEndpoint = router.select(scene, Set.of(endpoint));
+            LlmGovernor.Permit hedgePermit = hedgeEndpoint.governor().tryAcquire(scene, estimatedTokens);
+            if (hedgePermit == null) {
+                return;
+            }
+            if (!hedgingPolicy.tryConsumeBudget(scene)) {
+                hedgePermit.close();
+                return;
+            }
+            CompletableFuture<StreamedCompletion> hedge;
             try {
-                String rawResponse = executeChat(scene, message, attempt);
-                JsonNode rootNode = objectMapper.readTree(rawResponse);
-                JsonNode contentNode = rootNode.path("choices").get(0).path("message").path("content");
-                String content = contentNode.isMissingNode() || contentNode.isNull() ? "" : contentNode.asText("");
-                long latencyMs = System.currentTimeMillis() - start;
-                logger.info("DeepSeek响应成功，scene={}, attempt={}, latencyMs={}, model={}",
-                        safeScene(scene), attempt, latencyMs, modelName);
-                return new ChatResult(content, rawResponse, modelName, latencyMs, attempt);
-            } catch (ResourceAccessException e) {
-                lastException = e;
-                logger.warn("DeepSeek调用超时/网络错误，scene={}, attempt={}/{}",
-                        safeScene(scene), attempt, maxAttempts);
+                hedge = executeChat(request, hedgeEndpoint, attempt);
             } catch (Exception e) {
-                lastException = e;
-                logger.warn("DeepSeek调用失败，scene={}, attempt={}/{}, error={}",
-                        safeScene(scene), attempt, maxAttempts, e.getMessage());
+                hedgePermit.close();
+                return;
             }
+            hedge.whenComplete((result, error) -> hedgePermit.close());
+            if (!race.launch(hedge)) {
+                hedge.cancel(true);
+                return;
+            }
+            logger.info("DeepSeek发起对冲请求，scene={}, attempt={}, hedgeDelayMs={}, endpoint={}",
+                    scene, attempt, hedgeDelayMs, hedgeEndpoint.name());
+        });
+        return race.winner;
+    }
 
-            if (attempt < Math.max(1, maxAttempts)) {
-                try {
-                    TimeUnit.MILLISECONDS.sleep(Math.max(0L, retryDelayMs));
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw ie;
+    /**
+     * 主请求与对冲请求的竞速：先成功者胜出并取消另一方；全部失败时以最后一个错误失败。
+     * 主请求在对冲发出前就失败时直接失败，不再补发。
+     */
+    private final class HedgeRace {
+        private final String scene;
+        private final CompletableFuture<StreamedCompletion> primary;
+        private final CompletableFuture<StreamedCompletion> winner = new CompletableFuture<>();
+        private CompletableFuture<StreamedCompletion> hedge;
+        private int failures;
+        private boolean decided;
+
+        HedgeRace(String scene, CompletableFuture<StreamedCompletion> primary) {
+            this.scene = scene;
+            this.primary = primary;
+            primary.whenComplete((result, error) -> onComplete(primary, result, error));
+        }
+
+        synchronized boolean canLaunch() {
+            return !decided && failures == 0 && hedge == null;
+        }
+
+        boolean launch(CompletableFuture<StreamedCompletion> candidate) {
+            synchronized (this) {
+                if (!canLaunch()) {
+                    return false;
                 }
+                hedge = candidate;
             }
+            candidate.whenComplete((result, error) -> onComplete(candidate, result, error));
+            return true;
         }
 
-        throw lastException == null ? new RuntimeException("DeepSeek调用失败") : lastException;
+        private void onComplete(CompletableFuture<StreamedCompletion> candidate, StreamedCompletion result, Throwable error) {
+            CompletableFuture<StreamedCompletion> loser;
+            synchronized (this) {
+                if (decided) {
+                    return;
+                }
+                if (error != null) {
+                    failures++;
+                    if (failures < (hedge == null ? 1 : 2)) {
+                        return;
+                    }
+                }
+                decided = true;
+                loser = candidate == primary ? hedge : primary;
+                if (hedge != null) {
+                    hedgingPolicy.recordOutcome(scene, error == null && candidate == hedge);
+                }
+            }
+            if (error == null) {
+                if (loser != null) {
+                    loser.cancel(true);
+                }
+                winner.complete(result);
+            } else {
+                winner.completeExceptionally(LlmResilience.unwrap(error));
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw LlmResilience.unwrap(e);
+        }
     }
 
-    private String executeChat(String scene, String message, int attempt) throws Exception {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + apiKey);
+    private CompletableFuture<StreamedCompletion> executeChat(ChatRequest request, LlmEndpoint endpoint, int attempt) throws Exception {
+        Map<String, Object> requestBody = buildRequestBody(request, endpoint);
+
+        byte[] payload = objectMapper.writeValueAsBytes(requestBody);
+        logger.info("DeepSeek请求，scene={}, attempt={}, endpoint={}, url={}, payload={}",
+                safeScene(request.scene()), attempt, endpoint.name(), resolveChatCompletionsUrl(endpoint.url()),
+                abbreviate(new String(payload, StandardCharsets.UTF_8)));
+
+        LlmTimeoutPolicy.Deadline deadline = timeoutPolicy.deadlineFor(safeScene(request.scene()));
+        CompletableFuture<LlmCompletionParser.Completion> exchange = httpTransport.postAsync(resolveChatCompletionsUrl(endpoint.url()),
+                buildHeaders(endpoint, MediaType.APPLICATION_JSON_VALUE), payload,
+                new LlmCompletionParser(objectMapper, captureRaw() ? rawCaptureMaxBytes : 0),
+                deadline.connectTimeoutMs(), deadline.readTimeoutMs());
+        return track(request.scene(), endpoint, deadline, exchange).thenApply(completion ->
+                new StreamedCompletion(endpoint, completion.content(), completion.rawResponse(), completion.usage()));
+    }
+
+    private CompletableFuture<StreamedCompletion> executeChatStream(ChatRequest request, LlmEndpoint endpoint, int attempt,
+                                                                    StreamListener listener) throws Exception {
+        Map<String, Object> requestBody = buildRequestBody(request, endpoint);
+        requestBody.put("stream", true);
+        requestBody.put("stream_options", Map.of("include_usage", true));
+
+        byte[] payload = objectMapper.writeValueAsBytes(requestBody);
+        logger.info("DeepSeek流式请求，scene={}, attempt={}, endpoint={}, url={}, payload={}",
+                safeScene(request.scene()), attempt, endpoint.name(), resolveChatCompletionsUrl(endpoint.url()),
+                abbreviate(new String(payload, StandardCharsets.UTF_8)));
+
+        StringBuilder content = new StringBuilder();
+        JsonNode[] usage = new JsonNode[1];
+        boolean[] done = new boolean[1];
+        LlmTimeoutPolicy.Deadline deadline = timeoutPolicy.deadlineFor(safeScene(request.scene()));
+        CompletableFuture<Void> exchange = httpTransport.postStreamAsync(resolveChatCompletionsUrl(endpoint.url()),
+                buildHeaders(endpoint, MediaType.TEXT_EVENT_STREAM_VALUE + ", " + MediaType.APPLICATION_JSON_VALUE), payload,
+                line -> {
+                    if (done[0] || !line.startsWith("data:")) {
+                        return;
+                    }
+                    String data = line.substring(5).trim();
+                    if (data.isEmpty()) {
+                        return;
+                    }
+                    if ("[DONE]".equals(data)) {
+                        done[0] = true;
+                        return;
+                    }
+                    LlmCompletionParser.Completion chunk = LlmCompletionParser.parse(objectMapper, data);
+                    if (!chunk.content().isEmpty()) {
+                        content.append(chunk.content());
+                        listener.onDelta(chunk.content());
+                    }
+                    if (chunk.usage() != null && chunk.usage().isObject()) {
+                        usage[0] = chunk.usage();
+                    }
+                },
+                deadline.connectTimeoutMs(), deadline.readTimeoutMs());
+        boolean captureRaw = captureRaw();
+        return track(request.scene(), endpoint, deadline, exchange).thenApply(ignored -> {
+            try {
+                String text = content.toString();
+                return new StreamedCompletion(endpoint, text,
+                        captureRaw ? buildStreamedRawResponse(endpoint, text, usage[0]) : null, usage[0]);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * 把单次 HTTP 交换的耗时与成败计入路由统计；读超时时把截断值计入该场景的耗时样本。
+     */
+    private <T> CompletableFuture<T> track(String scene, LlmEndpoint endpoint, LlmTimeoutPolicy.Deadline deadline,
+                                           CompletableFuture<T> exchange) {
+        long start = System.currentTimeMillis();
+        exchange.whenComplete((result, error) -> {
+            long elapsedMs = System.currentTimeMillis() - start;
+            if (error == null) {
+                router.recordSuccess(endpoint, safeScene(scene), elapsedMs);
+            } else {
+                router.recordFailure(endpoint, safeScene(scene), error, elapsedMs);
+            }
+            if (error != null && LlmResilience.unwrap(error) instanceof ResourceAccessException e
+                    && e.getCause() instanceof SocketTimeoutException) {
+                timeoutPolicy.onTimeout(safeScene(scene), deadline);
+                logger.warn("DeepSeek读超时，scene={}, readTimeoutMs={}, adaptive={}",
+                        safeScene(scene), deadline.readTimeoutMs(), deadline.adaptive());
+            }
+        });
+        return exchange;
+    }
+
+    private boolean captureRaw() {
+        return rawCaptureSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < rawCaptureSampleRate;
+    }
+
+    private Map<String, String> buildHeaders(LlmEndpoint endpoint, String accept) {
+        return Map.of(
+                HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE,
+                HttpHeaders.ACCEPT, accept,
+                HttpHeaders.AUTHORIZATION, "Bearer " + endpoint.apiKey());
+    }
+
+    private Map<String, Object> buildRequestBody(ChatRequest request, LlmEndpoint endpoint) {
+        List<Map<String, String>> messages = new ArrayList<>();
+        if (request.systemPrompt() != null && !request.systemPrompt().isBlank()) {
+            messages.add(Map.of("role", "system", "content", request.systemPrompt()));
+        }
+        messages.add(Map.of("role", "user", "content", request.message()));
 
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", modelName);
-        requestBody.put("messages", List.of(Map.of(
-                "role", "user",
-                "content", message
-        )));
+        requestBody.put("model", endpoint.model());
+        requestBody.put("messages", messages);
+        if (request.temperature() != null) {
+            requestBody.put("temperature", request.temperature());
+        }
+        return requestBody;
+    }
 
-        String requestJson = objectMapper.writeValueAsString(requestBody);
-        logger.info("DeepSeek请求，scene={}, attempt={}, url={}, payload={}",
-                safeScene(scene), attempt, resolveChatCompletionsUrl(apiUrl), abbreviate(requestJson));
+    /**
+     * 流式响应没有完整的原始报文，抽中保留原始报文时拼出与非流式一致的结构，便于下游统一存档。
+     */
+    private String buildStreamedRawResponse(LlmEndpoint endpoint, String content, JsonNode usage) throws IOException {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("model", endpoint.model());
+        ObjectNode message = root.putArray("choices").addObject().putObject("message");
+        message.put("role", "assistant");
+        message.put("content", content);
+        if (usage != null) {
+            root.set("usage", usage);
+        }
+        return objectMapper.writeValueAsString(root);
+    }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        ResponseEntity<String> response = restTemplate.exchange(resolveChatCompletionsUrl(apiUrl), HttpMethod.POST, entity, String.class);
+    /**
+     * usageTag 只用于用量记账，不参与响应缓存键。
+     */
+    public record ChatRequest(String scene, String systemPrompt, String message, Double temperature, UsageTag usageTag) {
 
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            throw new RuntimeException("DeepSeek响应异常: " + response.getStatusCode());
+        public ChatRequest(String scene, String systemPrompt, String message, Double temperature) {
+            this(scene, systemPrompt, message, temperature, null);
         }
 
-        return response.getBody() == null ? "" : response.getBody();
+        public ChatRequest withUsageTag(Integer teacherId, String courseCode, Long taskId) {
+            return new ChatRequest(scene, systemPrompt, message, temperature, new UsageTag(teacherId, courseCode, taskId));
+        }
     }
 
+    public record UsageTag(Integer teacherId, String courseCode, Long taskId) {}
+
+    /**
+     * rawResponse 只有被 deepseek.api.raw-capture.sample-rate 抽中时才有值，其余情况为 null。
+     */
     public record ChatResult(String content, String rawResponse, String modelName, long latencyMs, int attempt) {}
 
+    /**
+     * 流式增量回调。重试时先回调 onReset，调用方应丢弃之前累积的内容。
+     */
+    public interface StreamListener {
+        void onDelta(String delta);
+
+        default void onReset() {
+        }
+    }
+
+    private record StreamedCompletion(LlmEndpoint endpoint, String content, String rawResponse, JsonNode usage) {}
+
     private String abbreviate(String text) {
         if (text == null) {
             return "";
@@ -0,0 +1,154 @@
+package com.leo.aiteacher.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * OpenAI 兼容响应的流式解析：边接收边用非阻塞 JSON 解析器扫描，只取出 choices[0].message.content
+ * （流式分片为 choices[0].delta.content）与 usage，不构建完整报文字符串和 DOM。
+ * maxRawBytes 大于 0 时额外保留原始报文（超出部分截断），仅用于抽样排查。
+ */
+final class LlmCompletionParser implements LlmHttpTransport.BodyHandler<LlmCompletionParser.Completion> {
+
+    private final ObjectMapper objectMapper;
+    private final JsonParser parser;
+    private final ByteArrayOutputStream raw;
+    private final int maxRawBytes;
+    private final TokenHandler tokens;
+
+    LlmCompletionParser(ObjectMapper objectMapper, int maxRawBytes) throws IOException {
+        this.objectMapper = objectMapper;
+        this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+        this.maxRawBytes = maxRawBytes;
+        this.raw = maxRawBytes > 0 ? new ByteArrayOutputStream() : null;
+        this.tokens = new TokenHandler(objectMapper);
+    }
+
+    /**
+     * 解析单个完整的 JSON 文本，用于 SSE 的每个 data 分片。
+     */
+    static Completion parse(ObjectMapper objectMapper, String json) throws IOException {
+        TokenHandler tokens = new TokenHandler(objectMapper);
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                tokens.handle(parser, token);
+            }
+        }
+        return new Completion(tokens.content.toString(), tokens.usage, null);
+    }
+
+    @Override
+    public void onData(ByteBuffer src) throws Exception {
+        byte[] chunk = new byte[src.remaining()];
+        src.get(chunk);
+        if (raw != null && raw.size() < maxRawBytes) {
+            raw.write(chunk, 0, Math.min(chunk.length, maxRawBytes - raw.size()));
+        }
+        ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(chunk, 0, chunk.length);
+        drain();
+    }
+
+    @Override
+    public Completion onComplete() throws Exception {
+        parser.getNonBlockingInputFeeder().endOfInput();
+        drain();
+        parser.close();
+        if (!tokens.sawRoot) {
+            throw new IOException("响应体为空或不是 JSON 对象");
+        }
+        String rawResponse = raw == null ? null : raw.toString(StandardCharsets.UTF_8);
+        return new Completion(tokens.content.toString(), tokens.usage, rawResponse);
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            tokens.handle(parser, token);
+        }
+    }
+
+    /**
+     * content 为空串表示响应中没有内容；usage 缺失时为 null；rawResponse 仅在抽样保留原始报文时不为空。
+     */
+    record Completion(String content, JsonNode usage, String rawResponse) {
+    }
+
+    private static final class TokenHandler {
+        private final ObjectMapper objectMapper;
+        private final StringBuilder content = new StringBuilder();
+        private JsonNode usage;
+        private TokenBuffer usageBuffer;
+        private int usageDepth;
+        private boolean usageNext;
+        private boolean sawRoot;
+
+        TokenHandler(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+        }
+
+        void handle(JsonParser parser, JsonToken token) throws IOException {
+            if (usageBuffer != null) {
+                usageBuffer.copyCurrentEvent(parser);
+                if (token.isStructStart()) {
+                    usageDepth++;
+                } else if (token.isStructEnd() && --usageDepth == 0) {
+                    try (JsonParser buffered = usageBuffer.asParser(objectMapper)) {
+                        usage = objectMapper.readTree(buffered);
+                    }
+                    usageBuffer = null;
+                }
+                return;
+            }
+            if (usageNext) {
+                usageNext = false;
+                if (token == JsonToken.START_OBJECT) {
+                    usageBuffer = new TokenBuffer(parser, null);
+                    usageBuffer.copyCurrentEvent(parser);
+                    usageDepth = 1;
+                    return;
+                }
+            }
+            JsonStreamContext context = parser.getParsingContext();
+            if (token == JsonToken.START_OBJECT && context.getParent() != null && context.getParent().inRoot()) {
+                sawRoot = true;
+            }
+            if (token == JsonToken.FIELD_NAME && "usage".equals(parser.currentName())
+                    && context.getParent() != null && context.getParent().inRoot()) {
+                usageNext = true;
+            } else if (token == JsonToken.VALUE_STRING && isFirstChoiceContent(context)) {
+                content.append(parser.getText());
+            }
+        }
+
+        /**
+         * 当前值是否位于 $.choices[0].message.content 或 $.choices[0].delta.content。
+         */
+        private static boolean isFirstChoiceContent(JsonStreamContext context) {
+            if (!"content".equals(context.getCurrentName())) {
+                return false;
+            }
+            JsonStreamContext choice = context.getParent();
+            if (choice == null || !("message".equals(choice.getCurrentName()) || "delta".equals(choice.getCurrentName()))) {
+                return false;
+            }
+            JsonStreamContext choices = choice.getParent();
+            if (choices == null || !choices.inArray() || choices.getCurrentIndex() != 0) {
+                return false;
+            }
+            JsonStreamContext root = choices.getParent();
+            return root != null && "choices".equals(root.getCurrentName())
+                    && root.getParent() != null && root.getParent().inRoot();
+        }
+    }
+}
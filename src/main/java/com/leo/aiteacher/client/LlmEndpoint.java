@@ -0,0 +1,58 @@
+package com.leo.aiteacher.client;
+
+import org.springframework.core.env.Environment;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一个 OpenAI 兼容的调用端点：地址、密钥、模型、路由权重、可服务的场景，以及该端点自己的调用闸门。
+ * 主端点沿用 deepseek.api.url/key/model，备用端点配置在 deepseek.api.endpoints.&lt;name&gt;.* 下。
+ */
+public record LlmEndpoint(String name,
+                          boolean primary,
+                          String url,
+                          String apiKey,
+                          String model,
+                          int weight,
+                          List<String> scenes,
+                          boolean streamEnabled,
+                          LlmGovernor governor) {
+
+    /**
+     * scenes 为空表示可服务所有场景，否则按前缀匹配。
+     */
+    public boolean supports(String scene) {
+        if (scenes.isEmpty()) {
+            return true;
+        }
+        return scene != null && scenes.stream().anyMatch(scene::startsWith);
+    }
+
+    /**
+     * 写入 ChatResult.modelName 的名称：主端点只记模型名（与历史数据一致），备用端点记为 "端点名/模型名"。
+     */
+    public String label() {
+        return primary ? model : name + "/" + model;
+    }
+
+    public static LlmEndpoint fromEnvironment(Environment env, String name, boolean primary, String prefix, LlmGovernor governor) {
+        String scenes = env.getProperty(prefix + ".scenes", "");
+        return new LlmEndpoint(
+                name,
+                primary,
+                env.getProperty(prefix + ".url", ""),
+                env.getProperty(prefix + ".key", ""),
+                env.getProperty(prefix + ".model", "deepseek-v4-flash"),
+                Math.max(1, env.getProperty(prefix + ".weight", Integer.class, 1)),
+                Arrays.stream(scenes.split(",")).map(String::trim).filter(item -> !item.isEmpty()).toList(),
+                env.getProperty(prefix + ".stream.enabled", Boolean.class, true),
+                governor
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "LlmEndpoint[name=" + name + ", url=" + url + ", model=" + model + ", weight=" + weight + ", scenes=" + scenes + "]";
+    }
+}
@@ -0,0 +1,457 @@
+package com.leo.aiteacher.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * 单个大模型供应商的调用闸门：所有线程池共享同一组并发上限、每分钟请求数和每分钟 Token 数令牌桶。
+ * 排队时按场景优先级放行（数值越小越优先），等待越久优先级越高（aging），避免批量批改被完全饿死。
+ * 同步调用方在锁上等待；异步调用方只登记一个 future，由释放许可、令牌补充定时器负责放行，不占用线程。
+ */
+public class LlmGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmGovernor.class);
+
+    private final String provider;
+    private final Settings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final ScheduledExecutorService timer;
+
+    private long sequence;
+    private int inFlight;
+    private double requestBucket;
+    private double tokenBucket;
+    private long lastRefillNanos;
+    private long wakeupAtNanos;
+
+    private long granted;
+    private long throttled;
+    private long totalWaitMs;
+    private long maxWaitObservedMs;
+
+    private LlmGovernor(String provider, Settings settings) {
+        this.provider = provider;
+        this.settings = settings;
+        this.requestBucket = settings.requestsPerMinute();
+        this.tokenBucket = settings.tokensPerMinute();
+        this.lastRefillNanos = System.nanoTime();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-governor-" + provider);
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("LLM调用闸门已初始化，provider={}, settings={}", provider, settings);
+    }
+
+    public static LlmGovernor create(String provider, Settings settings) {
+        return new LlmGovernor(provider, settings);
+    }
+
+    public String provider() {
+        return provider;
+    }
+
+    /**
+     * 粗略估算一次调用消耗的 Token：中文约 0.6 Token/字，再加上预留的输出 Token。
+     * 调用结束后通过 {@link Permit#recordUsage(long)} 用实际用量回补令牌桶。
+     */
+    public long estimateTokens(String... texts) {
+        long chars = 0;
+        for (String text : texts) {
+            chars += text == null ? 0 : text.length();
+        }
+        return (long) Math.ceil(chars * 0.6) + settings.reservedCompletionTokens();
+    }
+
+    public Permit acquire(String scene, long estimatedTokens) throws InterruptedException {
+        long tokens = clampTokens(estimatedTokens);
+        List<Runnable> completions = new ArrayList<>();
+        lock.lockInterruptibly();
+        try {
+            long enqueuedAt = System.nanoTime();
+            Waiter self = new Waiter(scene, settings.priorityOf(scene), tokens, enqueuedAt, sequence++, null);
+            long deadline = enqueuedAt + TimeUnit.MILLISECONDS.toNanos(settings.maxWaitMs());
+            waiters.add(self);
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    dispatchAsync(now, completions);
+                    Waiter next = selectNext(now);
+                    long waitNanos = Long.MAX_VALUE;
+                    long nextDelay = delayUntilAdmissible(next);
+                    if (next == self) {
+                        if (nextDelay == 0) {
+                            waiters.remove(self);
+                            admit(self, now);
+                            dispatchAsync(now, completions);
+                            changed.signalAll();
+                            return new Permit(tokens);
+                        }
+                        waitNanos = nextDelay;
+                    } else if (nextDelay == 0) {
+                        changed.signalAll();
+                    }
+
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        waiters.remove(self);
+                        throttled++;
+                        dispatchAsync(now, completions);
+                        changed.signalAll();
+                        logger.warn("LLM调用排队超时，provider={}, scene={}, inFlight={}, waiting={}",
+                                provider, scene, inFlight, waiters.size());
+                        throw new ThrottledException(provider, scene, settings.maxWaitMs());
+                    }
+                    changed.awaitNanos(Math.min(waitNanos, remaining));
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(self);
+                dispatchAsync(System.nanoTime(), completions);
+                changed.signalAll();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+            completions.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * 异步获取许可：与同步调用方在同一队列中按优先级排队，放行时完成 future；排队超过 max-wait-ms 时以
+     * {@link ThrottledException} 失败。future 在释放许可的线程上完成，后续回调不应阻塞。
+     */
+    public CompletableFuture<Permit> acquireAsync(String scene, long estimatedTokens) {
+        long tokens = clampTokens(estimatedTokens);
+        CompletableFuture<Permit> future = new CompletableFuture<>();
+        List<Runnable> completions = new ArrayList<>();
+        Waiter self;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            self = new Waiter(scene, settings.priorityOf(scene), tokens, now, sequence++, future);
+            waiters.add(self);
+            dispatchAsync(now, completions);
+        } finally {
+            lock.unlock();
+        }
+        completions.forEach(Runnable::run);
+        if (!future.isDone()) {
+            timer.schedule(() -> expire(self), settings.maxWaitMs(), TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * 非阻塞获取许可：仅在无人排队且当前即可放行时成功，否则返回 null。用于对冲等"有余量才做"的附加请求。
+     */
+    public Permit tryAcquire(String scene, long estimatedTokens) {
+        long tokens = clampTokens(estimatedTokens);
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            refill(now);
+            Waiter self = new Waiter(scene, settings.priorityOf(scene), tokens, now, sequence++, null);
+            if (!waiters.isEmpty() || delayUntilAdmissible(self) != 0) {
+                return null;
+            }
+            admit(self, now);
+            return new Permit(tokens);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            Map<String, Long> waitingByScene = waiters.stream()
+                    .collect(Collectors.groupingBy(Waiter::scene, Collectors.counting()));
+            Map<String, Object> result = new HashMap<>();
+            result.put("provider", provider);
+            result.put("maxConcurrent", settings.maxConcurrent());
+            result.put("inFlight", inFlight);
+            result.put("waiting", waiters.size());
+            result.put("waitingByScene", waitingByScene);
+            result.put("requestsPerMinute", settings.requestsPerMinute());
+            result.put("requestBucket", settings.requestsPerMinute() > 0 ? Math.floor(requestBucket) : null);
+            result.put("tokensPerMinute", settings.tokensPerMinute());
+            result.put("tokenBucket", settings.tokensPerMinute() > 0 ? Math.floor(tokenBucket) : null);
+            result.put("granted", granted);
+            result.put("throttled", throttled);
+            result.put("avgWaitMs", granted == 0 ? 0 : totalWaitMs / granted);
+            result.put("maxWaitMs", maxWaitObservedMs);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long clampTokens(long estimatedTokens) {
+        long tokens = Math.max(1L, estimatedTokens);
+        if (settings.tokensPerMinute() > 0) {
+            tokens = Math.min(tokens, settings.tokensPerMinute());
+        }
+        return tokens;
+    }
+
+    /**
+     * 持锁调用：队首是异步等待者且可放行时依次放行，future 的完成动作收集到 completions，由调用方释放锁后执行。
+     * 队首因令牌不足需等待时安排定时唤醒；队首是同步等待者时由其线程自行处理（状态变化处会 signalAll）。
+     */
+    private void dispatchAsync(long now, List<Runnable> completions) {
+        refill(now);
+        while (true) {
+            Waiter next = selectNext(now);
+            if (next == null || next.future() == null) {
+                return;
+            }
+            long delay = delayUntilAdmissible(next);
+            if (delay == Long.MAX_VALUE) {
+                // 并发已满，等许可释放时再分派
+                return;
+            }
+            if (delay > 0) {
+                scheduleWakeup(now, delay);
+                return;
+            }
+            waiters.remove(next);
+            admit(next, now);
+            Permit permit = new Permit(next.tokens());
+            completions.add(() -> {
+                if (!next.future().complete(permit)) {
+                    permit.close();
+                }
+            });
+        }
+    }
+
+    private void scheduleWakeup(long now, long delayNanos) {
+        long at = now + delayNanos;
+        if (wakeupAtNanos != 0 && wakeupAtNanos - at <= 0) {
+            return;
+        }
+        wakeupAtNanos = at;
+        timer.schedule(() -> {
+            List<Runnable> completions = new ArrayList<>();
+            lock.lock();
+            try {
+                wakeupAtNanos = 0;
+                dispatchAsync(System.nanoTime(), completions);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            completions.forEach(Runnable::run);
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void expire(Waiter waiter) {
+        List<Runnable> completions = new ArrayList<>();
+        boolean expired;
+        lock.lock();
+        try {
+            expired = waiters.remove(waiter);
+            if (expired) {
+                throttled++;
+                dispatchAsync(System.nanoTime(), completions);
+                changed.signalAll();
+                logger.warn("LLM调用排队超时，provider={}, scene={}, inFlight={}, waiting={}",
+                        provider, waiter.scene(), inFlight, waiters.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+        completions.forEach(Runnable::run);
+        if (expired) {
+            waiter.future().completeExceptionally(new ThrottledException(provider, waiter.scene(), settings.maxWaitMs()));
+        }
+    }
+
+    private Waiter selectNext(long now) {
+        Waiter best = null;
+        double bestScore = 0;
+        for (Waiter waiter : waiters) {
+            double score = waiter.priority();
+            if (settings.agingMs() > 0) {
+                score -= (double) TimeUnit.NANOSECONDS.toMillis(now - waiter.enqueuedAt()) / settings.agingMs();
+            }
+            if (best == null || score < bestScore || (score == bestScore && waiter.sequence() < best.sequence())) {
+                best = waiter;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private long delayUntilAdmissible(Waiter waiter) {
+        if (inFlight >= settings.maxConcurrent()) {
+            return Long.MAX_VALUE;
+        }
+        long delay = 0;
+        if (settings.requestsPerMinute() > 0 && requestBucket < 1) {
+            delay = Math.max(delay, nanosToRefill(1 - requestBucket, settings.requestsPerMinute()));
+        }
+        if (settings.tokensPerMinute() > 0 && tokenBucket < waiter.tokens()) {
+            delay = Math.max(delay, nanosToRefill(waiter.tokens() - tokenBucket, settings.tokensPerMinute()));
+        }
+        return delay;
+    }
+
+    private static long nanosToRefill(double deficit, long perMinute) {
+        return Math.max(1L, (long) Math.ceil(deficit * TimeUnit.MINUTES.toNanos(1) / perMinute));
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        double minutes = (double) elapsed / TimeUnit.MINUTES.toNanos(1);
+        requestBucket = Math.min(settings.requestsPerMinute(), requestBucket + minutes * settings.requestsPerMinute());
+        tokenBucket = Math.min(settings.tokensPerMinute(), tokenBucket + minutes * settings.tokensPerMinute());
+        lastRefillNanos = now;
+    }
+
+    private void admit(Waiter waiter, long now) {
+        inFlight++;
+        requestBucket -= 1;
+        tokenBucket -= waiter.tokens();
+        granted++;
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(now - waiter.enqueuedAt());
+        totalWaitMs += waitedMs;
+        maxWaitObservedMs = Math.max(maxWaitObservedMs, waitedMs);
+        if (waitedMs >= 1000) {
+            logger.info("LLM调用排队放行，provider={}, scene={}, priority={}, waitedMs={}",
+                    provider, waiter.scene(), waiter.priority(), waitedMs);
+        }
+    }
+
+    private void release(long reservedTokens, long actualTokens) {
+        List<Runnable> completions = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            if (actualTokens >= 0 && settings.tokensPerMinute() > 0) {
+                // 实际用量少于预估时归还差额，多于预估时记为欠账，由后续补充抵扣
+                tokenBucket = Math.min(settings.tokensPerMinute(), tokenBucket + reservedTokens - actualTokens);
+            }
+            dispatchAsync(System.nanoTime(), completions);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        completions.forEach(Runnable::run);
+    }
+
+    /**
+     * 一次放行的调用许可，调用结束（成功或失败）后必须 close。
+     */
+    public final class Permit implements AutoCloseable {
+        private final long reservedTokens;
+        private volatile long actualTokens = -1;
+        private boolean released;
+
+        private Permit(long reservedTokens) {
+            this.reservedTokens = reservedTokens;
+        }
+
+        public void recordUsage(long totalTokens) {
+            if (totalTokens > 0) {
+                this.actualTokens = totalTokens;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            release(reservedTokens, actualTokens);
+        }
+    }
+
+    public static class ThrottledException extends RuntimeException {
+        private final long maxWaitMs;
+
+        public ThrottledException(String provider, String scene, long maxWaitMs) {
+            super("大模型调用排队超时（" + provider + ", scene=" + scene + ", 超过" + maxWaitMs + "ms）");
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        public long maxWaitMs() {
+            return maxWaitMs;
+        }
+    }
+
+    /**
+     * future 为 null 表示同步等待者（线程阻塞在 changed 上）。
+     */
+    private record Waiter(String scene, int priority, long tokens, long enqueuedAt, long sequence,
+                          CompletableFuture<Permit> future) {
+    }
+
+    /**
+     * 按供应商配置前缀读取参数，例如 deepseek.api.governor.max-concurrent。
+     * requests-per-minute / tokens-per-minute 为 0 表示不限制；场景优先级按前缀匹配，最长前缀优先。
+     */
+    public record Settings(int maxConcurrent,
+                           long requestsPerMinute,
+                           long tokensPerMinute,
+                           long reservedCompletionTokens,
+                           long maxWaitMs,
+                           long agingMs,
+                           int defaultPriority,
+                           Map<String, Integer> scenePriorities) {
+
+        public int priorityOf(String scene) {
+            String matched = null;
+            if (scene != null) {
+                for (String key : scenePriorities.keySet()) {
+                    if (scene.startsWith(key) && (matched == null || key.length() > matched.length())) {
+                        matched = key;
+                    }
+                }
+            }
+            return matched == null ? defaultPriority : scenePriorities.get(matched);
+        }
+
+        public static Settings fromEnvironment(Environment env, String prefix, int defaultMaxConcurrent) {
+            String priorities = env.getProperty(prefix + ".governor.scene-priorities", "");
+            Map<String, Integer> scenePriorities = Arrays.stream(priorities.split(","))
+                    .map(String::trim)
+                    .filter(item -> item.contains(":"))
+                    .collect(Collectors.toUnmodifiableMap(
+                            item -> item.substring(0, item.indexOf(':')).trim(),
+                            item -> Integer.parseInt(item.substring(item.indexOf(':') + 1).trim()),
+                            (left, right) -> right));
+            return new Settings(
+                    Math.max(1, env.getProperty(prefix + ".governor.max-concurrent", Integer.class, defaultMaxConcurrent)),
+                    Math.max(0L, env.getProperty(prefix + ".governor.requests-per-minute", Long.class, 0L)),
+                    Math.max(0L, env.getProperty(prefix + ".governor.tokens-per-minute", Long.class, 0L)),
+                    Math.max(0L, env.getProperty(prefix + ".governor.reserved-completion-tokens", Long.class, 1024L)),
+                    Math.max(1L, env.getProperty(prefix + ".governor.max-wait-ms", Long.class, 120000L)),
+                    Math.max(0L, env.getProperty(prefix + ".governor.aging-ms", Long.class, 30000L)),
+                    env.getProperty(prefix + ".governor.default-priority", Integer.class, 1),
+                    scenePriorities
+            );
+        }
+    }
+}
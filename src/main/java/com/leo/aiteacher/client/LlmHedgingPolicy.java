@@ -0,0 +1,132 @@
+package com.leo.aiteacher.client;
+
+import org.springframework.core.env.Environment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 对冲请求策略：仅对配置的短场景生效，主请求超过该场景耗时分位数仍未返回时补发一次，取先完成者。
+ * 对冲额度按主请求数的 budget-percent 累积（上限 max-burst），保证整体上游调用量增幅不超过该比例。
+ */
+public class LlmHedgingPolicy {
+
+    private final Settings settings;
+    private final LlmLatencyTracker latencyTracker;
+    private final Map<String, SceneBudget> budgets = new ConcurrentHashMap<>();
+
+    public LlmHedgingPolicy(Settings settings, LlmLatencyTracker latencyTracker) {
+        this.settings = settings;
+        this.latencyTracker = latencyTracker;
+    }
+
+    public boolean isEnabled(String scene) {
+        return settings.scenes().contains(scene);
+    }
+
+    /**
+     * 返回该场景的对冲等待时间；未开启对冲或样本不足时返回 -1。
+     * 每次调用计为一次主请求，为该场景累积对冲额度。
+     */
+    public long hedgeDelayMs(String scene) {
+        if (!settings.scenes().contains(scene)) {
+            return -1L;
+        }
+        budgetOf(scene).onPrimary(settings.budgetPercent() / 100.0, settings.maxBurst());
+        long percentile = latencyTracker.percentile(scene, settings.percentile(), settings.minSamples());
+        if (percentile < 0) {
+            return -1L;
+        }
+        return Math.max(settings.minDelayMs(), percentile);
+    }
+
+    public boolean tryConsumeBudget(String scene) {
+        return budgetOf(scene).tryConsume();
+    }
+
+    public void recordOutcome(String scene, boolean hedgeWon) {
+        if (hedgeWon) {
+            budgetOf(scene).hedgeWins.increment();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("scenes", settings.scenes());
+        result.put("percentile", settings.percentile());
+        result.put("budgetPercent", settings.budgetPercent());
+        Map<String, Object> stats = new HashMap<>();
+        budgets.forEach((scene, budget) -> stats.put(scene, budget.toMap()));
+        result.put("stats", stats);
+        return result;
+    }
+
+    private SceneBudget budgetOf(String scene) {
+        return budgets.computeIfAbsent(scene, key -> new SceneBudget());
+    }
+
+    private static final class SceneBudget {
+        private final LongAdder primaries = new LongAdder();
+        private final LongAdder hedges = new LongAdder();
+        private final LongAdder hedgeWins = new LongAdder();
+        private final LongAdder budgetExhausted = new LongAdder();
+        private double credit;
+
+        synchronized void onPrimary(double ratio, double maxBurst) {
+            primaries.increment();
+            credit = Math.min(maxBurst, credit + ratio);
+        }
+
+        synchronized boolean tryConsume() {
+            if (credit < 1.0) {
+                budgetExhausted.increment();
+                return false;
+            }
+            credit -= 1.0;
+            hedges.increment();
+            return true;
+        }
+
+        Map<String, Object> toMap() {
+            long primaryCount = primaries.sum();
+            Map<String, Object> map = new HashMap<>();
+            map.put("primaries", primaryCount);
+            map.put("hedges", hedges.sum());
+            map.put("hedgeWins", hedgeWins.sum());
+            map.put("budgetExhausted", budgetExhausted.sum());
+            map.put("extraLoadRatio", primaryCount == 0 ? 0.0 : (double) hedges.sum() / primaryCount);
+            return map;
+        }
+    }
+
+    /**
+     * 读取 deepseek.api.hedge.*，scenes 为空表示不对冲。
+     */
+    public record Settings(Set<String> scenes,
+                           double percentile,
+                           double budgetPercent,
+                           double maxBurst,
+                           long minDelayMs,
+                           int minSamples) {
+
+        public static Settings fromEnvironment(Environment env, String prefix) {
+            Set<String> scenes = Arrays.stream(env.getProperty(prefix + ".hedge.scenes", "").split(","))
+                    .map(String::trim)
+                    .filter(scene -> !scene.isEmpty())
+                    .collect(Collectors.toUnmodifiableSet());
+            return new Settings(
+                    scenes,
+                    env.getProperty(prefix + ".hedge.percentile", Double.class, 95.0),
+                    Math.max(0.0, env.getProperty(prefix + ".hedge.budget-percent", Double.class, 10.0)),
+                    Math.max(1.0, env.getProperty(prefix + ".hedge.max-burst", Double.class, 5.0)),
+                    Math.max(0L, env.getProperty(prefix + ".hedge.min-delay-ms", Long.class, 1000L)),
+                    Math.max(1, env.getProperty(prefix + ".hedge.min-samples", Integer.class, 20))
+            );
+        }
+    }
+}
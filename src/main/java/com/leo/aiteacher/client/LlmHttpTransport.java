@@ -0,0 +1,501 @@
+package com.leo.aiteacher.client;
+
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.client5.http.async.methods.AbstractCharResponseConsumer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * 单个大模型供应商的共享 HTTP 传输层：连接池 + keep-alive，所有调用方复用同一组连接。
+ * 开启 http2 时改用 JDK HttpClient，通过 ALPN 协商 HTTP/2，服务端不支持时自动回落到 HTTP/1.1。
+ * 另提供基于 NIO 的异步调用（少量 I/O 线程承载大量在途请求），错误映射与同步 RestTemplate 一致：
+ * 非 2xx 抛 {@link HttpStatusCodeException}，网络错误抛 {@link ResourceAccessException}。
+ */
+public class LlmHttpTransport implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmHttpTransport.class);
+
+    private final String provider;
+    private final Settings settings;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient pooledClient;
+    private final HttpClient jdkClient;
+    private final RestTemplate restTemplate;
+    private final PoolingAsyncClientConnectionManager asyncConnectionManager;
+    private final CloseableHttpAsyncClient asyncClient;
+
+    private LlmHttpTransport(String provider, Settings settings) {
+        this.provider = provider;
+        this.settings = settings;
+
+        ClientHttpRequestFactory requestFactory;
+        if (settings.http2Enabled()) {
+            this.connectionManager = null;
+            this.pooledClient = null;
+            this.jdkClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofMillis(settings.connectTimeoutMs()))
+                    .build();
+            JdkClientHttpRequestFactory jdkFactory = new JdkClientHttpRequestFactory(jdkClient);
+            jdkFactory.setReadTimeout(Duration.ofMillis(settings.readTimeoutMs()));
+            requestFactory = jdkFactory;
+        } else {
+            this.jdkClient = null;
+            this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                    .setMaxConnTotal(settings.maxConnections())
+                    .setMaxConnPerRoute(settings.maxPerRoute())
+                    .setDefaultConnectionConfig(ConnectionConfig.custom()
+                            .setConnectTimeout(Timeout.ofMilliseconds(settings.connectTimeoutMs()))
+                            .setSocketTimeout(Timeout.ofMilliseconds(settings.readTimeoutMs()))
+                            .setTimeToLive(TimeValue.ofSeconds(settings.connectionTtlSeconds()))
+                            .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                            .build())
+                    .build();
+            this.pooledClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectionRequestTimeout(Timeout.ofMilliseconds(settings.connectTimeoutMs()))
+                            .setResponseTimeout(Timeout.ofMilliseconds(settings.readTimeoutMs()))
+                            .build())
+                    .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(settings.keepAliveSeconds()))
+                    .evictExpiredConnections()
+                    .evictIdleConnections(TimeValue.ofSeconds(settings.idleEvictSeconds()))
+                    .disableAutomaticRetries()
+                    .build();
+            requestFactory = new HttpComponentsClientHttpRequestFactory(pooledClient);
+        }
+        this.restTemplate = new RestTemplate(requestFactory);
+
+        this.asyncConnectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(settings.maxConnections())
+                .setMaxConnPerRoute(settings.maxPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(settings.connectTimeoutMs()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(settings.readTimeoutMs()))
+                        .setTimeToLive(TimeValue.ofSeconds(settings.connectionTtlSeconds()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        this.asyncClient = HttpAsyncClients.custom()
+                .setConnectionManager(asyncConnectionManager)
+                // 超时检查随 select 周期进行，默认 1s 会让短超时明显滞后
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(settings.ioThreads())
+                        .setSelectInterval(TimeValue.ofMilliseconds(100))
+                        .build())
+                .setVersionPolicy(settings.http2Enabled() ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(settings.connectTimeoutMs()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(settings.readTimeoutMs()))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(settings.keepAliveSeconds()))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(settings.idleEvictSeconds()))
+                .disableAutomaticRetries()
+                .build();
+        this.asyncClient.start();
+        logger.info("LLM传输层已初始化，provider={}, settings={}", provider, settings);
+    }
+
+    public static LlmHttpTransport create(String provider, Settings settings) {
+        return new LlmHttpTransport(provider, settings);
+    }
+
+    public String provider() {
+        return provider;
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    public RestTemplate restTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * 异步 POST，2xx 时把响应体按到达的分块交给 handler 增量解析，不在内存中拼出完整报文。
+     * handler 在 I/O 线程上执行，抛出的异常原样作为 future 的失败原因；非 2xx 时收集响应体用于构造异常。
+     */
+    public <T> CompletableFuture<T> postAsync(String url, Map<String, String> headers, byte[] body, BodyHandler<T> handler,
+                                              long connectTimeoutMs, long readTimeoutMs) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        BodyConsumer<T> consumer = new BodyConsumer<>(handler);
+        Future<T> exchange = asyncClient.execute(
+                SimpleRequestProducer.create(buildPost(url, headers, body)),
+                consumer,
+                null,
+                callContext(connectTimeoutMs, readTimeoutMs),
+                new FutureCallback<>() {
+                    @Override
+                    public void completed(T value) {
+                        if (consumer.errorStatus > 0) {
+                            result.completeExceptionally(statusException(consumer.errorStatus, consumer.errorReason,
+                                    consumer.errorHeaders, consumer.errorBody.toByteArray()));
+                        } else if (consumer.handlerError != null) {
+                            result.completeExceptionally(consumer.handlerError);
+                        } else {
+                            result.complete(value);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        result.completeExceptionally(consumer.handlerError != null ? consumer.handlerError : ioException(url, ex));
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.cancel(false);
+                    }
+                });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 异步 POST 并逐行回调响应体（用于 SSE 流式输出），回调在 I/O 线程上执行，不应阻塞。
+     * 回调抛出的异常原样作为 future 的失败原因；非 2xx 时读完响应体后按状态码抛出。
+     */
+    public CompletableFuture<Void> postStreamAsync(String url, Map<String, String> headers, byte[] body,
+                                                   LineHandler handler, long connectTimeoutMs, long readTimeoutMs) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        LineConsumer consumer = new LineConsumer(handler);
+        Future<Void> exchange = asyncClient.execute(
+                SimpleRequestProducer.create(buildPost(url, headers, body)),
+                consumer,
+                null,
+                callContext(connectTimeoutMs, readTimeoutMs),
+                new FutureCallback<>() {
+                    @Override
+                    public void completed(Void ignored) {
+                        if (consumer.errorStatus > 0) {
+                            result.completeExceptionally(statusException(consumer.errorStatus, consumer.errorReason,
+                                    consumer.errorHeaders, consumer.errorBody.toString().getBytes(StandardCharsets.UTF_8)));
+                        } else {
+                            result.complete(null);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        result.completeExceptionally(consumer.handlerError != null ? consumer.handlerError : ioException(url, ex));
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.cancel(false);
+                    }
+                });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static SimpleHttpRequest buildPost(String url, Map<String, String> headers, byte[] body) {
+        SimpleRequestBuilder builder = SimpleRequestBuilder.post(url).setBody(body, ContentType.APPLICATION_JSON);
+        headers.forEach(builder::setHeader);
+        return builder.build();
+    }
+
+    /**
+     * 按调用覆盖超时：connectTimeoutMs 同时用于等待池中连接和建立新连接，readTimeoutMs 为响应超时。
+     * RequestConfig 上的连接超时已标记废弃（推荐放在 ConnectionConfig），但异步客户端建连时仍优先使用它，
+     * 是按请求覆盖连接超时的唯一途径。
+     */
+    @SuppressWarnings("deprecation")
+    private static HttpClientContext callContext(long connectTimeoutMs, long readTimeoutMs) {
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .build());
+        return context;
+    }
+
+    private static HttpStatusCodeException statusException(int status, String reason, Header[] headers, byte[] body) {
+        HttpHeaders responseHeaders = new HttpHeaders();
+        if (headers != null) {
+            for (Header header : headers) {
+                responseHeaders.add(header.getName(), header.getValue());
+            }
+        }
+        HttpStatusCode statusCode = HttpStatusCode.valueOf(status);
+        String statusText = reason == null ? "" : reason;
+        if (statusCode.is4xxClientError()) {
+            return HttpClientErrorException.create(statusCode, statusText, responseHeaders, body, StandardCharsets.UTF_8);
+        }
+        return HttpServerErrorException.create(statusCode, statusText, responseHeaders, body, StandardCharsets.UTF_8);
+    }
+
+    private static ResourceAccessException ioException(String url, Exception cause) {
+        IOException ioException = cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        return new ResourceAccessException("I/O error on POST request for \"" + url + "\": " + cause.getMessage(), ioException);
+    }
+
+    public Map<String, Object> poolStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("provider", provider);
+        stats.put("http2Enabled", settings.http2Enabled());
+        if (connectionManager != null) {
+            PoolStats totals = connectionManager.getTotalStats();
+            stats.put("leased", totals.getLeased());
+            stats.put("available", totals.getAvailable());
+            stats.put("pending", totals.getPending());
+            stats.put("max", totals.getMax());
+        }
+        PoolStats asyncTotals = asyncConnectionManager.getTotalStats();
+        stats.put("asyncLeased", asyncTotals.getLeased());
+        stats.put("asyncAvailable", asyncTotals.getAvailable());
+        stats.put("asyncPending", asyncTotals.getPending());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (pooledClient != null) {
+                pooledClient.close();
+            }
+            asyncClient.close(CloseMode.GRACEFUL);
+        } catch (Exception e) {
+            logger.warn("关闭LLM传输层失败，provider={}", provider, e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface LineHandler {
+        void onLine(String line) throws Exception;
+    }
+
+    /**
+     * 增量消费响应体。onData 的 src 只在本次回调内有效，需要保留的内容应自行复制。
+     */
+    public interface BodyHandler<T> {
+        void onData(ByteBuffer src) throws Exception;
+
+        T onComplete() throws Exception;
+    }
+
+    /**
+     * 把 2xx 响应体分块交给 BodyHandler；非 2xx 时不回调，只收集响应体（最多 64KB）用于构造异常。
+     */
+    private static final class BodyConsumer<T> extends AbstractBinResponseConsumer<T> {
+        private static final int MAX_ERROR_BODY_BYTES = 64 * 1024;
+
+        private final BodyHandler<T> handler;
+        private final ByteArrayOutputStream errorBody = new ByteArrayOutputStream();
+        private volatile int errorStatus;
+        private volatile String errorReason;
+        private volatile Header[] errorHeaders;
+        private volatile Exception handlerError;
+
+        BodyConsumer(BodyHandler<T> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        protected void start(HttpResponse response, ContentType contentType) {
+            if (response.getCode() < 200 || response.getCode() >= 300) {
+                errorStatus = response.getCode();
+                errorReason = response.getReasonPhrase();
+                errorHeaders = response.getHeaders();
+            }
+        }
+
+        @Override
+        protected int capacityIncrement() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        protected void data(ByteBuffer src, boolean endOfStream) throws IOException {
+            if (errorStatus > 0) {
+                int length = Math.min(src.remaining(), MAX_ERROR_BODY_BYTES - errorBody.size());
+                if (length > 0) {
+                    byte[] chunk = new byte[length];
+                    src.get(chunk);
+                    errorBody.write(chunk, 0, length);
+                }
+                return;
+            }
+            try {
+                handler.onData(src);
+            } catch (Exception e) {
+                handlerError = e;
+                throw new IOException("响应解析失败: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        protected T buildResult() {
+            if (errorStatus > 0) {
+                return null;
+            }
+            try {
+                return handler.onComplete();
+            } catch (Exception e) {
+                handlerError = e;
+                return null;
+            }
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+    }
+
+    /**
+     * 按行切分响应体并回调；非 2xx 时不回调，只收集响应体用于构造异常。
+     */
+    private static final class LineConsumer extends AbstractCharResponseConsumer<Void> {
+        private final LineHandler handler;
+        private final StringBuilder pending = new StringBuilder();
+        private final StringBuilder errorBody = new StringBuilder();
+        private volatile int errorStatus;
+        private volatile String errorReason;
+        private volatile Header[] errorHeaders;
+        private volatile Exception handlerError;
+
+        LineConsumer(LineHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        protected void start(HttpResponse response, ContentType contentType) {
+            if (response.getCode() < 200 || response.getCode() >= 300) {
+                errorStatus = response.getCode();
+                errorReason = response.getReasonPhrase();
+                errorHeaders = response.getHeaders();
+            }
+            setCharset(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected int capacityIncrement() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        protected void data(CharBuffer src, boolean endOfStream) throws IOException {
+            if (errorStatus > 0) {
+                errorBody.append(src);
+                return;
+            }
+            pending.append(src);
+            int newline;
+            while ((newline = pending.indexOf("\n")) >= 0) {
+                String line = pending.substring(0, newline);
+                pending.delete(0, newline + 1);
+                emit(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+            }
+            if (endOfStream && pending.length() > 0) {
+                emit(pending.toString());
+                pending.setLength(0);
+            }
+        }
+
+        private void emit(String line) throws IOException {
+            try {
+                handler.onLine(line);
+            } catch (Exception e) {
+                handlerError = e;
+                throw new IOException("流式响应处理失败: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        protected Void buildResult() {
+            return null;
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+    }
+
+    /**
+     * 按供应商配置前缀读取参数，例如 deepseek.api.http.max-per-route。
+     * 超时沿用各供应商已有的 timeout.connect-ms / timeout.read-ms 配置项。
+     */
+    public record Settings(int maxConnections,
+                           int maxPerRoute,
+                           long idleEvictSeconds,
+                           long keepAliveSeconds,
+                           long connectionTtlSeconds,
+                           boolean http2Enabled,
+                           long connectTimeoutMs,
+                           long readTimeoutMs,
+                           int ioThreads) {
+
+        public static Settings fromEnvironment(Environment env, String prefix, long defaultReadTimeoutMs) {
+            return new Settings(
+                    env.getProperty(prefix + ".http.max-connections", Integer.class, 64),
+                    env.getProperty(prefix + ".http.max-per-route", Integer.class, 32),
+                    env.getProperty(prefix + ".http.idle-evict-seconds", Long.class, 30L),
+                    env.getProperty(prefix + ".http.keep-alive-seconds", Long.class, 60L),
+                    env.getProperty(prefix + ".http.connection-ttl-seconds", Long.class, 300L),
+                    env.getProperty(prefix + ".http.http2-enabled", Boolean.class, false),
+                    env.getProperty(prefix + ".timeout.connect-ms", Long.class, 5000L),
+                    env.getProperty(prefix + ".timeout.read-ms", Long.class, defaultReadTimeoutMs),
+                    Math.max(1, env.getProperty(prefix + ".http.io-threads", Integer.class, 2))
+            );
+        }
+    }
+}
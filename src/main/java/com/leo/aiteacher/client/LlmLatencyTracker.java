@@ -0,0 +1,94 @@
+package com.leo.aiteacher.client;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按场景记录最近 N 次上游调用的耗时（环形缓冲，不含本地排队），用于计算分位数。
+ * 读超时的调用以超时值计入，成功调用以实际耗时计入。
+ */
+public class LlmLatencyTracker {
+
+    private final int windowSize;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    public LlmLatencyTracker(int windowSize) {
+        this.windowSize = Math.max(10, windowSize);
+    }
+
+    public void record(String scene, long latencyMs) {
+        windows.computeIfAbsent(scene, key -> new Window(windowSize)).add(Math.max(0L, latencyMs));
+    }
+
+    public Set<String> scenes() {
+        return Set.copyOf(windows.keySet());
+    }
+
+    public int sampleCount(String scene) {
+        Window window = windows.get(scene);
+        return window == null ? 0 : window.size();
+    }
+
+    /**
+     * 返回场景的耗时分位数，样本不足 minSamples 时返回 -1。
+     */
+    public long percentile(String scene, double percentile, int minSamples) {
+        Window window = windows.get(scene);
+        if (window == null) {
+            return -1L;
+        }
+        long[] sorted = window.sortedSamples();
+        if (sorted.length == 0 || sorted.length < minSamples) {
+            return -1L;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        windows.forEach((scene, window) -> {
+            long[] sorted = window.sortedSamples();
+            if (sorted.length == 0) {
+                return;
+            }
+            Map<String, Object> sceneStats = new HashMap<>();
+            sceneStats.put("samples", sorted.length);
+            sceneStats.put("p50Ms", sorted[(int) Math.ceil(0.50 * sorted.length) - 1]);
+            sceneStats.put("p95Ms", sorted[(int) Math.ceil(0.95 * sorted.length) - 1]);
+            sceneStats.put("p99Ms", sorted[(int) Math.ceil(0.99 * sorted.length) - 1]);
+            sceneStats.put("maxMs", sorted[sorted.length - 1]);
+            result.put(scene, sceneStats);
+        });
+        return result;
+    }
+
+    private static final class Window {
+        private final long[] samples;
+        private int next;
+        private int size;
+
+        Window(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        synchronized void add(long value) {
+            samples[next] = value;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] sortedSamples() {
+            long[] copy = Arrays.copyOf(samples, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.leo.aiteacher.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个大模型供应商的容错策略：错误分类、decorrelated jitter 退避、遵守 Retry-After，以及熔断器。
+ * 只有网络超时、429、408 和 5xx 会重试；其余 4xx、响应解析失败、本地排队超时直接抛出。
+ * 连续失败达到阈值后熔断，open-ms 内快速失败，之后放行一个探测请求决定恢复或继续熔断。
+ */
+public class LlmResilience {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmResilience.class);
+
+    private final String provider;
+    private final Settings settings;
+
+    private BreakerState state = BreakerState.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long opened;
+    private long shortCircuited;
+    private long retries;
+    private long nonRetryableFailures;
+
+    private LlmResilience(String provider, Settings settings) {
+        this.provider = provider;
+        this.settings = settings;
+        logger.info("LLM容错策略已初始化，provider={}, settings={}", provider, settings);
+    }
+
+    public static LlmResilience create(String provider, Settings settings) {
+        return new LlmResilience(provider, settings);
+    }
+
+    public String provider() {
+        return provider;
+    }
+
+    public <T> T execute(String scene, Attempt<T> call) throws Exception {
+        RetryState retryState = new RetryState(scene);
+        for (int attempt = 1; ; attempt++) {
+            boolean probe = beforeCall(scene);
+            try {
+                T result = call.run(attempt);
+                onSuccess(probe);
+                return result;
+            } catch (Exception e) {
+                long delayMs = retryState.onFailure(attempt, probe, e);
+                if (delayMs < 0) {
+                    throw e;
+                }
+                TimeUnit.MILLISECONDS.sleep(delayMs);
+            }
+        }
+    }
+
+    /**
+     * 异步版本：分类、退避、熔断规则与 {@link #execute} 相同，退避期间不占用线程。
+     */
+    public <T> CompletableFuture<T> executeAsync(String scene, AsyncAttempt<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        runAttempt(scene, call, 1, new RetryState(scene), result);
+        return result;
+    }
+
+    private <T> void runAttempt(String scene, AsyncAttempt<T> call, int attempt, RetryState retryState, CompletableFuture<T> result) {
+        boolean probe;
+        CompletableFuture<T> future;
+        try {
+            probe = beforeCall(scene);
+        } catch (CircuitOpenException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        try {
+            future = call.run(attempt);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                onSuccess(probe);
+                result.complete(value);
+                return;
+            }
+            Exception cause = unwrap(error);
+            long delayMs = retryState.onFailure(attempt, probe, cause);
+            if (delayMs < 0) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS)
+                    .execute(() -> runAttempt(scene, call, attempt + 1, retryState, result));
+        });
+    }
+
+    public static Exception unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception exception ? exception : new RuntimeException(cause);
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("provider", provider);
+        result.put("breakerState", currentState(System.currentTimeMillis()).name());
+        result.put("consecutiveFailures", consecutiveFailures);
+        result.put("openedCount", opened);
+        result.put("shortCircuited", shortCircuited);
+        result.put("retries", retries);
+        result.put("nonRetryableFailures", nonRetryableFailures);
+        return result;
+    }
+
+    /**
+     * 熔断器打开时距离允许试探的剩余毫秒数；未打开或已可试探时为 0。
+     */
+    public synchronized long openRemainingMs() {
+        if (state != BreakerState.OPEN) {
+            return 0L;
+        }
+        return Math.max(0L, openedAt + settings.openMs() - System.currentTimeMillis());
+    }
+
+    public static boolean isRetryable(Throwable e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        if (e instanceof HttpStatusCodeException statusException) {
+            int status = statusException.getStatusCode().value();
+            return status == 429 || status == 408 || status >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * 本地熔断或排队超时这类未真正发出请求的失败，返回建议的重新排期毫秒数（熔断剩余时间或排队等待上限）；
+     * 其他失败返回 -1。调用方可把这类任务延后再试，不计入重试次数。
+     */
+    public static long deferMs(Throwable e) {
+        if (e instanceof CircuitOpenException open) {
+            return open.remainingMs();
+        }
+        if (e instanceof LlmGovernor.ThrottledException throttled) {
+            return throttled.maxWaitMs();
+        }
+        return -1L;
+    }
+
+    private static boolean countsAsOutage(Throwable e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        return e instanceof HttpStatusCodeException statusException && statusException.getStatusCode().is5xxServerError();
+    }
+
+    private static Long retryAfterMs(Throwable e) {
+        if (!(e instanceof HttpStatusCodeException statusException) || statusException.getResponseHeaders() == null) {
+            return null;
+        }
+        String value = statusException.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException ignored) {
+            // 也可能是 HTTP-date 格式
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0L, at.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * 一次调用（含重试）内的退避状态。
+     */
+    private final class RetryState {
+        private final String scene;
+        private final int maxAttempts = Math.max(1, settings.maxAttempts());
+        private long previousDelayMs = settings.baseDelayMs();
+
+        RetryState(String scene) {
+            this.scene = scene;
+        }
+
+        /**
+         * 记录一次失败并返回重试前的等待毫秒数；不可重试或次数用尽时返回 -1。
+         */
+        long onFailure(int attempt, boolean probe, Exception e) {
+            boolean retryable = isRetryable(e);
+            LlmResilience.this.onFailure(probe, countsAsOutage(e));
+            if (!retryable || attempt >= maxAttempts) {
+                if (!retryable) {
+                    synchronized (LlmResilience.this) {
+                        nonRetryableFailures++;
+                    }
+                }
+                return -1L;
+            }
+
+            long delayMs = nextDelayMs(previousDelayMs);
+            previousDelayMs = delayMs;
+            Long retryAfterMs = retryAfterMs(e);
+            if (retryAfterMs != null) {
+                delayMs = Math.min(settings.maxRetryAfterMs(), Math.max(delayMs, retryAfterMs));
+            }
+            synchronized (LlmResilience.this) {
+                retries++;
+            }
+            logger.warn("{}调用失败，{}ms后重试，scene={}, attempt={}/{}, error={}",
+                    provider, delayMs, scene, attempt, maxAttempts, e.getMessage());
+            return delayMs;
+        }
+    }
+
+    private long nextDelayMs(long previousDelayMs) {
+        long base = Math.max(1L, settings.baseDelayMs());
+        long upper = Math.max(base + 1, previousDelayMs * 3);
+        return Math.min(settings.maxDelayMs(), ThreadLocalRandom.current().nextLong(base, upper));
+    }
+
+    private synchronized boolean beforeCall(String scene) {
+        long now = System.currentTimeMillis();
+        BreakerState current = currentState(now);
+        if (current == BreakerState.CLOSED) {
+            return false;
+        }
+        if (current == BreakerState.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            state = BreakerState.HALF_OPEN;
+            logger.info("{}熔断器半开，放行探测请求，scene={}", provider, scene);
+            return true;
+        }
+        shortCircuited++;
+        throw new CircuitOpenException(provider, Math.max(0L, openedAt + settings.openMs() - now));
+    }
+
+    private synchronized void onSuccess(boolean probe) {
+        if (probe || state != BreakerState.CLOSED) {
+            logger.info("{}熔断器恢复为关闭状态", provider);
+        }
+        state = BreakerState.CLOSED;
+        probeInFlight = false;
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void onFailure(boolean probe, boolean outage) {
+        if (probe) {
+            probeInFlight = false;
+        }
+        if (!outage) {
+            // 4xx、解析失败等不代表上游故障；探测请求如此失败时保持半开，由下一个请求继续探测
+            return;
+        }
+        consecutiveFailures++;
+        if (probe || (state == BreakerState.CLOSED && consecutiveFailures >= settings.failureThreshold())) {
+            state = BreakerState.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened++;
+            logger.warn("{}熔断器打开，consecutiveFailures={}, openMs={}", provider, consecutiveFailures, settings.openMs());
+        }
+    }
+
+    private BreakerState currentState(long now) {
+        if (state == BreakerState.OPEN && now - openedAt >= settings.openMs()) {
+            return BreakerState.HALF_OPEN;
+        }
+        return state;
+    }
+
+    @FunctionalInterface
+    public interface Attempt<T> {
+        T run(int attempt) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface AsyncAttempt<T> {
+        CompletableFuture<T> run(int attempt) throws Exception;
+    }
+
+    public enum BreakerState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static class CircuitOpenException extends RuntimeException {
+        private final long remainingMs;
+
+        public CircuitOpenException(String provider, long remainingMs) {
+            super(provider + "服务暂不可用（熔断中，约" + TimeUnit.MILLISECONDS.toSeconds(remainingMs + 999) + "秒后重试）");
+            this.remainingMs = remainingMs;
+        }
+
+        public long remainingMs() {
+            return remainingMs;
+        }
+    }
+
+    /**
+     * 按供应商配置前缀读取参数，沿用已有的 retry.max-attempts / retry.delay-ms，delay-ms 作为退避基数。
+     */
+    public record Settings(int maxAttempts,
+                           long baseDelayMs,
+                           long maxDelayMs,
+                           long maxRetryAfterMs,
+                           int failureThreshold,
+                           long openMs) {
+
+        public static Settings fromEnvironment(Environment env, String prefix, int defaultMaxAttempts) {
+            return new Settings(
+                    env.getProperty(prefix + ".retry.max-attempts", Integer.class, defaultMaxAttempts),
+                    Math.max(1L, env.getProperty(prefix + ".retry.delay-ms", Long.class, 500L)),
+                    Math.max(1L, env.getProperty(prefix + ".retry.max-delay-ms", Long.class, 20000L)),
+                    Math.max(0L, env.getProperty(prefix + ".retry.max-retry-after-ms", Long.class, 60000L)),
+                    Math.max(1, env.getProperty(prefix + ".breaker.failure-threshold", Integer.class, 5)),
+                    Math.max(1L, env.getProperty(prefix + ".breaker.open-ms", Long.class, 30000L))
+            );
+        }
+    }
+}
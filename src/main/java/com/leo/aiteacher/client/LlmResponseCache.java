@@ -0,0 +1,244 @@
+package com.leo.aiteacher.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 大模型响应缓存：以 scene + model + temperature + 完整 Prompt 的 SHA-256 作为键。
+ * 一级为内存 LRU（带 TTL），二级为可选的 MySQL 表 llm_response_cache；只有在 enabled-scenes 中的场景才会读写缓存。
+ */
+@Component
+public class LlmResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmResponseCache.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Set<String> enabledScenes;
+    private final int maxEntries;
+    private final long ttlSeconds;
+    private final boolean dbEnabled;
+    private final LinkedHashMap<String, Entry> memory;
+    private final Map<String, SceneStats> stats = new ConcurrentHashMap<>();
+    private final AtomicBoolean schemaChecked = new AtomicBoolean(false);
+
+    public LlmResponseCache(JdbcTemplate jdbcTemplate,
+                            @Value("${deepseek.api.cache.enabled-scenes:}") String enabledScenes,
+                            @Value("${deepseek.api.cache.max-entries:500}") int maxEntries,
+                            @Value("${deepseek.api.cache.ttl-seconds:86400}") long ttlSeconds,
+                            @Value("${deepseek.api.cache.db-enabled:false}") boolean dbEnabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabledScenes = Arrays.stream(enabledScenes.split(","))
+                .map(String::trim)
+                .filter(scene -> !scene.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlSeconds = Math.max(1L, ttlSeconds);
+        this.dbEnabled = dbEnabled;
+        this.memory = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    public boolean isEnabled(String scene) {
+        return scene != null && enabledScenes.contains(scene);
+    }
+
+    public String key(String scene, String model, DeepSeekChatClient.ChatRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : List.of(
+                    scene,
+                    model == null ? "" : model,
+                    request.temperature() == null ? "" : request.temperature().toString(),
+                    request.systemPrompt() == null ? "" : request.systemPrompt(),
+                    request.message() == null ? "" : request.message())) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException("无法计算缓存键", e);
+        }
+    }
+
+    public CachedResponse get(String scene, String key) {
+        SceneStats sceneStats = statsOf(scene);
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > now) {
+                    sceneStats.memoryHits.increment();
+                    return entry.response();
+                }
+                memory.remove(key);
+            }
+        }
+
+        if (dbEnabled) {
+            CachedResponse fromDb = loadFromDb(key);
+            if (fromDb != null) {
+                sceneStats.dbHits.increment();
+                putMemory(key, fromDb, now + ttlSeconds * 1000L);
+                return fromDb;
+            }
+        }
+        sceneStats.misses.increment();
+        return null;
+    }
+
+    public void put(String scene, String key, CachedResponse response) {
+        if (response == null || response.content() == null || response.content().isBlank()) {
+            return;
+        }
+        statsOf(scene).stores.increment();
+        putMemory(key, response, System.currentTimeMillis() + ttlSeconds * 1000L);
+        if (dbEnabled) {
+            saveToDb(scene, key, response);
+        }
+    }
+
+    public void invalidate(String scene, String key) {
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        statsOf(scene).invalidations.increment();
+        if (dbEnabled) {
+            try {
+                ensureSchema();
+                jdbcTemplate.update("DELETE FROM llm_response_cache WHERE cache_key = ?", key);
+            } catch (Exception e) {
+                logger.warn("删除LLM缓存记录失败，key={}, error={}", key, e.getMessage());
+            }
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        synchronized (memory) {
+            result.put("memoryEntries", memory.size());
+        }
+        result.put("maxEntries", maxEntries);
+        result.put("ttlSeconds", ttlSeconds);
+        result.put("dbEnabled", dbEnabled);
+        result.put("enabledScenes", enabledScenes);
+
+        Map<String, Object> scenes = new HashMap<>();
+        stats.forEach((scene, sceneStats) -> scenes.put(scene, sceneStats.toMap()));
+        result.put("scenes", scenes);
+        return result;
+    }
+
+    private void putMemory(String key, CachedResponse response, long expiresAt) {
+        synchronized (memory) {
+            memory.put(key, new Entry(response, expiresAt));
+            while (memory.size() > maxEntries) {
+                String eldest = memory.keySet().iterator().next();
+                memory.remove(eldest);
+            }
+        }
+    }
+
+    private CachedResponse loadFromDb(String key) {
+        try {
+            ensureSchema();
+            List<CachedResponse> rows = jdbcTemplate.query(
+                    "SELECT model_name, content, raw_response FROM llm_response_cache WHERE cache_key = ? AND expires_at > ?",
+                    (rs, rowNum) -> new CachedResponse(rs.getString("content"), rs.getString("raw_response"), rs.getString("model_name")),
+                    key, Timestamp.valueOf(LocalDateTime.now()));
+            return rows.isEmpty() ? null : rows.get(0);
+        } catch (Exception e) {
+            logger.warn("读取LLM缓存失败，key={}, error={}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveToDb(String scene, String key, CachedResponse response) {
+        try {
+            ensureSchema();
+            jdbcTemplate.update("""
+                            INSERT INTO llm_response_cache (cache_key, scene, model_name, content, raw_response, expires_at)
+                            VALUES (?, ?, ?, ?, ?, ?)
+                            ON DUPLICATE KEY UPDATE content = VALUES(content), raw_response = VALUES(raw_response),
+                                                    model_name = VALUES(model_name), expires_at = VALUES(expires_at)
+                            """,
+                    key, scene, response.modelName(), response.content(), response.rawResponse(),
+                    Timestamp.valueOf(LocalDateTime.now().plusSeconds(ttlSeconds)));
+        } catch (Exception e) {
+            logger.warn("写入LLM缓存失败，scene={}, error={}", scene, e.getMessage());
+        }
+    }
+
+    private void ensureSchema() {
+        if (schemaChecked.get()) {
+            return;
+        }
+        synchronized (schemaChecked) {
+            if (schemaChecked.get()) {
+                return;
+            }
+            jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS llm_response_cache (
+                        cache_key    CHAR(64)     NOT NULL PRIMARY KEY COMMENT 'scene+model+temperature+prompt 的 SHA-256',
+                        scene        VARCHAR(100) NOT NULL COMMENT '调用场景',
+                        model_name   VARCHAR(100) NULL COMMENT '模型名称',
+                        content      LONGTEXT     NOT NULL COMMENT '模型输出内容',
+                        raw_response LONGTEXT     NULL COMMENT '模型原始响应',
+                        created_at   TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL,
+                        expires_at   TIMESTAMP    NOT NULL COMMENT '过期时间',
+                        KEY idx_llm_cache_expires (expires_at)
+                    ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
+                    """);
+            schemaChecked.set(true);
+        }
+    }
+
+    private SceneStats statsOf(String scene) {
+        return stats.computeIfAbsent(scene == null ? "default" : scene, key -> new SceneStats());
+    }
+
+    public record CachedResponse(String content, String rawResponse, String modelName) {
+    }
+
+    private record Entry(CachedResponse response, long expiresAt) {
+    }
+
+    private static final class SceneStats {
+        private final LongAdder memoryHits = new LongAdder();
+        private final LongAdder dbHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder stores = new LongAdder();
+        private final LongAdder invalidations = new LongAdder();
+
+        Map<String, Object> toMap() {
+            long hits = memoryHits.sum() + dbHits.sum();
+            long lookups = hits + misses.sum();
+            Map<String, Object> map = new HashMap<>();
+            map.put("memoryHits", memoryHits.sum());
+            map.put("dbHits", dbHits.sum());
+            map.put("misses", misses.sum());
+            map.put("stores", stores.sum());
+            map.put("invalidations", invalidations.sum());
+            map.put("upstreamCallsSaved", hits);
+            map.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+            return map;
+        }
+    }
+}
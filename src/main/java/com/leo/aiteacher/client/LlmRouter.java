@@ -0,0 +1,239 @@
+package com.leo.aiteacher.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 多端点路由：按场景维护各端点的 EWMA 耗时与错误率，按 权重 / (耗时 × (1 + 惩罚 × 错误率))² 的比例随机选择端点，
+ * 慢的端点自然少分流量但仍有少量请求用于刷新统计。错误率超过阈值的端点被摘除 eject-ms，期间只在别无选择时使用。
+ * 同一次调用的重试优先换到未失败过的端点，实现自动故障转移。只配置主端点时行为与单端点完全一致。
+ */
+public class LlmRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmRouter.class);
+
+    private final String provider;
+    private final Settings settings;
+    private final List<LlmEndpoint> endpoints;
+    private final Map<String, Ewma> sceneStats = new ConcurrentHashMap<>();
+    private final Map<String, Ewma> endpointErrors = new ConcurrentHashMap<>();
+    private final Map<String, Long> ejectedUntil = new ConcurrentHashMap<>();
+
+    private LlmRouter(String provider, List<LlmEndpoint> endpoints, Settings settings) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个端点");
+        }
+        this.provider = provider;
+        this.endpoints = List.copyOf(endpoints);
+        this.settings = settings;
+        logger.info("LLM路由已初始化，provider={}, endpoints={}, settings={}", provider, endpoints, settings);
+    }
+
+    public static LlmRouter create(String provider, List<LlmEndpoint> endpoints, Settings settings) {
+        return new LlmRouter(provider, endpoints, settings);
+    }
+
+    public LlmEndpoint primary() {
+        return endpoints.get(0);
+    }
+
+    public List<LlmEndpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 为场景选择端点，excluded 中的端点（本次调用已失败过的）仅在没有其他可用端点时才会被选中。
+     */
+    public LlmEndpoint select(String scene, Collection<LlmEndpoint> excluded) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        List<LlmEndpoint> capable = endpoints.stream().filter(endpoint -> endpoint.supports(scene)).toList();
+        if (capable.isEmpty()) {
+            capable = List.of(primary());
+        }
+        long now = System.currentTimeMillis();
+        List<LlmEndpoint> pool = capable.stream()
+                .filter(endpoint -> !excluded.contains(endpoint) && !isEjected(endpoint, now))
+                .toList();
+        if (pool.isEmpty()) {
+            pool = capable.stream().filter(endpoint -> !excluded.contains(endpoint)).toList();
+        }
+        if (pool.isEmpty()) {
+            pool = capable;
+        }
+        if (pool.size() == 1) {
+            return pool.get(0);
+        }
+
+        // 没有样本的端点按已有样本中最快的耗时估计，保证新端点能分到流量
+        double fastest = Double.MAX_VALUE;
+        for (LlmEndpoint endpoint : pool) {
+            Ewma stats = sceneStats.get(key(endpoint, scene));
+            if (stats != null && stats.latencySamples() > 0) {
+                fastest = Math.min(fastest, stats.latencyMs());
+            }
+        }
+        double prior = fastest == Double.MAX_VALUE ? 1000.0 : fastest;
+
+        double[] shares = new double[pool.size()];
+        double total = 0;
+        for (int i = 0; i < pool.size(); i++) {
+            LlmEndpoint endpoint = pool.get(i);
+            Ewma stats = sceneStats.get(key(endpoint, scene));
+            double latency = stats == null || stats.latencySamples() == 0 ? prior : Math.max(1.0, stats.latencyMs());
+            double errorRate = stats == null ? 0.0 : stats.errorRate();
+            double cost = latency * (1 + settings.errorPenalty() * errorRate);
+            shares[i] = endpoint.weight() / (cost * cost);
+            total += shares[i];
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < pool.size(); i++) {
+            pick -= shares[i];
+            if (pick < 0) {
+                return pool.get(i);
+            }
+        }
+        return pool.get(pool.size() - 1);
+    }
+
+    public void recordSuccess(LlmEndpoint endpoint, String scene, long latencyMs) {
+        stats(endpoint, scene).record(latencyMs, false, settings.ewmaAlpha());
+        endpointErrors.computeIfAbsent(endpoint.name(), name -> new Ewma()).record(-1, false, settings.ewmaAlpha());
+    }
+
+    /**
+     * 只有代表端点故障的错误（超时、网络错误、429、5xx）计入错误率；取消（对冲落败）和 4xx 不计。
+     */
+    public void recordFailure(LlmEndpoint endpoint, String scene, Throwable error, long elapsedMs) {
+        Exception cause = LlmResilience.unwrap(error);
+        if (cause instanceof CancellationException || !LlmResilience.isRetryable(cause)) {
+            return;
+        }
+        // 超时等失败的耗时是被截断的下限，也计入耗时，避免慢端点因"没有成功样本"而显得很快
+        stats(endpoint, scene).record(elapsedMs, true, settings.ewmaAlpha());
+        Ewma overall = endpointErrors.computeIfAbsent(endpoint.name(), name -> new Ewma());
+        overall.record(-1, true, settings.ewmaAlpha());
+        if (endpoints.size() > 1 && overall.errorSamples() >= settings.ejectMinSamples()
+                && overall.errorRate() >= settings.ejectErrorRate()) {
+            long until = System.currentTimeMillis() + settings.ejectMs();
+            Long previous = ejectedUntil.put(endpoint.name(), until);
+            if (previous == null || previous < System.currentTimeMillis()) {
+                logger.warn("{}端点错误率过高，暂时摘除，endpoint={}, errorRate={}, ejectMs={}",
+                        provider, endpoint.name(), String.format("%.2f", overall.errorRate()), settings.ejectMs());
+            }
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (LlmEndpoint endpoint : endpoints) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", endpoint.name());
+            item.put("model", endpoint.model());
+            item.put("weight", endpoint.weight());
+            item.put("servedScenes", endpoint.scenes().isEmpty() ? "*" : endpoint.scenes());
+            item.put("ejected", isEjected(endpoint, now));
+            Ewma overall = endpointErrors.get(endpoint.name());
+            item.put("errorRate", overall == null ? 0.0 : round(overall.errorRate()));
+            Map<String, Object> scenes = new HashMap<>();
+            sceneStats.forEach((key, stats) -> {
+                if (key.startsWith(endpoint.name() + "|")) {
+                    scenes.put(key.substring(endpoint.name().length() + 1),
+                            Map.of("ewmaLatencyMs", Math.round(stats.latencyMs()), "errorRate", round(stats.errorRate())));
+                }
+            });
+            item.put("scenes", scenes);
+            item.put("governor", endpoint.governor().snapshot());
+            items.add(item);
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("provider", provider);
+        result.put("endpoints", items);
+        return result;
+    }
+
+    private boolean isEjected(LlmEndpoint endpoint, long now) {
+        Long until = ejectedUntil.get(endpoint.name());
+        return until != null && until > now;
+    }
+
+    private Ewma stats(LlmEndpoint endpoint, String scene) {
+        return sceneStats.computeIfAbsent(key(endpoint, scene), key -> new Ewma());
+    }
+
+    private static String key(LlmEndpoint endpoint, String scene) {
+        return endpoint.name() + "|" + scene;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static final class Ewma {
+        private double latencyMs;
+        private double errorRate;
+        private long latencySamples;
+        private long errorSamples;
+
+        /**
+         * latencyMs 小于 0 表示只更新错误率。
+         */
+        synchronized void record(long latency, boolean failed, double alpha) {
+            if (latency >= 0) {
+                latencyMs = latencySamples == 0 ? latency : alpha * latency + (1 - alpha) * latencyMs;
+                latencySamples++;
+            }
+            double sample = failed ? 1.0 : 0.0;
+            errorRate = errorSamples == 0 ? sample : alpha * sample + (1 - alpha) * errorRate;
+            errorSamples++;
+        }
+
+        synchronized double latencyMs() {
+            return latencyMs;
+        }
+
+        synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized long latencySamples() {
+            return latencySamples;
+        }
+
+        synchronized long errorSamples() {
+            return errorSamples;
+        }
+    }
+
+    /**
+     * 按供应商配置前缀读取参数，例如 deepseek.api.router.ewma-alpha。
+     */
+    public record Settings(double ewmaAlpha,
+                           double errorPenalty,
+                           double ejectErrorRate,
+                           int ejectMinSamples,
+                           long ejectMs) {
+
+        public static Settings fromEnvironment(Environment env, String prefix) {
+            return new Settings(
+                    Math.min(1.0, Math.max(0.01, env.getProperty(prefix + ".router.ewma-alpha", Double.class, 0.2))),
+                    Math.max(0.0, env.getProperty(prefix + ".router.error-penalty", Double.class, 4.0)),
+                    Math.min(1.0, Math.max(0.05, env.getProperty(prefix + ".router.eject-error-rate", Double.class, 0.5))),
+                    Math.max(1, env.getProperty(prefix + ".router.eject-min-samples", Integer.class, 5)),
+                    Math.max(1000L, env.getProperty(prefix + ".router.eject-ms", Long.class, 30000L))
+            );
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.leo.aiteacher.client;
+
+import org.springframework.core.env.Environment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 按场景自适应的调用超时：读超时 = 场景耗时分位数 × multiplier，并夹在 floor 与 ceiling 之间。
+ * 样本不足时使用 ceiling（即原来的全局 read-ms），因此冷启动行为与改造前一致。
+ * 超时的调用以截断时的超时值记入耗时样本，避免分位数因"只看得到快请求"而越缩越小。
+ */
+public class LlmTimeoutPolicy {
+
+    private final Settings settings;
+    private final LlmLatencyTracker latencyTracker;
+    private final Map<String, LongAdder> timeouts = new ConcurrentHashMap<>();
+
+    public LlmTimeoutPolicy(Settings settings, LlmLatencyTracker latencyTracker) {
+        this.settings = settings;
+        this.latencyTracker = latencyTracker;
+    }
+
+    public Deadline deadlineFor(String scene) {
+        long ceiling = settings.ceilingOf(scene);
+        long floor = Math.min(settings.floorMs(), ceiling);
+        if (!settings.enabled()) {
+            return new Deadline(settings.connectTimeoutMs(), ceiling, false);
+        }
+        long percentile = latencyTracker.percentile(scene, settings.percentile(), settings.minSamples());
+        if (percentile < 0) {
+            return new Deadline(settings.connectTimeoutMs(), ceiling, false);
+        }
+        long readMs = (long) Math.ceil(percentile * settings.multiplier());
+        return new Deadline(settings.connectTimeoutMs(), Math.max(floor, Math.min(ceiling, readMs)), true);
+    }
+
+    public void onTimeout(String scene, Deadline deadline) {
+        timeouts.computeIfAbsent(scene, key -> new LongAdder()).increment();
+        latencyTracker.record(scene, deadline.readTimeoutMs());
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", settings.enabled());
+        result.put("percentile", settings.percentile());
+        result.put("multiplier", settings.multiplier());
+        result.put("floorMs", settings.floorMs());
+        result.put("defaultCeilingMs", settings.ceilingMs());
+        Map<String, Object> scenes = new HashMap<>();
+        for (String scene : latencyTracker.scenes()) {
+            Deadline deadline = deadlineFor(scene);
+            Map<String, Object> sceneStats = new HashMap<>();
+            sceneStats.put("readTimeoutMs", deadline.readTimeoutMs());
+            sceneStats.put("adaptive", deadline.adaptive());
+            LongAdder count = timeouts.get(scene);
+            sceneStats.put("timeouts", count == null ? 0L : count.sum());
+            scenes.put(scene, sceneStats);
+        }
+        result.put("scenes", scenes);
+        return result;
+    }
+
+    public record Deadline(long connectTimeoutMs, long readTimeoutMs, boolean adaptive) {
+    }
+
+    /**
+     * 读取 deepseek.api.timeout.adaptive.*；ceiling 默认沿用 timeout.read-ms，可通过 scene-ceilings 按场景覆盖。
+     */
+    public record Settings(boolean enabled,
+                           double percentile,
+                           double multiplier,
+                           long floorMs,
+                           long ceilingMs,
+                           long connectTimeoutMs,
+                           int minSamples,
+                           Map<String, Long> sceneCeilings) {
+
+        public long ceilingOf(String scene) {
+            return sceneCeilings.getOrDefault(scene, ceilingMs);
+        }
+
+        public static Settings fromEnvironment(Environment env, String prefix, long defaultReadTimeoutMs) {
+            String ceilings = env.getProperty(prefix + ".timeout.adaptive.scene-ceilings", "");
+            Map<String, Long> sceneCeilings = Arrays.stream(ceilings.split(","))
+                    .map(String::trim)
+                    .filter(item -> item.contains(":"))
+                    .collect(Collectors.toUnmodifiableMap(
+                            item -> item.substring(0, item.indexOf(':')).trim(),
+                            item -> Long.parseLong(item.substring(item.indexOf(':') + 1).trim()),
+                            (left, right) -> right));
+            return new Settings(
+                    env.getProperty(prefix + ".timeout.adaptive.enabled", Boolean.class, true),
+                    env.getProperty(prefix + ".timeout.adaptive.percentile", Double.class, 99.0),
+                    Math.max(1.0, env.getProperty(prefix + ".timeout.adaptive.multiplier", Double.class, 3.0)),
+                    Math.max(1000L, env.getProperty(prefix + ".timeout.adaptive.floor-ms", Long.class, 15000L)),
+                    env.getProperty(prefix + ".timeout.read-ms", Long.class, defaultReadTimeoutMs),
+                    env.getProperty(prefix + ".timeout.connect-ms", Long.class, 5000L),
+                    Math.max(1, env.getProperty(prefix + ".timeout.adaptive.min-samples", Integer.class, 30)),
+                    sceneCeilings
+            );
+        }
+    }
+}
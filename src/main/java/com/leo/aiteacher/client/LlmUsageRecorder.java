@@ -0,0 +1,428 @@
+package com.leo.aiteacher.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 大模型 Token 用量记账：解析每次调用响应中的 usage（输入、输出、命中前缀缓存的输入 Token），
+ * 按场景、教师、课程、任务打标签，内存中实时汇总，并按批写入 llm_usage 表供按时间窗口统计。
+ * 单价按百万 Token 配置，可按模型覆盖；数据库不可用时只保留内存统计，待写入的明细超过 max-pending 后丢弃最早的记录。
+ */
+@Component
+public class LlmUsageRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmUsageRecorder.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean dbEnabled;
+    private final int batchSize;
+    private final int maxPending;
+    private final Price defaultPrice;
+    private final Map<String, Price> modelPrices;
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, Totals> sceneTotals = new ConcurrentHashMap<>();
+    private final Map<Integer, Totals> teacherTotals = new ConcurrentHashMap<>();
+    private final Queue<UsageRecord> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean schemaChecked = new AtomicBoolean(false);
+    private final ScheduledExecutorService flusher;
+    private volatile boolean lastFlushFailed;
+
+    public LlmUsageRecorder(JdbcTemplate jdbcTemplate,
+                            @Value("${deepseek.api.usage.db-enabled:true}") boolean dbEnabled,
+                            @Value("${deepseek.api.usage.flush-interval-ms:10000}") long flushIntervalMs,
+                            @Value("${deepseek.api.usage.batch-size:200}") int batchSize,
+                            @Value("${deepseek.api.usage.max-pending:20000}") int maxPending,
+                            @Value("${deepseek.api.usage.price.input-per-million:2}") double inputPrice,
+                            @Value("${deepseek.api.usage.price.cached-input-per-million:0.5}") double cachedInputPrice,
+                            @Value("${deepseek.api.usage.price.output-per-million:8}") double outputPrice,
+                            @Value("${deepseek.api.usage.model-prices:}") String modelPrices) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dbEnabled = dbEnabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+        this.defaultPrice = new Price(inputPrice, cachedInputPrice, outputPrice);
+        this.modelPrices = parseModelPrices(modelPrices, defaultPrice);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-usage-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (dbEnabled) {
+            long interval = Math.max(1000L, flushIntervalMs);
+            flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 记录一次成功的上游调用；usage 为响应中的 usage 节点，缺失时只计调用次数。
+     */
+    public void record(String scene, DeepSeekChatClient.UsageTag tag, LlmEndpoint endpoint, JsonNode usage, long latencyMs) {
+        Usage parsed = Usage.fromJson(usage);
+        double cost = priceOf(endpoint.model()).cost(parsed);
+        UsageRecord record = new UsageRecord(
+                scene,
+                endpoint.label(),
+                tag == null ? null : tag.teacherId(),
+                tag == null ? null : tag.courseCode(),
+                tag == null ? null : tag.taskId(),
+                parsed,
+                latencyMs,
+                cost,
+                LocalDateTime.now());
+
+        totalsOf(sceneTotals, scene).add(parsed, latencyMs, cost);
+        if (record.teacherId() != null) {
+            totalsOf(teacherTotals, record.teacherId()).add(parsed, latencyMs, cost);
+        }
+        if (!dbEnabled) {
+            return;
+        }
+        pending.add(record);
+        if (pendingSize.incrementAndGet() > maxPending && pending.poll() != null) {
+            pendingSize.decrementAndGet();
+            dropped.increment();
+        }
+        if (pendingSize.get() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    /**
+     * 命中响应缓存、未发起上游调用的请求，只计入内存统计。
+     */
+    public void recordCacheHit(String scene) {
+        totalsOf(sceneTotals, scene).responseCacheHits.increment();
+    }
+
+    /**
+     * 进程启动以来的实时汇总（按场景、按教师），以及待写库明细的积压情况。
+     */
+    /**
+     * teacherId 为空时返回全部教师与按场景的汇总；不为空时只返回该教师的实时汇总，不含按场景的全平台汇总。
+     */
+    public Map<String, Object> snapshot(Integer teacherId) {
+        double uptimeSeconds = Math.max(1.0, (System.currentTimeMillis() - startedAt) / 1000.0);
+        Map<String, Object> teachers = new HashMap<>();
+        teacherTotals.forEach((id, totals) -> {
+            if (teacherId == null || teacherId.equals(id)) {
+                teachers.put(String.valueOf(id), totals.toMap(uptimeSeconds));
+            }
+        });
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("uptimeSeconds", Math.round(uptimeSeconds));
+        if (teacherId == null) {
+            Map<String, Object> scenes = new HashMap<>();
+            sceneTotals.forEach((scene, totals) -> scenes.put(scene, totals.toMap(uptimeSeconds)));
+            result.put("scenes", scenes);
+        }
+        result.put("teachers", teachers);
+        result.put("dbEnabled", dbEnabled);
+        result.put("pending", pendingSize.get());
+        result.put("flushed", flushed.sum());
+        result.put("dropped", dropped.sum());
+        result.put("price", Map.of("default", defaultPrice, "models", modelPrices));
+        return result;
+    }
+
+    /**
+     * 场景累计的提供方前缀缓存命中率（命中缓存的输入 Token / 输入 Token），尚无调用记录时返回 null。
+     */
+    public Double promptCacheHitRatio(String scene) {
+        Totals totals = sceneTotals.get(scene);
+        if (totals == null || totals.promptTokens.sum() == 0) {
+            return null;
+        }
+        return round((double) totals.cachedTokens.sum() / totals.promptTokens.sum());
+    }
+
+    /**
+     * 从 llm_usage 表按场景、按教师汇总最近 hours 小时的用量；teacherId 不为空时只统计该教师。
+     */
+    public Map<String, Object> report(Integer teacherId, int hours) {
+        flushQuietly();
+        ensureSchema();
+        int windowHours = Math.max(1, Math.min(hours, 24 * 90));
+        Timestamp since = Timestamp.valueOf(LocalDateTime.now().minusHours(windowHours));
+        String teacherFilter = teacherId == null ? "" : " AND teacher_id = ?";
+        Object[] args = teacherId == null ? new Object[]{since} : new Object[]{since, teacherId};
+        String columns = """
+                COUNT(*) AS calls, SUM(prompt_tokens) AS prompt_tokens, SUM(completion_tokens) AS completion_tokens,
+                SUM(cached_tokens) AS cached_tokens, SUM(latency_ms) AS latency_ms, SUM(cost) AS cost
+                """;
+
+        List<Map<String, Object>> byScene = jdbcTemplate.query(
+                "SELECT scene, " + columns + " FROM llm_usage WHERE created_at >= ?" + teacherFilter
+                        + " GROUP BY scene ORDER BY cost DESC",
+                (rs, rowNum) -> {
+                    Map<String, Object> row = windowRow(rs, windowHours);
+                    row.put("scene", rs.getString("scene"));
+                    return row;
+                }, args);
+        List<Map<String, Object>> byTeacher = jdbcTemplate.query(
+                "SELECT teacher_id, " + columns + " FROM llm_usage WHERE created_at >= ?" + teacherFilter
+                        + " GROUP BY teacher_id ORDER BY cost DESC",
+                (rs, rowNum) -> {
+                    Map<String, Object> row = windowRow(rs, windowHours);
+                    row.put("teacherId", rs.getObject("teacher_id"));
+                    return row;
+                }, args);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("hours", windowHours);
+        result.put("byScene", byScene);
+        result.put("byTeacher", byTeacher);
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        if (!dbEnabled) {
+            return;
+        }
+        try {
+            flush();
+            if (lastFlushFailed) {
+                logger.info("LLM用量明细恢复写入，flushed={}", flushed.sum());
+            }
+            lastFlushFailed = false;
+        } catch (Exception e) {
+            // 数据库不可用时每次失败都记一条会刷屏，只在状态变化时告警
+            if (!lastFlushFailed) {
+                logger.warn("写入LLM用量明细失败，保留在内存中稍后重试，pending={}, error={}", pendingSize.get(), e.getMessage());
+            }
+            lastFlushFailed = true;
+        }
+    }
+
+    private synchronized void flush() {
+        while (!pending.isEmpty()) {
+            List<UsageRecord> batch = new ArrayList<>(batchSize);
+            UsageRecord record;
+            while (batch.size() < batchSize && (record = pending.poll()) != null) {
+                batch.add(record);
+            }
+            pendingSize.addAndGet(-batch.size());
+            try {
+                ensureSchema();
+                jdbcTemplate.batchUpdate("""
+                                INSERT INTO llm_usage (scene, model_name, teacher_id, course_code, task_id, prompt_tokens,
+                                                       completion_tokens, cached_tokens, latency_ms, cost, created_at)
+                                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                                """,
+                        batch.stream().map(item -> new Object[]{
+                                item.scene(), item.modelName(), item.teacherId(), item.courseCode(), item.taskId(),
+                                item.usage().promptTokens(), item.usage().completionTokens(), item.usage().cachedTokens(),
+                                item.latencyMs(), item.cost(), Timestamp.valueOf(item.createdAt())
+                        }).toList());
+                flushed.add(batch.size());
+            } catch (RuntimeException e) {
+                pending.addAll(batch);
+                pendingSize.addAndGet(batch.size());
+                throw e;
+            }
+        }
+    }
+
+    private void ensureSchema() {
+        if (schemaChecked.get()) {
+            return;
+        }
+        synchronized (schemaChecked) {
+            if (schemaChecked.get()) {
+                return;
+            }
+            jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS llm_usage (
+                        id                BIGINT AUTO_INCREMENT PRIMARY KEY,
+                        scene             VARCHAR(100)   NOT NULL COMMENT '调用场景',
+                        model_name        VARCHAR(100)   NULL COMMENT '模型名称（备用端点为 端点名/模型名）',
+                        teacher_id        INT            NULL COMMENT '发起调用的教师',
+                        course_code       VARCHAR(50)    NULL COMMENT '课程代码',
+                        task_id           BIGINT         NULL COMMENT '关联任务ID（判题/教案/试卷/出题任务）',
+                        prompt_tokens     INT            NOT NULL DEFAULT 0 COMMENT '输入Token',
+                        completion_tokens INT            NOT NULL DEFAULT 0 COMMENT '输出Token',
+                        cached_tokens     INT            NOT NULL DEFAULT 0 COMMENT '命中前缀缓存的输入Token',
+                        latency_ms        INT            NOT NULL DEFAULT 0 COMMENT '调用耗时',
+                        cost              DECIMAL(14, 6) NOT NULL DEFAULT 0 COMMENT '按配置单价估算的费用',
+                        created_at        TIMESTAMP      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                        KEY idx_llm_usage_created (created_at),
+                        KEY idx_llm_usage_teacher (teacher_id, created_at)
+                    ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
+                    """);
+            schemaChecked.set(true);
+        }
+    }
+
+    private Price priceOf(String model) {
+        return modelPrices.getOrDefault(model, defaultPrice);
+    }
+
+    private static Map<String, Object> windowRow(ResultSet rs, int windowHours) throws SQLException {
+        long calls = rs.getLong("calls");
+        long promptTokens = rs.getLong("prompt_tokens");
+        long completionTokens = rs.getLong("completion_tokens");
+        long cachedTokens = rs.getLong("cached_tokens");
+        long latencyMs = rs.getLong("latency_ms");
+        double cost = rs.getDouble("cost");
+        Map<String, Object> row = new HashMap<>();
+        row.put("calls", calls);
+        row.put("promptTokens", promptTokens);
+        row.put("completionTokens", completionTokens);
+        row.put("cachedTokens", cachedTokens);
+        row.put("cost", round(cost));
+        row.put("promptCacheHitRatio", promptTokens == 0 ? 0.0 : round((double) cachedTokens / promptTokens));
+        row.put("outputTokensPerSecond", latencyMs == 0 ? 0.0 : round(completionTokens * 1000.0 / latencyMs));
+        row.put("tokensPerSecond", round((promptTokens + completionTokens) / (windowHours * 3600.0)));
+        return row;
+    }
+
+    private static Map<String, Price> parseModelPrices(String config, Price fallback) {
+        // 格式：model:输入/命中缓存输入/输出，多个模型逗号分隔，例如 deepseek-v4-flash:2/0.5/8
+        return Arrays.stream(config.split(","))
+                .map(String::trim)
+                .filter(item -> item.contains(":"))
+                .collect(Collectors.toUnmodifiableMap(
+                        item -> item.substring(0, item.lastIndexOf(':')).trim(),
+                        item -> {
+                            String[] parts = item.substring(item.lastIndexOf(':') + 1).split("/");
+                            try {
+                                return new Price(
+                                        Double.parseDouble(parts[0].trim()),
+                                        parts.length > 1 ? Double.parseDouble(parts[1].trim()) : Double.parseDouble(parts[0].trim()),
+                                        parts.length > 2 ? Double.parseDouble(parts[2].trim()) : fallback.outputPerMillion());
+                            } catch (NumberFormatException e) {
+                                logger.warn("忽略无法解析的模型单价配置: {}", item);
+                                return fallback;
+                            }
+                        },
+                        (first, second) -> second));
+    }
+
+    private static <K> Totals totalsOf(Map<K, Totals> map, K key) {
+        return map.computeIfAbsent(key, ignored -> new Totals());
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10000) / 10000.0;
+    }
+
+    /**
+     * 单价，单位为每百万 Token 的费用。
+     */
+    public record Price(double inputPerMillion, double cachedInputPerMillion, double outputPerMillion) {
+
+        double cost(Usage usage) {
+            long uncached = Math.max(0L, usage.promptTokens() - usage.cachedTokens());
+            return (uncached * inputPerMillion
+                    + usage.cachedTokens() * cachedInputPerMillion
+                    + usage.completionTokens() * outputPerMillion) / 1_000_000.0;
+        }
+    }
+
+    /**
+     * 兼容 DeepSeek（prompt_cache_hit_tokens）与 OpenAI（prompt_tokens_details.cached_tokens）两种缓存命中字段。
+     */
+    public record Usage(long promptTokens, long completionTokens, long cachedTokens) {
+
+        public static Usage fromJson(JsonNode usage) {
+            if (usage == null || !usage.isObject()) {
+                return new Usage(0L, 0L, 0L);
+            }
+            long cached = usage.has("prompt_cache_hit_tokens")
+                    ? usage.path("prompt_cache_hit_tokens").asLong(0L)
+                    : usage.path("prompt_tokens_details").path("cached_tokens").asLong(0L);
+            return new Usage(usage.path("prompt_tokens").asLong(0L), usage.path("completion_tokens").asLong(0L), cached);
+        }
+    }
+
+    private record UsageRecord(String scene,
+                               String modelName,
+                               Integer teacherId,
+                               String courseCode,
+                               Long taskId,
+                               Usage usage,
+                               long latencyMs,
+                               double cost,
+                               LocalDateTime createdAt) {
+    }
+
+    private static final class Totals {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder responseCacheHits = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder cachedTokens = new LongAdder();
+        private final LongAdder latencyMs = new LongAdder();
+        private final DoubleAdder cost = new DoubleAdder();
+
+        void add(Usage usage, long latency, double callCost) {
+            calls.increment();
+            promptTokens.add(usage.promptTokens());
+            completionTokens.add(usage.completionTokens());
+            cachedTokens.add(usage.cachedTokens());
+            latencyMs.add(latency);
+            cost.add(callCost);
+        }
+
+        Map<String, Object> toMap(double uptimeSeconds) {
+            long prompt = promptTokens.sum();
+            long completion = completionTokens.sum();
+            long cached = cachedTokens.sum();
+            long latency = latencyMs.sum();
+            long upstreamCalls = calls.sum();
+            long hits = responseCacheHits.sum();
+            Map<String, Object> map = new HashMap<>();
+            map.put("calls", upstreamCalls);
+            map.put("responseCacheHits", hits);
+            map.put("responseCacheHitRatio", upstreamCalls + hits == 0 ? 0.0 : round((double) hits / (upstreamCalls + hits)));
+            map.put("promptTokens", prompt);
+            map.put("completionTokens", completion);
+            map.put("cachedTokens", cached);
+            map.put("promptCacheHitRatio", prompt == 0 ? 0.0 : round((double) cached / prompt));
+            map.put("cost", round(cost.sum()));
+            // 单次调用的生成速度，以及进程启动以来的平均吞吐
+            map.put("outputTokensPerSecond", latency == 0 ? 0.0 : round(completion * 1000.0 / latency));
+            map.put("tokensPerSecond", round((prompt + completion) / uptimeSeconds));
+            return map;
+        }
+    }
+}
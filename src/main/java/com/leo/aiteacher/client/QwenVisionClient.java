@@ -4,26 +4,34 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
 public class QwenVisionClient {
 
     private static final Logger logger = LoggerFactory.getLogger(QwenVisionClient.class);
+    private static final String OCR_SCENE = "ocr";
 
     private final ObjectMapper objectMapper;
     private final RestTemplate restTemplate;
+    private final LlmGovernor governor;
+    private final LlmResilience resilience;
+    private final OcrImagePreprocessor preprocessor;
+    private final boolean preprocessEnabled;
+    // 按是否经过预处理分别统计 OCR 耗时与发送字节数，便于对比
+    private final Map<String, ImageStats> imageStats = new ConcurrentHashMap<>();
+    private final LongAdder savedBytes = new LongAdder();
+    private final LongAdder preprocessMs = new LongAdder();
 
     @Value("${qwen.api.url}")
     private String apiUrl;
@@ -34,21 +42,21 @@ public class QwenVisionClient {
     @Value("${qwen.api.model:qwen3.6-flash}")
     private String modelName;
 
-    @Value("${qwen.api.retry.max-attempts:2}")
-    private int maxAttempts;
-
-    @Value("${qwen.api.retry.delay-ms:500}")
-    private long retryDelayMs;
-
-    public QwenVisionClient(RestTemplateBuilder restTemplateBuilder,
+    public QwenVisionClient(@Qualifier("qwenHttpTransport") LlmHttpTransport httpTransport,
                             ObjectMapper objectMapper,
-                            @Value("${qwen.api.timeout.connect-ms:5000}") long connectTimeoutMs,
-                            @Value("${qwen.api.timeout.read-ms:60000}") long readTimeoutMs) {
+                            @Qualifier("qwenGovernor") LlmGovernor governor,
+                            @Qualifier("qwenResilience") LlmResilience resilience,
+                            @Value("${qwen.api.image.preprocess-enabled:true}") boolean preprocessEnabled,
+                            @Value("${qwen.api.image.max-edge:2000}") int maxEdge,
+                            @Value("${qwen.api.image.jpeg-quality:0.85}") double jpegQuality,
+                            @Value("${qwen.api.image.contrast-clip-percent:1.0}") double contrastClipPercent,
+                            @Value("${qwen.api.image.min-bytes:204800}") int minBytes) {
         this.objectMapper = objectMapper;
-        this.restTemplate = restTemplateBuilder
-                .setConnectTimeout(Duration.ofMillis(connectTimeoutMs))
-                .setReadTimeout(Duration.ofMillis(readTimeoutMs))
-                .build();
+        this.restTemplate = httpTransport.restTemplate();
+        this.governor = governor;
+        this.resilience = resilience;
+        this.preprocessEnabled = preprocessEnabled;
+        this.preprocessor = new OcrImagePreprocessor(maxEdge, jpegQuality, contrastClipPercent, minBytes);
     }
 
     public OcrResult recognizeTextFromImageDataUrl(String imageDataUrl) throws Exception {
@@ -59,29 +67,49 @@ public class QwenVisionClient {
             throw new RuntimeException("图片数据为空");
         }
 
-        Exception lastException = null;
-        for (int attempt = 1; attempt <= Math.max(1, maxAttempts); attempt++) {
+        OcrImagePreprocessor.Result image = preprocess(imageDataUrl);
+        return resilience.execute(OCR_SCENE, attempt -> {
             long start = System.currentTimeMillis();
-            try {
-                String rawResponse = executeOcr(imageDataUrl);
+            try (LlmGovernor.Permit permit = governor.acquire(OCR_SCENE, governor.estimateTokens())) {
+                String rawResponse = executeOcr(image.dataUrl());
+                permit.recordUsage(objectMapper.readTree(rawResponse).path("usage").path("total_tokens").asLong(0L));
                 String content = extractContent(rawResponse).trim();
                 long latencyMs = System.currentTimeMillis() - start;
-                logger.info("通义OCR成功，attempt={}, latencyMs={}, model={}", attempt, latencyMs, modelName);
+                imageStats.computeIfAbsent(image.applied() ? "preprocessed" : "original", key -> new ImageStats())
+                        .record(latencyMs, image.sentBytes());
+                logger.info("通义OCR成功，attempt={}, latencyMs={}, model={}, preprocessed={}",
+                        attempt, latencyMs, modelName, image.applied());
                 return new OcrResult(content, rawResponse, modelName, latencyMs, attempt);
-            } catch (ResourceAccessException e) {
-                lastException = e;
-                logger.warn("通义OCR超时/网络错误，attempt={}/{}", attempt, maxAttempts);
-            } catch (Exception e) {
-                lastException = e;
-                logger.warn("通义OCR调用失败，attempt={}/{}, error={}", attempt, maxAttempts, e.getMessage());
             }
+        });
+    }
 
-            if (attempt < Math.max(1, maxAttempts)) {
-                TimeUnit.MILLISECONDS.sleep(Math.max(0L, retryDelayMs));
-            }
+    /**
+     * 上传前缩小并重新编码图片，只做一次，重试时复用结果；关闭或处理失败时发送原图。
+     */
+    private OcrImagePreprocessor.Result preprocess(String imageDataUrl) {
+        if (!preprocessEnabled) {
+            return new OcrImagePreprocessor.Result(imageDataUrl, false, 0L, 0L, 0, 0);
+        }
+        long start = System.currentTimeMillis();
+        OcrImagePreprocessor.Result image = preprocessor.process(imageDataUrl);
+        long elapsedMs = System.currentTimeMillis() - start;
+        preprocessMs.add(elapsedMs);
+        if (image.applied()) {
+            savedBytes.add(image.originalBytes() - image.sentBytes());
+            logger.info("OCR图片预处理完成，originalBytes={}, sentBytes={}, size={}x{}, elapsedMs={}",
+                    image.originalBytes(), image.sentBytes(), image.width(), image.height(), elapsedMs);
         }
+        return image;
+    }
 
-        throw lastException == null ? new RuntimeException("通义OCR调用失败") : lastException;
+    public Map<String, Object> imageSnapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("preprocessEnabled", preprocessEnabled);
+        result.put("savedBytes", savedBytes.sum());
+        result.put("preprocessMs", preprocessMs.sum());
+        imageStats.forEach((mode, stats) -> result.put(mode, stats.snapshot()));
+        return result;
     }
 
     private String executeOcr(String imageDataUrl) throws Exception {
@@ -144,6 +172,26 @@ public class QwenVisionClient {
         return normalized + "/chat/completions";
     }
 
+    private static final class ImageStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder latencyMs = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        void record(long latency, long sentBytes) {
+            requests.increment();
+            latencyMs.add(latency);
+            bytes.add(sentBytes);
+        }
+
+        Map<String, Object> snapshot() {
+            long count = requests.sum();
+            return Map.of(
+                    "requests", count,
+                    "avgLatencyMs", count == 0 ? 0 : latencyMs.sum() / count,
+                    "avgBytes", count == 0 ? 0 : bytes.sum() / count);
+        }
+    }
+
     public record OcrResult(String text, String rawResponse, String modelName, long latencyMs, int attempt) {
     }
 }
@@ -0,0 +1,85 @@
+package com.leo.aiteacher.config;
+
+import com.leo.aiteacher.client.LlmEndpoint;
+import com.leo.aiteacher.client.LlmGovernor;
+import com.leo.aiteacher.client.LlmHedgingPolicy;
+import com.leo.aiteacher.client.LlmHttpTransport;
+import com.leo.aiteacher.client.LlmLatencyTracker;
+import com.leo.aiteacher.client.LlmResilience;
+import com.leo.aiteacher.client.LlmRouter;
+import com.leo.aiteacher.client.LlmTimeoutPolicy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Configuration
+public class LlmHttpConfig {
+
+    @Bean(name = "deepSeekHttpTransport", destroyMethod = "close")
+    public LlmHttpTransport deepSeekHttpTransport(Environment env) {
+        return LlmHttpTransport.create("deepseek", LlmHttpTransport.Settings.fromEnvironment(env, "deepseek.api", 300000L));
+    }
+
+    @Bean(name = "qwenHttpTransport", destroyMethod = "close")
+    public LlmHttpTransport qwenHttpTransport(Environment env) {
+        return LlmHttpTransport.create("qwen", LlmHttpTransport.Settings.fromEnvironment(env, "qwen.api", 60000L));
+    }
+
+    @Bean(name = "deepSeekGovernor")
+    public LlmGovernor deepSeekGovernor(Environment env) {
+        return LlmGovernor.create("deepseek", LlmGovernor.Settings.fromEnvironment(env, "deepseek.api", 12));
+    }
+
+    /**
+     * 主端点使用 deepseek.api.* 与 deepSeekGovernor；deepseek.api.fallback-endpoints 中列出的备用端点各自读取
+     * deepseek.api.endpoints.&lt;name&gt;.* （url/key/model/weight/scenes，以及同名的 governor.* 子项）。
+     */
+    @Bean(name = "deepSeekRouter")
+    public LlmRouter deepSeekRouter(Environment env, LlmGovernor deepSeekGovernor) {
+        List<LlmEndpoint> endpoints = new ArrayList<>();
+        endpoints.add(LlmEndpoint.fromEnvironment(env, "deepseek", true, "deepseek.api", deepSeekGovernor));
+        Arrays.stream(env.getProperty("deepseek.api.fallback-endpoints", "").split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .forEach(name -> {
+                    String prefix = "deepseek.api.endpoints." + name;
+                    LlmGovernor governor = LlmGovernor.create("deepseek:" + name, LlmGovernor.Settings.fromEnvironment(env, prefix, 12));
+                    endpoints.add(LlmEndpoint.fromEnvironment(env, name, false, prefix, governor));
+                });
+        return LlmRouter.create("deepseek", endpoints, LlmRouter.Settings.fromEnvironment(env, "deepseek.api"));
+    }
+
+    @Bean(name = "qwenGovernor")
+    public LlmGovernor qwenGovernor(Environment env) {
+        return LlmGovernor.create("qwen", LlmGovernor.Settings.fromEnvironment(env, "qwen.api", 4));
+    }
+
+    @Bean(name = "deepSeekResilience")
+    public LlmResilience deepSeekResilience(Environment env) {
+        return LlmResilience.create("deepseek", LlmResilience.Settings.fromEnvironment(env, "deepseek.api", 3));
+    }
+
+    @Bean(name = "deepSeekLatencyTracker")
+    public LlmLatencyTracker deepSeekLatencyTracker(Environment env) {
+        return new LlmLatencyTracker(env.getProperty("deepseek.api.latency.window-size", Integer.class, 200));
+    }
+
+    @Bean(name = "deepSeekHedgingPolicy")
+    public LlmHedgingPolicy deepSeekHedgingPolicy(Environment env, LlmLatencyTracker deepSeekLatencyTracker) {
+        return new LlmHedgingPolicy(LlmHedgingPolicy.Settings.fromEnvironment(env, "deepseek.api"), deepSeekLatencyTracker);
+    }
+
+    @Bean(name = "deepSeekTimeoutPolicy")
+    public LlmTimeoutPolicy deepSeekTimeoutPolicy(Environment env, LlmLatencyTracker deepSeekLatencyTracker) {
+        return new LlmTimeoutPolicy(LlmTimeoutPolicy.Settings.fromEnvironment(env, "deepseek.api", 300000L), deepSeekLatencyTracker);
+    }
+
+    @Bean(name = "qwenResilience")
+    public LlmResilience qwenResilience(Environment env) {
+        return LlmResilience.create("qwen", LlmResilience.Settings.fromEnvironment(env, "qwen.api", 2));
+    }
+}
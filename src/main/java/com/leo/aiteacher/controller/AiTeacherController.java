@@ -5,8 +5,10 @@ import com.leo.aiteacher.service.QuestionGenerationTaskService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -90,6 +92,14 @@ public class AiTeacherController {
         }
     }
 
+    /**
+     * V2: 以 SSE 推送出题过程中的增量内容
+     */
+    @GetMapping(value = "/question/v2/tasks/{taskId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamQuestionTask(@PathVariable Long taskId) {
+        return questionGenerationTaskService.subscribeGenerationTask(taskId);
+    }
+
     /**
      * 创建新的对话
      * @return 响应实体，包含新创建的对话信息或错误信息
@@ -3,8 +3,10 @@ package com.leo.aiteacher.controller;
 import com.leo.aiteacher.service.ExamPaperService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
 
@@ -225,6 +227,11 @@ public class ExamPaperController {
         }
     }
 
+    @GetMapping(value = "/tasks/{taskId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTask(@PathVariable Long taskId) {
+        return examPaperService.subscribeExamPaperTask(taskId);
+    }
+
     @GetMapping("/list")
     public ResponseEntity<?> listExamPapers(@RequestParam(required = false) Integer page,
                                             @RequestParam(required = false) Integer pageSize) {
@@ -3,8 +3,10 @@ package com.leo.aiteacher.controller;
 import com.leo.aiteacher.service.LessonPlanService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
 
@@ -221,6 +223,11 @@ public class LessonPlanController {
         }
     }
 
+    @GetMapping(value = "/tasks/{taskId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTask(@PathVariable Long taskId) {
+        return lessonPlanService.subscribeLessonPlanTask(taskId);
+    }
+
     @GetMapping("/list")
     public ResponseEntity<?> listLessonPlans(@RequestParam(required = false) Integer page,
                                              @RequestParam(required = false) Integer pageSize) {
@@ -0,0 +1,179 @@
+package com.leo.aiteacher.controller;
+
+import com.leo.aiteacher.client.LlmGovernor;
+import com.leo.aiteacher.client.LlmHedgingPolicy;
+import com.leo.aiteacher.client.LlmHttpTransport;
+import com.leo.aiteacher.client.LlmLatencyTracker;
+import com.leo.aiteacher.client.LlmResilience;
+import com.leo.aiteacher.client.LlmRouter;
+import com.leo.aiteacher.client.LlmTimeoutPolicy;
+import com.leo.aiteacher.client.LlmUsageRecorder;
+import com.leo.aiteacher.client.LlmResponseCache;
+import com.leo.aiteacher.client.QwenVisionClient;
+import com.leo.aiteacher.pojo.dto.TeacherDto;
+import com.leo.aiteacher.service.impl.GradingAdmission;
+import com.leo.aiteacher.service.impl.GradingStateWriter;
+import com.leo.aiteacher.service.impl.GradingStatusHub;
+import com.leo.aiteacher.service.impl.GradingTaskQueue;
+import com.leo.aiteacher.util.SessionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@CrossOrigin(origins = "http://localhost:5173", allowCredentials = "true")
+@RestController
+@RequestMapping("/teacher/llm/v1")
+public class LlmMetricsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmMetricsController.class);
+    private static final List<String> PROMPT_PREFIX_SCENES = List.of("grading", "grading-batch", "learning-analysis-student-profile");
+
+    private final LlmResponseCache responseCache;
+    private final LlmHttpTransport deepSeekHttpTransport;
+    private final LlmHttpTransport qwenHttpTransport;
+    private final LlmGovernor deepSeekGovernor;
+    private final LlmGovernor qwenGovernor;
+    private final LlmResilience deepSeekResilience;
+    private final LlmResilience qwenResilience;
+    private final LlmLatencyTracker deepSeekLatencyTracker;
+    private final LlmHedgingPolicy deepSeekHedgingPolicy;
+    private final LlmTimeoutPolicy deepSeekTimeoutPolicy;
+    private final LlmRouter deepSeekRouter;
+    private final LlmUsageRecorder usageRecorder;
+    private final GradingTaskQueue gradingTaskQueue;
+    private final GradingAdmission gradingAdmission;
+    private final GradingStatusHub gradingStatusHub;
+    private final GradingStateWriter gradingStateWriter;
+    private final QwenVisionClient qwenVisionClient;
+    private final Set<Integer> usageAdminTeacherIds;
+
+    public LlmMetricsController(LlmResponseCache responseCache,
+                                @Qualifier("deepSeekHttpTransport") LlmHttpTransport deepSeekHttpTransport,
+                                @Qualifier("qwenHttpTransport") LlmHttpTransport qwenHttpTransport,
+                                @Qualifier("deepSeekGovernor") LlmGovernor deepSeekGovernor,
+                                @Qualifier("qwenGovernor") LlmGovernor qwenGovernor,
+                                @Qualifier("deepSeekResilience") LlmResilience deepSeekResilience,
+                                @Qualifier("qwenResilience") LlmResilience qwenResilience,
+                                @Qualifier("deepSeekLatencyTracker") LlmLatencyTracker deepSeekLatencyTracker,
+                                @Qualifier("deepSeekHedgingPolicy") LlmHedgingPolicy deepSeekHedgingPolicy,
+                                @Qualifier("deepSeekTimeoutPolicy") LlmTimeoutPolicy deepSeekTimeoutPolicy,
+                                @Qualifier("deepSeekRouter") LlmRouter deepSeekRouter,
+                                LlmUsageRecorder usageRecorder,
+                                GradingTaskQueue gradingTaskQueue,
+                                GradingAdmission gradingAdmission,
+                                GradingStatusHub gradingStatusHub,
+                                GradingStateWriter gradingStateWriter,
+                                QwenVisionClient qwenVisionClient,
+                                @Value("${deepseek.api.usage.admin-teacher-ids:}") String usageAdminTeacherIds) {
+        this.responseCache = responseCache;
+        this.deepSeekHttpTransport = deepSeekHttpTransport;
+        this.qwenHttpTransport = qwenHttpTransport;
+        this.deepSeekGovernor = deepSeekGovernor;
+        this.qwenGovernor = qwenGovernor;
+        this.deepSeekResilience = deepSeekResilience;
+        this.qwenResilience = qwenResilience;
+        this.deepSeekLatencyTracker = deepSeekLatencyTracker;
+        this.deepSeekHedgingPolicy = deepSeekHedgingPolicy;
+        this.deepSeekTimeoutPolicy = deepSeekTimeoutPolicy;
+        this.deepSeekRouter = deepSeekRouter;
+        this.usageRecorder = usageRecorder;
+        this.gradingTaskQueue = gradingTaskQueue;
+        this.gradingAdmission = gradingAdmission;
+        this.gradingStatusHub = gradingStatusHub;
+        this.gradingStateWriter = gradingStateWriter;
+        this.qwenVisionClient = qwenVisionClient;
+        this.usageAdminTeacherIds = Arrays.stream(usageAdminTeacherIds.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .map(Integer::valueOf)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * 大模型调用运行指标：响应缓存命中情况、各提供方调用闸门、熔断器与连接池状态，以及各场景耗时分位、自适应超时、对冲情况、多端点路由统计、判题队列积压、准入负载等级与预计等待、判题状态推送订阅数、Prompt 前缀缓存命中情况
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<?> getMetrics() {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("success", false, "error", "未登录"));
+        }
+        Map<String, Object> pools = new HashMap<>();
+        pools.put(deepSeekHttpTransport.provider(), deepSeekHttpTransport.poolStats());
+        pools.put(qwenHttpTransport.provider(), qwenHttpTransport.poolStats());
+
+        Map<String, Object> governors = new HashMap<>();
+        governors.put(deepSeekGovernor.provider(), deepSeekGovernor.snapshot());
+        governors.put(qwenGovernor.provider(), qwenGovernor.snapshot());
+
+        Map<String, Object> breakers = new HashMap<>();
+        breakers.put(deepSeekResilience.provider(), deepSeekResilience.snapshot());
+        breakers.put(qwenResilience.provider(), qwenResilience.snapshot());
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("cache", responseCache.snapshot());
+        result.put("governors", governors);
+        result.put("breakers", breakers);
+        result.put("connectionPools", pools);
+        result.put("latency", deepSeekLatencyTracker.snapshot());
+        result.put("hedging", deepSeekHedgingPolicy.snapshot());
+        result.put("timeouts", deepSeekTimeoutPolicy.snapshot());
+        result.put("routing", deepSeekRouter.snapshot());
+        result.put("gradingQueue", gradingTaskQueue.snapshot());
+        result.put("admission", gradingAdmission.snapshot());
+        result.put("gradingStatusStream", gradingStatusHub.snapshot());
+        result.put("gradingWrites", gradingStateWriter.snapshot());
+        result.put("ocrImages", qwenVisionClient.imageSnapshot());
+        result.put("promptPrefixes", promptPrefixSnapshot());
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Token 用量与费用：live 为进程启动以来的实时汇总，window 为 llm_usage 表中最近 hours 小时的统计。
+     * 默认（scope=mine）只返回当前教师的用量；scope=all 返回全部教师及按场景汇总，仅限 deepseek.api.usage.admin-teacher-ids 中的教师。
+     */
+    @GetMapping("/usage")
+    public ResponseEntity<?> getUsage(@RequestParam(defaultValue = "24") Integer hours,
+                                      @RequestParam(defaultValue = "mine") String scope) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("success", false, "error", "未登录"));
+        }
+        boolean all = "all".equalsIgnoreCase(scope);
+        if (all && !usageAdminTeacherIds.contains(teacher.getTeacherId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("success", false, "error", "无权查看全部教师的用量"));
+        }
+        Integer teacherId = all ? null : teacher.getTeacherId();
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("live", usageRecorder.snapshot(teacherId));
+        try {
+            result.put("window", usageRecorder.report(teacherId, hours == null ? 24 : hours));
+        } catch (Exception e) {
+            logger.warn("查询LLM用量统计失败: {}", e.getMessage());
+            result.put("windowError", "用量明细查询失败: " + e.getMessage());
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 按公共前缀组织 Prompt 的场景，从提供方 usage 中得到的前缀缓存命中率（prompt_cache_hit_tokens / prompt_tokens）。
+     */
+    private Map<String, Object> promptPrefixSnapshot() {
+        Map<String, Object> providerHitRatios = new HashMap<>();
+        PROMPT_PREFIX_SCENES.forEach(scene -> providerHitRatios.put(scene, usageRecorder.promptCacheHitRatio(scene)));
+        return Map.of("promptCacheHitRatio", providerHitRatios);
+    }
+}
@@ -2,13 +2,16 @@ package com.leo.aiteacher.controller;
 
 import com.leo.aiteacher.pojo.dto.TeacherDto;
 import com.leo.aiteacher.service.StudentAnswerService;
+import com.leo.aiteacher.service.impl.GradingStatusHub;
 import com.leo.aiteacher.util.SessionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -22,6 +25,9 @@ public class StudentAnswerController {
     
     @Autowired
     private StudentAnswerService studentAnswerService;
+
+    @Autowired
+    private GradingStatusHub gradingStatusHub;
     
     /**
      * 教师查看某课程下所有学生的答题记录
@@ -120,6 +126,32 @@ public class StudentAnswerController {
         }
     }
     
+    /**
+     * 教师查看某个题目的重复作答去重情况
+     * @param assignmentId 题目ID
+     * @return 去重统计
+     */
+    @GetMapping("/assignment/{assignmentId}/dedup")
+    public ResponseEntity<?> getAssignmentDedupStats(@PathVariable Integer assignmentId) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法查询去重统计");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("未登录或会话失效");
+        }
+
+        try {
+            Map<String, Object> result = studentAnswerService.getAssignmentDedupStats(assignmentId, teacher.getTeacherId());
+            if ((Boolean) result.get("success")) {
+                return ResponseEntity.ok(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(result);
+            }
+        } catch (Exception e) {
+            logger.error("查询去重统计异常", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("查询失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 教师更新学生答案的评分和分析
      * @param answerId 答案ID
@@ -188,6 +220,143 @@ public class StudentAnswerController {
         }
     }
 
+    /**
+     * 教师对某个题目的全部已判答案发起批量重判
+     * @param assignmentId 题目ID
+     * @return 重判任务进度
+     */
+    @PostMapping("/assignment/{assignmentId}/regrade")
+    public ResponseEntity<?> startAssignmentRegradeJob(@PathVariable Integer assignmentId) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法发起批量重判");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("未登录或会话失效");
+        }
+
+        try {
+            logger.info("教师发起题目批量重判，assignmentId={}, teacherId={}", assignmentId, teacher.getTeacherId());
+            Map<String, Object> result = studentAnswerService.startAssignmentRegradeJob(assignmentId, teacher.getTeacherId());
+            if ((Boolean) result.get("success")) {
+                return ResponseEntity.ok(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
+            }
+        } catch (Exception e) {
+            logger.error("发起批量重判异常", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("发起批量重判失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 教师对某课程下自己布置的全部题目发起批量重判
+     * @param courseCode 课程代码
+     * @return 重判任务进度
+     */
+    @PostMapping("/course/{courseCode}/regrade")
+    public ResponseEntity<?> startCourseRegradeJob(@PathVariable String courseCode) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法发起批量重判");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("未登录或会话失效");
+        }
+
+        try {
+            logger.info("教师发起课程批量重判，courseCode={}, teacherId={}", courseCode, teacher.getTeacherId());
+            Map<String, Object> result = studentAnswerService.startCourseRegradeJob(courseCode, teacher.getTeacherId());
+            if ((Boolean) result.get("success")) {
+                return ResponseEntity.ok(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
+            }
+        } catch (Exception e) {
+            logger.error("发起批量重判异常", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("发起批量重判失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 教师查询批量重判任务进度
+     * @param jobId 重判任务ID
+     * @return 已完成、失败、剩余数量与预计剩余时间
+     */
+    @GetMapping("/regradeJob/{jobId}")
+    public ResponseEntity<?> getRegradeJob(@PathVariable Long jobId) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法查询批量重判进度");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("未登录或会话失效");
+        }
+
+        try {
+            Map<String, Object> result = studentAnswerService.getRegradeJob(jobId, teacher.getTeacherId());
+            if ((Boolean) result.get("success")) {
+                return ResponseEntity.ok(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(result);
+            }
+        } catch (Exception e) {
+            logger.error("查询批量重判进度异常", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("查询失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 教师取消批量重判任务
+     * @param jobId 重判任务ID
+     * @return 重判任务进度
+     */
+    @PostMapping("/regradeJob/{jobId}/cancel")
+    public ResponseEntity<?> cancelRegradeJob(@PathVariable Long jobId) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法取消批量重判");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("未登录或会话失效");
+        }
+
+        try {
+            logger.info("教师取消批量重判，jobId={}, teacherId={}", jobId, teacher.getTeacherId());
+            Map<String, Object> result = studentAnswerService.cancelRegradeJob(jobId, teacher.getTeacherId());
+            if ((Boolean) result.get("success")) {
+                return ResponseEntity.ok(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
+            }
+        } catch (Exception e) {
+            logger.error("取消批量重判异常", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("取消失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 教师订阅某条答案的判题状态推送
+     * @param answerId 答案ID
+     * @return SSE 连接：snapshot 为当前状态，status 为状态变化，判完后发送 done 并结束
+     */
+    @GetMapping(value = "/{answerId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAnswerStatus(@PathVariable Integer answerId) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法订阅判题状态");
+            return gradingStatusHub.rejected(Map.of("success", false, "message", "未登录或会话失效"));
+        }
+        return studentAnswerService.subscribeAnswerStatusForTeacher(answerId, teacher.getTeacherId());
+    }
+
+    /**
+     * 教师订阅某个题目下全部答案的判题状态推送（批改看板）
+     * @param assignmentId 题目ID
+     * @return SSE 连接：snapshot 为全部答案当前状态，之后每份答案状态变化推送一条 status
+     */
+    @GetMapping(value = "/assignment/{assignmentId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAssignmentStatus(@PathVariable Integer assignmentId) {
+        TeacherDto teacher = SessionUtils.getCurrentTeacher();
+        if (teacher == null) {
+            logger.warn("未登录或会话失效，无法订阅判题状态");
+            return gradingStatusHub.rejected(Map.of("success", false, "message", "未登录或会话失效"));
+        }
+        return studentAnswerService.subscribeAssignmentStatus(assignmentId, teacher.getTeacherId());
+    }
+
     /**
      * 教师查询答案判题状态
      * @param answerId 答案ID
@@ -3,13 +3,17 @@ package com.leo.aiteacher.controller;
 import com.leo.aiteacher.pojo.dto.StuDto;
 import com.leo.aiteacher.service.AssignmentService;
 import com.leo.aiteacher.service.StudentAnswerService;
+import com.leo.aiteacher.service.impl.GradingStatusHub;
 import com.leo.aiteacher.util.SessionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -26,6 +30,9 @@ public class StudentController {
     
     @Autowired
     private StudentAnswerService studentAnswerService;
+
+    @Autowired
+    private GradingStatusHub gradingStatusHub;
     
     /**
      * 学生查看自己收到的题目列表
@@ -110,6 +117,11 @@ public class StudentController {
             if (result.containsKey("success") && (Boolean) result.get("success")) {
                 return ResponseEntity.ok(result);
             }
+            if (Boolean.TRUE.equals(result.get("overloaded"))) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(result.get("retryAfterSeconds")))
+                        .body(result);
+            }
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
         } catch (Exception e) {
             logger.error("图片识别异常", e);
@@ -143,6 +155,21 @@ public class StudentController {
         }
     }
 
+    /**
+     * 学生订阅某个题目的判题状态推送，替代轮询状态接口
+     * @param assignmentId 题目ID
+     * @return SSE 连接：snapshot 为当前状态，status 为状态变化，判完后发送 done 并结束
+     */
+    @GetMapping(value = "/answer/{assignmentId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAnswerStatus(@PathVariable Integer assignmentId) {
+        StuDto student = SessionUtils.getCurrentStudent();
+        if (student == null) {
+            logger.warn("未登录或会话失效，无法订阅判题状态");
+            return gradingStatusHub.rejected(Map.of("success", false, "message", "未登录或会话失效"));
+        }
+        return studentAnswerService.subscribeAnswerStatus(assignmentId, student.getStudentId());
+    }
+
     private Integer parseInteger(Object value) {
         if (value == null) {
             return null;
@@ -0,0 +1,41 @@
+package com.leo.aiteacher.pojo.dto;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@TableName("grading_jobs")
+public class GradingJobDto {
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    @TableField("teacher_id")
+    private Integer teacherId;
+
+    private String scope;
+
+    @TableField("assignment_id")
+    private Integer assignmentId;
+
+    @TableField("course_code")
+    private String courseCode;
+
+    private String status;
+
+    private Integer total;
+
+    @TableField("created_at")
+    private LocalDateTime createdAt;
+
+    @TableField("updated_at")
+    private LocalDateTime updatedAt;
+
+    @TableField("finished_at")
+    private LocalDateTime finishedAt;
+}
@@ -29,6 +29,17 @@ public class GradingTaskDto {
     @TableField("last_error")
     private String lastError;
 
+    @TableField("lease_owner")
+    private String leaseOwner;
+
+    @TableField("lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    private String tenant;
+
+    @TableField("deferred_since")
+    private LocalDateTime deferredSince;
+
     @TableField("created_at")
     private LocalDateTime createdAt;
 
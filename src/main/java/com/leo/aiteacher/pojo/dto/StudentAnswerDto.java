@@ -47,6 +47,12 @@ public class StudentAnswerDto {
     @TableField("evaluation_json")
     private String evaluationJson;
 
+    @TableField("answer_hash")
+    private String answerHash;
+
+    @TableField("dedup_source_id")
+    private Integer dedupSourceId;
+
     @TableField("grading_started_at")
     private LocalDateTime gradingStartedAt;
 
@@ -0,0 +1,9 @@
+package com.leo.aiteacher.pojo.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.leo.aiteacher.pojo.dto.GradingJobDto;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface GradingJobMapper extends BaseMapper<GradingJobDto> {
+}
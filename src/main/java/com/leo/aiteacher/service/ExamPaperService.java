@@ -1,5 +1,7 @@
 package com.leo.aiteacher.service;
 
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
 import java.util.Map;
 
 public interface ExamPaperService {
@@ -26,6 +28,8 @@ public interface ExamPaperService {
 
     Map<String, Object> getExamPaperTaskStatus(Long taskId);
 
+    SseEmitter subscribeExamPaperTask(Long taskId);
+
     Map<String, Object> listExamPapers(Integer page, Integer pageSize);
 
     Map<String, Object> getExamPaperDetail(Long paperId);
@@ -1,5 +1,7 @@
 package com.leo.aiteacher.service;
 
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
 import java.util.Map;
 
 public interface LessonPlanService {
@@ -25,6 +27,8 @@ public interface LessonPlanService {
 
     Map<String, Object> getLessonPlanTaskStatus(Long taskId);
 
+    SseEmitter subscribeLessonPlanTask(Long taskId);
+
     Map<String, Object> listLessonPlans(Integer page, Integer pageSize);
 
     Map<String, Object> getLessonPlanDetail(Long planId);
@@ -1,5 +1,7 @@
 package com.leo.aiteacher.service;
 
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
 import java.util.Map;
 
 public interface QuestionGenerationTaskService {
@@ -9,4 +11,6 @@ public interface QuestionGenerationTaskService {
                                              Boolean useContext, Integer contextRounds);
 
     Map<String, Object> getGenerationTaskStatus(Long taskId);
+
+    SseEmitter subscribeGenerationTask(Long taskId);
 }
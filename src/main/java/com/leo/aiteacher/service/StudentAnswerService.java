@@ -1,5 +1,7 @@
 package com.leo.aiteacher.service;
 
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
 import java.util.List;
 import java.util.Map;
 
@@ -11,14 +13,14 @@ public interface StudentAnswerService {
      * @param studentId 学生ID
      * @param studentAnswer 学生答案
      * @param imageDataUrl 学生上传图片的DataURL（可选）
-     * @return 包含评分和分析结果的Map
+     * @return 提交结果，包含判题任务ID与预计等待时间
      */
     Map<String, Object> submitAnswer(Integer assignmentId, Integer studentId, String studentAnswer, String imageDataUrl);
 
     /**
      * 学生上传图片后先识别文字，供提交前复核修改
      * @param imageDataUrl 图片DataURL
-     * @return 识别结果
+     * @return 识别结果；识别服务过载时 overloaded=true 并给出 retryAfterSeconds
      */
     Map<String, Object> recognizeAnswerImage(String imageDataUrl);
 
@@ -26,9 +28,17 @@ public interface StudentAnswerService {
      * 查询当前学生某题目的判题状态
      * @param assignmentId 题目ID
      * @param studentId 学生ID
-     * @return 状态信息
+     * @return 状态信息，未判完时包含预计等待时间
      */
     Map<String, Object> getAnswerStatus(Integer assignmentId, Integer studentId);
+
+    /**
+     * 学生订阅某题目的判题状态推送（SSE），判完后连接结束
+     * @param assignmentId 题目ID
+     * @param studentId 学生ID
+     * @return SSE 连接
+     */
+    SseEmitter subscribeAnswerStatus(Integer assignmentId, Integer studentId);
     
     /**
      * 教师查看某课程下所有学生的答题记录
@@ -62,6 +72,14 @@ public interface StudentAnswerService {
      * @return 学生答题记录列表
      */
     List<Map<String, Object>> getAssignmentStudentAnswers(Integer assignmentId, Integer teacherId);
+
+    /**
+     * 教师查看某个题目的重复作答去重情况
+     * @param assignmentId 题目ID
+     * @param teacherId 教师ID（用于权限验证）
+     * @return 去重统计（复用评分的答案数、去重率等）
+     */
+    Map<String, Object> getAssignmentDedupStats(Integer assignmentId, Integer teacherId);
     
     /**
      * 教师更新学生答案的评分和分析
@@ -81,6 +99,38 @@ public interface StudentAnswerService {
      */
     Map<String, Object> regradeAnswer(Integer answerId, Integer teacherId);
 
+    /**
+     * 教师对某个题目的全部已判答案发起批量重判
+     * @param assignmentId 题目ID
+     * @param teacherId 教师ID（用于权限验证）
+     * @return 重判任务进度
+     */
+    Map<String, Object> startAssignmentRegradeJob(Integer assignmentId, Integer teacherId);
+
+    /**
+     * 教师对某课程下自己布置的全部题目发起批量重判
+     * @param courseCode 课程代码
+     * @param teacherId 教师ID（用于权限验证）
+     * @return 重判任务进度
+     */
+    Map<String, Object> startCourseRegradeJob(String courseCode, Integer teacherId);
+
+    /**
+     * 查询批量重判任务进度（已完成、失败、剩余数量与预计剩余时间）
+     * @param jobId 重判任务ID
+     * @param teacherId 教师ID（用于权限验证）
+     * @return 重判任务进度
+     */
+    Map<String, Object> getRegradeJob(Long jobId, Integer teacherId);
+
+    /**
+     * 取消批量重判任务，已在判的答案正常完成
+     * @param jobId 重判任务ID
+     * @param teacherId 教师ID（用于权限验证）
+     * @return 重判任务进度
+     */
+    Map<String, Object> cancelRegradeJob(Long jobId, Integer teacherId);
+
     /**
      * 教师查询某条答案的判题状态
      * @param answerId 答案ID
@@ -88,4 +138,20 @@ public interface StudentAnswerService {
      * @return 状态信息
      */
     Map<String, Object> getAnswerStatusForTeacher(Integer answerId, Integer teacherId);
+
+    /**
+     * 教师订阅某条答案的判题状态推送（SSE），判完后连接结束
+     * @param answerId 答案ID
+     * @param teacherId 教师ID（用于权限验证）
+     * @return SSE 连接
+     */
+    SseEmitter subscribeAnswerStatusForTeacher(Integer answerId, Integer teacherId);
+
+    /**
+     * 教师订阅某个题目下全部答案的判题状态推送（SSE）
+     * @param assignmentId 题目ID
+     * @param teacherId 教师ID（用于权限验证）
+     * @return SSE 连接
+     */
+    SseEmitter subscribeAssignmentStatus(Integer assignmentId, Integer teacherId);
 }
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leo.aiteacher.client.DeepSeekChatClient;
+import com.leo.aiteacher.client.LlmResilience;
 import com.leo.aiteacher.pojo.dto.ConversationDto;
 import com.leo.aiteacher.pojo.dto.ExamPaperDto;
 import com.leo.aiteacher.pojo.dto.ExamPaperPromptPresetDto;
@@ -22,6 +23,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -40,6 +42,7 @@ public class ExamPaperServiceImpl implements ExamPaperService {
     private static final String DEFAULT_EXAM_TYPE = "单元测验";
     private static final String DEFAULT_DIFFICULTY = "中等";
     private static final int DEFAULT_CONTEXT_ROUNDS = 5;
+    private static final String STREAM_MODULE = "exam-paper";
 
     @Resource
     private ExamPaperTaskMapper examPaperTaskMapper;
@@ -60,6 +63,9 @@ public class ExamPaperServiceImpl implements ExamPaperService {
     @Resource
     private DeepSeekChatClient deepSeekChatClient;
 
+    @Resource
+    private TaskStreamHub taskStreamHub;
+
     @Resource
     private JdbcTemplate jdbcTemplate;
 
@@ -567,6 +573,10 @@ public class ExamPaperServiceImpl implements ExamPaperService {
         result.put("createdAt", task.getCreatedAt());
         result.put("updatedAt", task.getUpdatedAt());
         result.put("completedAt", task.getCompletedAt());
+        String partialContent = taskStreamHub.partialContent(TaskStreamHub.channel(STREAM_MODULE, task.getId()));
+        if (partialContent != null && !partialContent.isEmpty()) {
+            result.put("partialContent", partialContent);
+        }
 
         ExamPaperDto paper = examPaperMapper.selectOne(
                 new QueryWrapper<ExamPaperDto>().eq("task_id", task.getId()).last("LIMIT 1")
@@ -584,6 +594,15 @@ public class ExamPaperServiceImpl implements ExamPaperService {
         return result;
     }
 
+    @Override
+    public SseEmitter subscribeExamPaperTask(Long taskId) {
+        Map<String, Object> status = getExamPaperTaskStatus(taskId);
+        if (!Boolean.TRUE.equals(status.get("success"))) {
+            return taskStreamHub.rejected(status);
+        }
+        return taskStreamHub.subscribe(TaskStreamHub.channel(STREAM_MODULE, taskId), String.valueOf(status.get("status")));
+    }
+
     @Override
     public Map<String, Object> listExamPapers(Integer page, Integer pageSize) {
         ensureExamPaperTaskSchema();
@@ -717,12 +736,33 @@ public class ExamPaperServiceImpl implements ExamPaperService {
             return;
         }
 
+        String streamChannel = TaskStreamHub.channel(STREAM_MODULE, task.getId());
+        DeepSeekChatClient.ChatRequest chatRequest = new DeepSeekChatClient.ChatRequest(STREAM_MODULE, null, task.getRequestPrompt(), null)
+                .withUsageTag(task.getTeacherId(), null, task.getId());
+
         try {
             task.setStatus("RUNNING");
             task.setUpdatedAt(LocalDateTime.now());
             examPaperTaskMapper.updateById(task);
+        } catch (Exception ex) {
+            onTaskFailed(task, chatRequest, streamChannel, ex);
+            return;
+        }
 
-            DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat(task.getRequestPrompt());
+        // 等待模型输出期间不占用线程，结果回到 examPaperExecutor 上解析、落库
+        deepSeekChatClient.chatStreamAsync(chatRequest, taskStreamHub.listener(streamChannel))
+                .whenCompleteAsync((chatResult, error) -> {
+                    if (error != null) {
+                        onTaskFailed(task, chatRequest, streamChannel, LlmResilience.unwrap(error));
+                    } else {
+                        completeTask(task, chatRequest, streamChannel, chatResult);
+                    }
+                }, examPaperExecutor);
+    }
+
+    private void completeTask(ExamPaperTaskDto task, DeepSeekChatClient.ChatRequest chatRequest, String streamChannel,
+                              DeepSeekChatClient.ChatResult chatResult) {
+        try {
             ParsedExamPaper parsed = parseAndValidate(chatResult.content(), task.getQuestionCount(), task.getTotalScore());
 
             ExamPaperDto paper = new ExamPaperDto();
@@ -749,13 +789,23 @@ public class ExamPaperServiceImpl implements ExamPaperService {
             task.setCompletedAt(LocalDateTime.now());
             task.setUpdatedAt(LocalDateTime.now());
             examPaperTaskMapper.updateById(task);
+            taskStreamHub.close(streamChannel, task.getStatus());
         } catch (Exception ex) {
-            logger.error("试卷任务执行失败, taskId={}", taskId, ex);
+            onTaskFailed(task, chatRequest, streamChannel, ex);
+        }
+    }
+
+    private void onTaskFailed(ExamPaperTaskDto task, DeepSeekChatClient.ChatRequest chatRequest, String streamChannel, Exception ex) {
+        logger.error("试卷任务执行失败, taskId={}", task.getId(), ex);
+        try {
+            deepSeekChatClient.invalidate(chatRequest);
             task.setStatus("FAILED");
             task.setErrorMessage("生成失败: " + ex.getMessage());
             task.setCompletedAt(LocalDateTime.now());
             task.setUpdatedAt(LocalDateTime.now());
             examPaperTaskMapper.updateById(task);
+        } finally {
+            taskStreamHub.close(streamChannel, task.getStatus());
         }
     }
 
@@ -0,0 +1,93 @@
+package com.leo.aiteacher.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 按租户（课程代码/教师ID）的加权差额轮询（DRR）：每轮给有待判任务的租户按权重累加额度，额度够一份就分配一份，
+ * 队列清空的租户额度归零。只有一个租户有任务时它独占全部容量，大批量提交仍能满速消化；
+ * 多个租户同时排队时按权重分享，小班级的作业不必排在整场考试之后。
+ * 权重先按完整租户键匹配，再按课程代码匹配，都没有时使用默认权重。
+ */
+final class FairShareScheduler {
+
+    private final Map<String, Integer> weights;
+    private final int defaultWeight;
+    private final Map<String, Double> deficits = new HashMap<>();
+    private final Deque<String> ring = new ArrayDeque<>();
+
+    FairShareScheduler(Map<String, Integer> weights, int defaultWeight) {
+        this.weights = Map.copyOf(weights);
+        this.defaultWeight = Math.max(1, defaultWeight);
+    }
+
+    static String tenantOf(String courseCode, Integer teacherId) {
+        return (courseCode == null ? "" : courseCode) + "/" + (teacherId == null ? "" : teacherId);
+    }
+
+    /**
+     * 解析 "CS101:4,CS102/12:2" 形式的权重配置，非法项忽略。
+     */
+    static Map<String, Integer> parseWeights(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return Map.of();
+        }
+        return Arrays.stream(spec.split(","))
+                .map(String::trim)
+                .filter(item -> item.lastIndexOf(':') > 0)
+                .filter(item -> item.substring(item.lastIndexOf(':') + 1).trim().matches("\\d+"))
+                .collect(Collectors.toUnmodifiableMap(
+                        item -> item.substring(0, item.lastIndexOf(':')).trim(),
+                        item -> Math.max(1, Integer.parseInt(item.substring(item.lastIndexOf(':') + 1).trim())),
+                        (left, right) -> right));
+    }
+
+    int weightOf(String tenant) {
+        Integer weight = weights.get(tenant);
+        if (weight == null && tenant.indexOf('/') >= 0) {
+            weight = weights.get(tenant.substring(0, tenant.indexOf('/')));
+        }
+        return weight == null ? defaultWeight : weight;
+    }
+
+    /**
+     * 按各租户的待判数量分配本次最多 capacity 个名额；额度和轮询位置跨调用保留。
+     */
+    synchronized Map<String, Integer> allocate(Map<String, Long> ready, int capacity) {
+        Map<String, Integer> allocation = new LinkedHashMap<>();
+        deficits.keySet().retainAll(ready.keySet());
+        ring.removeIf(tenant -> !ready.containsKey(tenant));
+        ready.keySet().stream().sorted().filter(tenant -> !deficits.containsKey(tenant)).forEach(tenant -> {
+            deficits.put(tenant, 0.0);
+            ring.addLast(tenant);
+        });
+
+        Map<String, Long> remaining = new HashMap<>(ready);
+        long backlog = remaining.values().stream().mapToLong(Long::longValue).sum();
+        int left = capacity;
+        while (left > 0 && backlog > 0) {
+            String tenant = ring.pollFirst();
+            ring.addLast(tenant);
+            long pending = remaining.get(tenant);
+            if (pending <= 0) {
+                continue;
+            }
+            double deficit = deficits.get(tenant) + weightOf(tenant);
+            int take = (int) Math.min(Math.min(Math.floor(deficit), pending), left);
+            deficit -= take;
+            pending -= take;
+            left -= take;
+            backlog -= take;
+            remaining.put(tenant, pending);
+            allocation.merge(tenant, take, Integer::sum);
+            deficits.put(tenant, pending == 0 ? 0.0 : deficit);
+        }
+        allocation.values().removeIf(count -> count == 0);
+        return allocation;
+    }
+}
@@ -0,0 +1,193 @@
+package com.leo.aiteacher.service.impl;
+
+import com.leo.aiteacher.client.LlmGovernor;
+import com.leo.aiteacher.client.LlmResilience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 判题准入与等待时间估算。答案提交总是写入持久化队列，不会因负载被拒绝，只在响应中给出预计等待时间和负载等级；
+ * 非持久化的同步路径（图片预识别）在过载时拒绝，由调用方返回 429 和 Retry-After。
+ * 预计等待 = 熔断剩余时间 + 排在前面的任务数 / 吞吐 + 单份平均耗时。吞吐按 deepseek 限流配置推算处理能力
+ * （并发 / 平均耗时，且不超过每分钟请求数），并以此为下限：最近 sample-minutes 分钟实际完成数只反映到达速率，
+ * 空闲之后突然涌入大量提交时会严重高估等待；多节点部署时实际完成数可能高于单节点的推算值，此时取实际值。
+ */
+@Component
+public class GradingAdmission {
+
+    private static final Logger logger = LoggerFactory.getLogger(GradingAdmission.class);
+    private static final int MIN_THROUGHPUT_SAMPLES = 5;
+    private static final long STATS_TTL_MS = 2000L;
+
+    public static final String LEVEL_NORMAL = "NORMAL";
+    public static final String LEVEL_BUSY = "BUSY";
+    public static final String LEVEL_OVERLOADED = "OVERLOADED";
+
+    @Value("${grading.admission.max-queue-depth:500}")
+    private long maxQueueDepth;
+
+    @Value("${grading.admission.max-wait-seconds:900}")
+    private long maxWaitSeconds;
+
+    @Value("${grading.admission.sample-minutes:10}")
+    private int sampleMinutes;
+
+    @Value("${grading.admission.default-task-seconds:20}")
+    private long defaultTaskSeconds;
+
+    @Value("${grading.admission.ocr-max-waiting:0}")
+    private int ocrMaxWaiting;
+
+    @Value("${grading.admission.ocr-retry-after-seconds:5}")
+    private long ocrRetryAfterSeconds;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private GradingTaskQueue gradingTaskQueue;
+
+    @Autowired
+    @Qualifier("deepSeekGovernor")
+    private LlmGovernor deepSeekGovernor;
+
+    @Autowired
+    @Qualifier("deepSeekResilience")
+    private LlmResilience deepSeekResilience;
+
+    @Autowired
+    @Qualifier("qwenGovernor")
+    private LlmGovernor qwenGovernor;
+
+    @Autowired
+    @Qualifier("qwenResilience")
+    private LlmResilience qwenResilience;
+
+    private final Object statsLock = new Object();
+    private volatile QueueStats cachedStats;
+
+    /**
+     * 估算指定任务的等待时间；taskId 为空时按排在队尾估算。
+     */
+    public Map<String, Object> estimate(Long taskId, String taskStatus) {
+        QueueStats stats = queueStats();
+        long ahead;
+        if ("RUNNING".equals(taskStatus)) {
+            ahead = 0;
+        } else if (taskId == null) {
+            ahead = stats.depth();
+        } else {
+            Long count = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM grading_tasks WHERE status IN ('PENDING', 'RUNNING') AND id < ?", Long.class, taskId);
+            ahead = count == null ? 0 : count;
+        }
+        long providerOpenMs = deepSeekResilience.openRemainingMs();
+        long waitSeconds = Math.round(providerOpenMs / 1000.0 + ahead / stats.throughputPerSecond() + stats.taskSeconds());
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("queueAhead", ahead);
+        result.put("estimatedWaitSeconds", waitSeconds);
+        result.put("throughputPerMinute", Math.round(stats.throughputPerSecond() * 600) / 10.0);
+        result.put("throughputSource", stats.observed() ? "observed" : "configured");
+        result.put("providerAvailable", providerOpenMs == 0);
+        result.put("loadLevel", level(stats.depth(), waitSeconds, providerOpenMs));
+        return result;
+    }
+
+    /**
+     * 图片预识别的准入：可以执行时返回 null，否则返回建议的重试秒数。
+     */
+    public Long ocrRetryAfterSeconds() {
+        long openMs = qwenResilience.openRemainingMs();
+        if (openMs > 0) {
+            return Math.max(1L, (openMs + 999) / 1000);
+        }
+        Map<String, Object> governor = qwenGovernor.snapshot();
+        long waiting = ((Number) governor.get("waiting")).longValue();
+        long limit = ocrMaxWaiting > 0 ? ocrMaxWaiting : 2L * ((Number) governor.get("maxConcurrent")).longValue();
+        if (waiting < limit) {
+            return null;
+        }
+        long avgWaitSeconds = (((Number) governor.get("avgWaitMs")).longValue() + 999) / 1000;
+        return Math.max(ocrRetryAfterSeconds, avgWaitSeconds);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.putAll(estimate(null, null));
+            result.put("queueDepth", queueStats().depth());
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        result.put("maxQueueDepth", maxQueueDepth);
+        result.put("maxWaitSeconds", maxWaitSeconds);
+        result.put("ocrRetryAfterSeconds", ocrRetryAfterSeconds());
+        return result;
+    }
+
+    private String level(long depth, long waitSeconds, long providerOpenMs) {
+        if (providerOpenMs > 0 || depth >= maxQueueDepth || waitSeconds >= maxWaitSeconds) {
+            return LEVEL_OVERLOADED;
+        }
+        if (depth * 2 >= maxQueueDepth || waitSeconds * 2 >= maxWaitSeconds) {
+            return LEVEL_BUSY;
+        }
+        return LEVEL_NORMAL;
+    }
+
+    /**
+     * 队列深度与吞吐按 STATS_TTL_MS 缓存，学生轮询状态时不必每次统计。
+     */
+    private QueueStats queueStats() {
+        QueueStats stats = cachedStats;
+        long now = System.currentTimeMillis();
+        if (stats != null && now - stats.computedAt() < STATS_TTL_MS) {
+            return stats;
+        }
+        synchronized (statsLock) {
+            stats = cachedStats;
+            if (stats != null && now - stats.computedAt() < STATS_TTL_MS) {
+                return stats;
+            }
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("""
+                    SELECT (SELECT COUNT(*) FROM grading_tasks WHERE status IN ('PENDING', 'RUNNING')) AS depth,
+                           (SELECT COUNT(*) FROM grading_tasks
+                            WHERE completed_at >= NOW() - INTERVAL ? MINUTE AND status IN ('SUCCESS', 'FAILED')) AS completed
+                    """, sampleMinutes);
+            long depth = ((Number) rows.get(0).get("depth")).longValue();
+            long completed = ((Number) rows.get(0).get("completed")).longValue();
+
+            long averageTaskMs = gradingTaskQueue.averageTaskMs();
+            double taskSeconds = averageTaskMs > 0 ? averageTaskMs / 1000.0 : defaultTaskSeconds;
+            Map<String, Object> governor = deepSeekGovernor.snapshot();
+            double capacity = ((Number) governor.get("maxConcurrent")).intValue() / Math.max(1.0, taskSeconds);
+            int requestsPerMinute = ((Number) governor.get("requestsPerMinute")).intValue();
+            if (requestsPerMinute > 0) {
+                capacity = Math.min(capacity, requestsPerMinute / 60.0);
+            }
+            double completedRate = completed / (sampleMinutes * 60.0);
+            boolean observed = completed >= MIN_THROUGHPUT_SAMPLES && completedRate > capacity;
+            double throughput = observed ? completedRate : capacity;
+            stats = new QueueStats(depth, Math.max(throughput, 0.001), taskSeconds, observed, now);
+            if (cachedStats != null && !LEVEL_OVERLOADED.equals(level(cachedStats.depth(), 0, 0))
+                    && LEVEL_OVERLOADED.equals(level(depth, 0, 0))) {
+                logger.warn("判题队列积压超过阈值，depth={}, maxQueueDepth={}", depth, maxQueueDepth);
+            }
+            cachedStats = stats;
+            return stats;
+        }
+    }
+
+    private record QueueStats(long depth, double throughputPerSecond, double taskSeconds, boolean observed, long computedAt) {
+    }
+}
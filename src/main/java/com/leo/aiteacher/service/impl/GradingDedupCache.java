@@ -0,0 +1,220 @@
+package com.leo.aiteacher.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.leo.aiteacher.pojo.dto.AssignmentDto;
+import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
+import com.leo.aiteacher.pojo.mapper.StudentAnswerMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 重复作答去重：同一作业下归一化后相同的答案只调用一次大模型。
+ * 键为 作业ID + Prompt 版本 + 作业内容 + 归一化答案 的 SHA-256，存于 student_answers.answer_hash；
+ * 已判完的相同答案直接复用其评分与 evaluation_json（dedup_source_id 记录来源），
+ * 本节点上同时在判的相同答案共享一次调用，领头任务失败时其余答案各自判题。
+ * answer_hash 为空表示本次需要重新调用模型（教师触发的重判）：既不复用相同答案，也绕过判题场景的响应缓存，判完后回填；
+ * 去重关闭时同样写入以保留这一标记。教师手工改分时清空，保证复用来源只有模型判出的结果。
+ */
+@Component
+public class GradingDedupCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(GradingDedupCache.class);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // 字母之间的分隔符视为选项分隔（A,B / A、B / A;B），数字之间的不动，避免 3.5 与 35 混同
+    private static final Pattern LETTER_SEPARATORS = Pattern.compile("(?<=\\p{L})[,、;:'\"“”‘’·]+(?=\\p{L})");
+    private static final Pattern EDGE_PUNCTUATION = Pattern.compile("^[,、;:'\"“”‘’。!?]+|[,、;:'\"“”‘’。.!?]+$");
+
+    @Value("${grading.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Autowired
+    private StudentAnswerMapper studentAnswerMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Leader> inFlight = new ConcurrentHashMap<>();
+    private final Map<Long, String> leaderHashes = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> sharedCalls = new ConcurrentHashMap<>();
+    private final AtomicBoolean schemaChecked = new AtomicBoolean(false);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 空白、全半角、字母间的分隔符和首尾标点不影响判分，归一化后比较。
+     * 大小写保留：化学式（Co/CO）、变量名、英文拼写题中大小写本身就是得分点。
+     */
+    static String normalize(String studentAnswer) {
+        if (studentAnswer == null) {
+            return "";
+        }
+        String text = Normalizer.normalize(studentAnswer, Normalizer.Form.NFKC);
+        text = WHITESPACE.matcher(text).replaceAll("");
+        text = LETTER_SEPARATORS.matcher(text).replaceAll("");
+        return EDGE_PUNCTUATION.matcher(text).replaceAll("");
+    }
+
+    /**
+     * 作业题干、分值或结构修改后键随之变化，不会复用旧题的评分。
+     */
+    public String answerHash(AssignmentDto assignment, String studentAnswer, String promptVersion) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : List.of(
+                    String.valueOf(assignment.getId()),
+                    promptVersion,
+                    assignment.getContent() == null ? "" : assignment.getContent(),
+                    assignment.getTotalScore() == null ? "" : assignment.getTotalScore().toString(),
+                    assignment.getQuestionStructureJson() == null ? "" : assignment.getQuestionStructureJson(),
+                    normalize(studentAnswer))) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException("无法计算答案去重键", e);
+        }
+    }
+
+    /**
+     * 查找同一作业下最近判完的相同答案，不存在时返回 null。
+     */
+    public StudentAnswerDto findGraded(Integer assignmentId, String answerHash, Integer excludeAnswerId) {
+        ensureSchema();
+        return studentAnswerMapper.selectOne(new QueryWrapper<StudentAnswerDto>()
+                .eq("assignment_id", assignmentId)
+                .eq("answer_hash", answerHash)
+                .eq("grading_status", "SUCCESS")
+                .isNotNull("evaluation_json")
+                .ne("id", excludeAnswerId)
+                .orderByDesc("grading_completed_at")
+                .last("LIMIT 1"));
+    }
+
+    /**
+     * 尝试成为该答案的领头任务：返回 null 表示由本任务调用模型；否则返回领头任务的结果，true 表示已判完可复用。
+     */
+    public CompletableFuture<Boolean> joinInFlight(String answerHash, Long taskId, Integer assignmentId) {
+        Leader leader = new Leader(taskId, new CompletableFuture<>());
+        Leader existing = inFlight.putIfAbsent(answerHash, leader);
+        if (existing == null) {
+            leaderHashes.put(taskId, answerHash);
+            return null;
+        }
+        sharedCalls.computeIfAbsent(assignmentId, id -> new AtomicLong()).incrementAndGet();
+        return existing.result();
+    }
+
+    /**
+     * 任务结束（成功、失败或交还队列）时调用；只有领头任务会真正释放等待者。
+     */
+    public void release(Long taskId, boolean graded) {
+        String answerHash = leaderHashes.remove(taskId);
+        if (answerHash == null) {
+            return;
+        }
+        Leader leader = inFlight.get(answerHash);
+        if (leader != null && leader.taskId().equals(taskId)) {
+            inFlight.remove(answerHash, leader);
+            leader.result().complete(graded);
+        }
+    }
+
+    public Map<String, Object> stats(Integer assignmentId) {
+        ensureSchema();
+        Map<String, Object> row = jdbcTemplate.queryForMap("""
+                SELECT COUNT(*) AS total,
+                       COALESCE(SUM(grading_status = 'SUCCESS'), 0) AS graded,
+                       COALESCE(SUM(dedup_source_id IS NOT NULL), 0) AS deduplicated,
+                       COUNT(DISTINCT answer_hash) AS distinct_answers
+                FROM student_answers
+                WHERE assignment_id = ?
+                """, assignmentId);
+        long graded = ((Number) row.get("graded")).longValue();
+        long deduplicated = ((Number) row.get("deduplicated")).longValue();
+        Map<String, Object> result = new HashMap<>();
+        result.put("assignmentId", assignmentId);
+        result.put("enabled", enabled);
+        result.put("totalAnswers", ((Number) row.get("total")).longValue());
+        result.put("gradedAnswers", graded);
+        result.put("deduplicatedAnswers", deduplicated);
+        result.put("distinctAnswers", ((Number) row.get("distinct_answers")).longValue());
+        result.put("dedupRate", graded == 0 ? 0.0 : Math.round(deduplicated * 10000.0 / graded) / 10000.0);
+        AtomicLong shared = sharedCalls.get(assignmentId);
+        result.put("sharedInFlightCalls", shared == null ? 0L : shared.get());
+        return result;
+    }
+
+    /**
+     * 实体已包含去重字段，启动时先补齐，避免旧库上按实体查询 student_answers 失败。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureSchemaOnStartup() {
+        try {
+            ensureSchema();
+        } catch (Exception e) {
+            logger.warn("补齐答案去重字段失败，将在首次使用时重试，error={}", e.getMessage());
+        }
+    }
+
+    public void ensureSchema() {
+        if (schemaChecked.get()) {
+            return;
+        }
+        synchronized (schemaChecked) {
+            if (schemaChecked.get()) {
+                return;
+            }
+            ensureColumn("answer_hash", "ALTER TABLE student_answers ADD COLUMN answer_hash CHAR(64) NULL COMMENT '去重键：作业+Prompt版本+归一化答案的 SHA-256'");
+            ensureColumn("dedup_source_id", "ALTER TABLE student_answers ADD COLUMN dedup_source_id INT NULL COMMENT '复用评分的来源答案ID'");
+            Integer count = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(1) FROM information_schema.STATISTICS " +
+                            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'student_answers' AND INDEX_NAME = 'idx_student_answers_dedup'",
+                    Integer.class
+            );
+            if (count == null || count == 0) {
+                jdbcTemplate.execute("ALTER TABLE student_answers ADD KEY idx_student_answers_dedup (assignment_id, answer_hash)");
+                logger.info("已自动补齐 student_answers.idx_student_answers_dedup 索引");
+            }
+            schemaChecked.set(true);
+        }
+    }
+
+    private void ensureColumn(String columnName, String alterSql) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM information_schema.COLUMNS " +
+                        "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'student_answers' AND COLUMN_NAME = ?",
+                Integer.class,
+                columnName
+        );
+        if (count != null && count > 0) {
+            return;
+        }
+        jdbcTemplate.execute(alterSql);
+        logger.info("已自动补齐 student_answers.{} 字段", columnName);
+    }
+
+    private record Leader(Long taskId, CompletableFuture<Boolean> result) {
+    }
+}
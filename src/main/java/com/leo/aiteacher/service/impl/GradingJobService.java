@@ -0,0 +1,419 @@
+package com.leo.aiteacher.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.leo.aiteacher.pojo.dto.GradingJobDto;
+import com.leo.aiteacher.pojo.mapper.GradingJobMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 批量重判任务：按作业或课程一次性为已判完的答案写入 WAITING 状态的 grading_tasks（job_id 关联 grading_jobs），
+ * 判题队列不会认领 WAITING 任务。各节点定时把 WAITING 任务提升为 PENDING 交给队列：
+ * 同一任务在判数（PENDING + RUNNING）不超过 max-in-flight，且每个节点每分钟提升不超过 requests-per-minute，
+ * 提供方的整体限流仍由 LlmGovernor 负责。答案在提升时才清空旧评分，排队期间学生仍能看到原结果。
+ * 取消只作废尚未提升的任务，已在判的任务正常结束后任务才标记为 CANCELLED。
+ */
+@Service
+public class GradingJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GradingJobService.class);
+
+    public static final String SCOPE_ASSIGNMENT = "ASSIGNMENT";
+    public static final String SCOPE_COURSE = "COURSE";
+
+    @Value("${grading.job.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${grading.job.max-in-flight:8}")
+    private int maxInFlight;
+
+    @Value("${grading.job.requests-per-minute:120}")
+    private int requestsPerMinute;
+
+    @Autowired
+    private GradingJobMapper gradingJobMapper;
+
+    @Autowired
+    private GradingTaskQueue gradingTaskQueue;
+
+    @Autowired
+    private GradingDedupCache gradingDedupCache;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final Map<Long, RateBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean schemaChecked = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean lastFeedFailed;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "grading-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(200L, pollIntervalMs);
+        scheduler.scheduleWithFixedDelay(this::feedQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("批量重判调度已启动，maxInFlight={}, requestsPerMinute={}", maxInFlight, requestsPerMinute);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * 同一教师对同一作业（或课程）只保留一个进行中的重判任务，已存在时返回该任务。
+     */
+    public GradingJobDto findActive(Integer teacherId, String scope, Integer assignmentId, String courseCode) {
+        ensureSchema();
+        QueryWrapper<GradingJobDto> query = new QueryWrapper<GradingJobDto>()
+                .eq("teacher_id", teacherId)
+                .eq("scope", scope)
+                .in("status", "RUNNING", "CANCELLING");
+        if (SCOPE_ASSIGNMENT.equals(scope)) {
+            query.eq("assignment_id", assignmentId);
+        } else {
+            query.eq("course_code", courseCode);
+        }
+        return gradingJobMapper.selectOne(query.orderByDesc("id").last("LIMIT 1"));
+    }
+
+    /**
+     * 创建重判任务并写入待提升的判题任务；正在判题中的答案不纳入。没有可重判的答案时返回 null。
+     */
+    public GradingJobDto create(Integer teacherId, String scope, Integer assignmentId, String courseCode) {
+        ensureSchema();
+        gradingTaskQueue.ensureSchema();
+        GradingJobDto created = transactionTemplate.execute(status -> {
+            GradingJobDto job = new GradingJobDto();
+            job.setTeacherId(teacherId);
+            job.setScope(scope);
+            job.setAssignmentId(SCOPE_ASSIGNMENT.equals(scope) ? assignmentId : null);
+            job.setCourseCode(SCOPE_COURSE.equals(scope) ? courseCode : null);
+            job.setStatus("RUNNING");
+            job.setTotal(0);
+            gradingJobMapper.insert(job);
+
+            String target = SCOPE_ASSIGNMENT.equals(scope) ? "a.id = ?" : "a.course_code = ?";
+            int total = jdbcTemplate.update("""
+                    INSERT INTO grading_tasks (answer_id, status, retry_count, job_id, tenant)
+                    SELECT sa.id, 'WAITING', 0, ?, CONCAT(COALESCE(a.course_code, ''), '/', a.teacher_id)
+                    FROM student_answers sa
+                    JOIN assignments a ON a.id = sa.assignment_id
+                    WHERE a.teacher_id = ? AND %s
+                      AND (sa.grading_status IS NULL OR sa.grading_status NOT IN ('PENDING', 'RUNNING'))
+                    ORDER BY sa.id
+                    """.formatted(target), job.getId(), teacherId, SCOPE_ASSIGNMENT.equals(scope) ? assignmentId : courseCode);
+            if (total == 0) {
+                status.setRollbackOnly();
+                return null;
+            }
+            job.setTotal(total);
+            gradingJobMapper.updateById(job);
+            return job;
+        });
+        if (created != null) {
+            logger.info("已创建批量重判任务，jobId={}, teacherId={}, scope={}, assignmentId={}, courseCode={}, total={}",
+                    created.getId(), teacherId, scope, assignmentId, courseCode, created.getTotal());
+            feedLater();
+        }
+        return created;
+    }
+
+    /**
+     * 不存在或不属于该教师时返回 null。
+     */
+    public GradingJobDto find(Long jobId, Integer teacherId) {
+        ensureSchema();
+        GradingJobDto job = gradingJobMapper.selectById(jobId);
+        if (job == null || !job.getTeacherId().equals(teacherId)) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * 作废尚未提升的任务；返回被作废的答案数，任务已结束时返回 -1。
+     */
+    public int cancel(GradingJobDto job) {
+        Integer cancelled = transactionTemplate.execute(status -> {
+            int updated = jdbcTemplate.update(
+                    "UPDATE grading_jobs SET status = 'CANCELLING' WHERE id = ? AND status = 'RUNNING'", job.getId());
+            if (updated == 0) {
+                return -1;
+            }
+            return jdbcTemplate.update("""
+                    UPDATE grading_tasks SET status = 'CANCELLED', last_error = '批量重判已取消', completed_at = NOW()
+                    WHERE job_id = ? AND status = 'WAITING'
+                    """, job.getId());
+        });
+        if (cancelled != null && cancelled >= 0) {
+            buckets.remove(job.getId());
+            logger.info("已取消批量重判任务，jobId={}, cancelled={}", job.getId(), cancelled);
+            feedLater();
+        }
+        return cancelled == null ? -1 : cancelled;
+    }
+
+    /**
+     * 进度按 job_id 统计 grading_tasks：SUCCESS 为已完成，FAILED 为重试耗尽，WAITING/PENDING/RUNNING 为剩余。
+     * ETA 按开始以来的实际吞吐估算；尚无完成的答案时按 requests-per-minute 估算。
+     */
+    public Map<String, Object> progress(GradingJobDto job) {
+        Map<String, Long> counts = countByStatus(job.getId());
+        long done = counts.getOrDefault("SUCCESS", 0L);
+        long failed = counts.getOrDefault("FAILED", 0L);
+        long cancelled = counts.getOrDefault("CANCELLED", 0L);
+        long waiting = counts.getOrDefault("WAITING", 0L);
+        long inFlight = counts.getOrDefault("PENDING", 0L) + counts.getOrDefault("RUNNING", 0L);
+        long remaining = waiting + inFlight;
+        long total = job.getTotal() == null ? 0 : job.getTotal();
+
+        LocalDateTime end = job.getFinishedAt() != null ? job.getFinishedAt() : LocalDateTime.now();
+        long elapsedMs = job.getCreatedAt() == null ? 0 : Math.max(0, Duration.between(job.getCreatedAt(), end).toMillis());
+        long processed = done + failed;
+        double throughputPerMinute = elapsedMs == 0 ? 0 : processed * 60000.0 / elapsedMs;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", job.getId());
+        result.put("status", job.getStatus());
+        result.put("scope", job.getScope());
+        result.put("assignmentId", job.getAssignmentId());
+        result.put("courseCode", job.getCourseCode());
+        result.put("total", total);
+        result.put("done", done);
+        result.put("failed", failed);
+        result.put("cancelled", cancelled);
+        result.put("waiting", waiting);
+        result.put("inFlight", inFlight);
+        result.put("remaining", remaining);
+        result.put("progress", total == 0 ? 1.0 : Math.round((total - remaining) * 1000.0 / total) / 1000.0);
+        result.put("createdAt", job.getCreatedAt());
+        result.put("finishedAt", job.getFinishedAt());
+        result.put("elapsedSeconds", elapsedMs / 1000);
+        result.put("throughputPerMinute", Math.round(throughputPerMinute * 10) / 10.0);
+        Long etaSeconds = null;
+        if (remaining > 0) {
+            double ratePerMinute = processed > 0 ? throughputPerMinute : Math.max(1, requestsPerMinute);
+            etaSeconds = Math.round(remaining * 60.0 / ratePerMinute);
+        }
+        result.put("etaSeconds", etaSeconds);
+        return result;
+    }
+
+    private void feedLater() {
+        ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.execute(this::feedQuietly);
+        } catch (Exception ignored) {
+            // 停机中，交给下一轮
+        }
+    }
+
+    private void feedQuietly() {
+        try {
+            feed();
+            if (lastFeedFailed) {
+                logger.info("批量重判调度恢复正常");
+            }
+            lastFeedFailed = false;
+        } catch (Exception e) {
+            if (!lastFeedFailed) {
+                logger.warn("批量重判调度失败，error={}", e.getMessage());
+            }
+            lastFeedFailed = true;
+        }
+    }
+
+    private void feed() {
+        ensureSchema();
+        List<GradingJobDto> jobs = gradingJobMapper.selectList(new QueryWrapper<GradingJobDto>()
+                .in("status", "RUNNING", "CANCELLING")
+                .orderByAsc("id"));
+        buckets.keySet().removeIf(id -> jobs.stream().noneMatch(job -> job.getId().equals(id)));
+        for (GradingJobDto job : jobs) {
+            Map<String, Long> counts = countByStatus(job.getId());
+            long waiting = counts.getOrDefault("WAITING", 0L);
+            long inFlight = counts.getOrDefault("PENDING", 0L) + counts.getOrDefault("RUNNING", 0L);
+            if ("RUNNING".equals(job.getStatus()) && waiting > 0) {
+                int slots = (int) Math.min(waiting, maxInFlight - inFlight);
+                if (slots > 0) {
+                    RateBucket bucket = buckets.computeIfAbsent(job.getId(), id -> new RateBucket());
+                    int granted = bucket.acquire(slots);
+                    int promoted = granted > 0 ? promote(job.getId(), granted) : 0;
+                    bucket.refund(granted - promoted);
+                    waiting -= promoted;
+                    inFlight += promoted;
+                }
+            }
+            if (waiting + inFlight == 0) {
+                int finished = jdbcTemplate.update("""
+                        UPDATE grading_jobs
+                        SET status = IF(status = 'CANCELLING', 'CANCELLED', 'COMPLETED'), finished_at = NOW()
+                        WHERE id = ? AND status IN ('RUNNING', 'CANCELLING')
+                        """, job.getId());
+                if (finished > 0) {
+                    buckets.remove(job.getId());
+                    logger.info("批量重判任务结束，jobId={}, done={}, failed={}, cancelled={}", job.getId(),
+                            counts.getOrDefault("SUCCESS", 0L), counts.getOrDefault("FAILED", 0L),
+                            counts.getOrDefault("CANCELLED", 0L));
+                }
+            }
+        }
+    }
+
+    /**
+     * 把若干 WAITING 任务交给判题队列，同时清空对应答案的旧评分；SKIP LOCKED 使多个节点并发提升时互不重复。
+     * 与单份重判一样清空去重键，本次重新调用模型而不是复用旧评分。
+     */
+    private int promote(Long jobId, int limit) {
+        gradingDedupCache.ensureSchema();
+        Integer promoted = transactionTemplate.execute(status -> {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("""
+                    SELECT id, answer_id FROM grading_tasks
+                    WHERE job_id = ? AND status = 'WAITING'
+                    ORDER BY id
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED
+                    """, jobId, limit);
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            List<Object> taskIds = new ArrayList<>();
+            List<Object> answerIds = new ArrayList<>();
+            rows.forEach(row -> {
+                taskIds.add(((Number) row.get("id")).longValue());
+                answerIds.add(((Number) row.get("answer_id")).intValue());
+            });
+            jdbcTemplate.update("""
+                    UPDATE student_answers
+                    SET grading_status = 'PENDING', grading_error = NULL, ai_score = NULL, ai_analysis = NULL,
+                        evaluation_json = NULL, raw_response = NULL, grading_started_at = NULL, grading_completed_at = NULL,
+                        answer_hash = NULL, dedup_source_id = NULL
+                    WHERE id IN (%s)
+                    """.formatted(placeholders(answerIds.size())), answerIds.toArray());
+            jdbcTemplate.update("UPDATE grading_tasks SET status = 'PENDING' WHERE id IN (" + placeholders(taskIds.size()) + ")",
+                    taskIds.toArray());
+            return rows.size();
+        });
+        if (promoted != null && promoted > 0) {
+            gradingTaskQueue.wakeUp();
+        }
+        return promoted == null ? 0 : promoted;
+    }
+
+    private Map<String, Long> countByStatus(Long jobId) {
+        Map<String, Long> counts = new HashMap<>();
+        jdbcTemplate.query("SELECT status, COUNT(*) AS total FROM grading_tasks WHERE job_id = ? GROUP BY status",
+                rs -> {
+                    counts.put(rs.getString("status"), rs.getLong("total"));
+                }, jobId);
+        return counts;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    private void ensureSchema() {
+        if (schemaChecked.get()) {
+            return;
+        }
+        synchronized (schemaChecked) {
+            if (schemaChecked.get()) {
+                return;
+            }
+            jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS grading_jobs (
+                        id          BIGINT AUTO_INCREMENT PRIMARY KEY,
+                        teacher_id  INT                                 NOT NULL COMMENT '教师ID',
+                        scope       VARCHAR(20)                         NOT NULL COMMENT '范围：ASSIGNMENT/COURSE',
+                        assignment_id INT                               NULL COMMENT '作业ID（scope=ASSIGNMENT）',
+                        course_code VARCHAR(50)                         NULL COMMENT '课程代码（scope=COURSE）',
+                        status      VARCHAR(20)                         NOT NULL COMMENT 'RUNNING/CANCELLING/COMPLETED/CANCELLED',
+                        total       INT       DEFAULT 0                 NOT NULL COMMENT '纳入重判的答案数',
+                        created_at  TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL,
+                        updated_at  TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL ON UPDATE CURRENT_TIMESTAMP,
+                        finished_at TIMESTAMP                           NULL,
+                        KEY idx_grading_jobs_teacher (teacher_id, status),
+                        KEY idx_grading_jobs_status (status)
+                    ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
+                    """);
+            Integer column = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(1) FROM information_schema.COLUMNS " +
+                            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'grading_tasks' AND COLUMN_NAME = 'job_id'",
+                    Integer.class
+            );
+            if (column == null || column == 0) {
+                jdbcTemplate.execute("ALTER TABLE grading_tasks ADD COLUMN job_id BIGINT NULL COMMENT '所属批量重判任务'");
+                logger.info("已自动补齐 grading_tasks.job_id 字段");
+            }
+            Integer index = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(1) FROM information_schema.STATISTICS " +
+                            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'grading_tasks' AND INDEX_NAME = 'idx_grading_tasks_job'",
+                    Integer.class
+            );
+            if (index == null || index == 0) {
+                jdbcTemplate.execute("ALTER TABLE grading_tasks ADD KEY idx_grading_tasks_job (job_id, status)");
+                logger.info("已自动补齐 grading_tasks.idx_grading_tasks_job 索引");
+            }
+            schemaChecked.set(true);
+        }
+    }
+
+    /**
+     * 每个任务在本节点的提升配额：按 requests-per-minute 匀速补充，最多积攒 max-in-flight 个。
+     */
+    private final class RateBucket {
+        private double tokens = Math.max(1, maxInFlight);
+        private long refilledAt = System.currentTimeMillis();
+
+        synchronized int acquire(int wanted) {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(Math.max(1, maxInFlight), tokens + (now - refilledAt) * Math.max(1, requestsPerMinute) / 60000.0);
+            refilledAt = now;
+            int granted = (int) Math.min(wanted, Math.floor(tokens));
+            tokens -= granted;
+            return granted;
+        }
+
+        synchronized void refund(int count) {
+            if (count > 0) {
+                tokens += count;
+            }
+        }
+    }
+}
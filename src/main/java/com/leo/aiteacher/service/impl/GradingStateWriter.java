@@ -0,0 +1,224 @@
+package com.leo.aiteacher.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.leo.aiteacher.pojo.dto.GradingTaskDto;
+import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
+import com.leo.aiteacher.pojo.mapper.GradingTaskMapper;
+import com.leo.aiteacher.pojo.mapper.StudentAnswerMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 判题状态迁移的局部写入：每次迁移只更新变化的列，不再用 updateById 整行回写 student_answer、raw_response、
+ * evaluation_json 等大字段。首次尝试成功的一次判题只有三次写入：认领时的任务行、结果写入、任务终态。
+ * RUNNING 只体现在任务行（认领时写入）和内存推送中，答案行保持 PENDING 直到写入结果。
+ * 按操作统计写入行数和列数据字节数（按值估算，不含 SQL 文本），供运行指标对比。
+ */
+@Component
+public class GradingStateWriter {
+
+    @Autowired
+    private StudentAnswerMapper studentAnswerMapper;
+
+    @Autowired
+    private GradingTaskMapper gradingTaskMapper;
+
+    private final Map<String, WriteStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 判题结果：评分、分析、结构化结果与判题元信息一次写入。
+     */
+    public void writeResult(StudentAnswerDto answer) {
+        apply("answerResult", resultColumns(answer), answer.getId());
+    }
+
+    public void writeFailure(StudentAnswerDto answer) {
+        apply("answerFailure", failureColumns(answer), answer.getId());
+    }
+
+    /**
+     * 教师手工改分：同时清空去重键与来源，改过的评分不再作为其他相同答案的复用来源。
+     */
+    public void writeManualScore(StudentAnswerDto answer) {
+        apply("answerManual", manualScoreColumns(answer), answer.getId());
+    }
+
+    /**
+     * 教师重判：答案行回到 PENDING 并显式清空上次的结果列。updateById 会跳过值为 null 的字段，
+     * 不能靠把实体字段置空来清除；grading_completed_at 不清空时后续部分结果也写不进去。
+     */
+    public void resetForRegrade(Integer answerId) {
+        apply("answerReset", regradeColumns(), answerId);
+    }
+
+    /**
+     * 流式判题的部分结果，只在答案行仍为 PENDING 时写入；返回 false 表示结果已写入或答案已被重置。
+     */
+    public boolean writePartial(Integer answerId, String evaluationJson) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("evaluation_json", evaluationJson);
+        UpdateWrapper<StudentAnswerDto> wrapper = new UpdateWrapper<StudentAnswerDto>()
+                .eq("id", answerId)
+                .and(status -> status.isNull("grading_status").or().eq("grading_status", "PENDING"))
+                .isNull("grading_completed_at");
+        columns.forEach(wrapper::set);
+        int updated = studentAnswerMapper.update(null, wrapper);
+        record("answerPartial", updated, columns);
+        return updated > 0;
+    }
+
+    /**
+     * 任务进入终态并释放租约；以租约为条件，返回 false 表示租约已被回收。
+     */
+    public boolean finishTask(GradingTaskDto task) {
+        Map<String, Object> columns = taskTerminalColumns(task);
+        UpdateWrapper<GradingTaskDto> wrapper = new UpdateWrapper<GradingTaskDto>()
+                .eq("id", task.getId())
+                .eq("lease_owner", task.getLeaseOwner());
+        columns.forEach(wrapper::set);
+        int updated = gradingTaskMapper.update(null, wrapper);
+        record("taskTerminal", updated, columns);
+        return updated > 0;
+    }
+
+    /**
+     * 任务交还队列：置回 PENDING、记录 next_retry_at 并释放租约；next_retry_at 按数据库时间计算。
+     * deferred 表示本次未调用上游（熔断/排队超时），首次延后时记录 deferred_since。
+     */
+    public boolean requeueTask(GradingTaskDto task, long delayMs, boolean deferred) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("status", "PENDING");
+        columns.put("retry_count", task.getRetryCount());
+        columns.put("last_error", task.getLastError());
+        columns.put("lease_owner", null);
+        columns.put("lease_expires_at", null);
+        UpdateWrapper<GradingTaskDto> wrapper = new UpdateWrapper<GradingTaskDto>()
+                .eq("id", task.getId())
+                .eq("lease_owner", task.getLeaseOwner());
+        columns.forEach(wrapper::set);
+        wrapper.setSql("next_retry_at = TIMESTAMPADD(MICROSECOND, {0}, NOW())", Math.max(0L, delayMs) * 1000);
+        if (deferred) {
+            wrapper.setSql("deferred_since = COALESCE(deferred_since, NOW())");
+        }
+        int updated = gradingTaskMapper.update(null, wrapper);
+        record("taskRequeue", updated, columns);
+        return updated > 0;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        stats.forEach((operation, item) -> {
+            long writes = item.writes.sum();
+            result.put(operation, Map.of(
+                    "writes", writes,
+                    "rows", item.rows.sum(),
+                    "bytes", item.bytes.sum(),
+                    "avgBytes", writes == 0 ? 0 : item.bytes.sum() / writes));
+        });
+        return result;
+    }
+
+    static Map<String, Object> resultColumns(StudentAnswerDto answer) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("grading_status", answer.getGradingStatus());
+        columns.put("grading_error", null);
+        columns.put("ai_score", answer.getAiScore());
+        columns.put("ai_analysis", answer.getAiAnalysis());
+        columns.put("evaluation_json", answer.getEvaluationJson());
+        columns.put("raw_response", answer.getRawResponse());
+        columns.put("model_name", answer.getModelName());
+        columns.put("prompt_version", answer.getPromptVersion());
+        columns.put("answer_hash", answer.getAnswerHash());
+        columns.put("dedup_source_id", answer.getDedupSourceId());
+        columns.put("grading_started_at", answer.getGradingStartedAt());
+        columns.put("grading_completed_at", answer.getGradingCompletedAt());
+        return columns;
+    }
+
+    static Map<String, Object> manualScoreColumns(StudentAnswerDto answer) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("grading_status", answer.getGradingStatus());
+        columns.put("grading_error", null);
+        columns.put("ai_score", answer.getAiScore());
+        columns.put("ai_analysis", answer.getAiAnalysis());
+        columns.put("answer_hash", null);
+        columns.put("dedup_source_id", null);
+        columns.put("grading_completed_at", answer.getGradingCompletedAt());
+        return columns;
+    }
+
+    static Map<String, Object> regradeColumns() {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("grading_status", "PENDING");
+        columns.put("grading_error", null);
+        columns.put("ai_score", null);
+        columns.put("ai_analysis", null);
+        columns.put("evaluation_json", null);
+        columns.put("raw_response", null);
+        columns.put("answer_hash", null);
+        columns.put("dedup_source_id", null);
+        columns.put("grading_started_at", null);
+        columns.put("grading_completed_at", null);
+        return columns;
+    }
+
+    static Map<String, Object> failureColumns(StudentAnswerDto answer) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("grading_status", answer.getGradingStatus());
+        columns.put("grading_error", answer.getGradingError());
+        columns.put("grading_started_at", answer.getGradingStartedAt());
+        columns.put("grading_completed_at", answer.getGradingCompletedAt());
+        return columns;
+    }
+
+    static Map<String, Object> taskTerminalColumns(GradingTaskDto task) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("status", task.getStatus());
+        columns.put("retry_count", task.getRetryCount());
+        columns.put("last_error", task.getLastError());
+        columns.put("completed_at", task.getCompletedAt());
+        columns.put("next_retry_at", null);
+        columns.put("lease_owner", null);
+        columns.put("lease_expires_at", null);
+        return columns;
+    }
+
+    /**
+     * 列值的估算字节数：字符串按 UTF-8 长度，其余按文本表示长度，NULL 计 0。
+     */
+    static long payloadBytes(Map<String, ?> columns) {
+        long bytes = 0;
+        for (Object value : columns.values()) {
+            if (value != null) {
+                bytes += String.valueOf(value).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return bytes;
+    }
+
+    private void apply(String operation, Map<String, Object> columns, Integer answerId) {
+        UpdateWrapper<StudentAnswerDto> wrapper = new UpdateWrapper<StudentAnswerDto>().eq("id", answerId);
+        columns.forEach(wrapper::set);
+        record(operation, studentAnswerMapper.update(null, wrapper), columns);
+    }
+
+    private void record(String operation, int rows, Map<String, Object> columns) {
+        WriteStats item = stats.computeIfAbsent(operation, key -> new WriteStats());
+        item.writes.increment();
+        item.rows.add(rows);
+        item.bytes.add(payloadBytes(columns));
+    }
+
+    private static final class WriteStats {
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+}
@@ -0,0 +1,319 @@
+package com.leo.aiteacher.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.leo.aiteacher.pojo.dto.GradingTaskDto;
+import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
+import com.leo.aiteacher.pojo.mapper.GradingTaskMapper;
+import com.leo.aiteacher.pojo.mapper.StudentAnswerMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 判题状态的 SSE 推送：StudentGradingAsyncService 等写入判题状态后调用 publish，在内存中分发给订阅者，
+ * 订阅单份答案的连接在 SUCCESS/FAILED 后结束，订阅整个题目的教师连接持续接收全班的状态变化。
+ * 订阅时先发送一次数据库中的当前状态（snapshot）；答案可能在其他节点判题，本节点再按 reconcile-interval-ms
+ * 对所有被订阅的答案做一次批量查询补发变化，取代每个页面各自轮询。每个订阅者记录已发送的状态，同一状态不重复推送。
+ */
+@Component
+public class GradingStatusHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(GradingStatusHub.class);
+    private static final long EMITTER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final Set<String> TERMINAL_STATUSES = Set.of("SUCCESS", "FAILED");
+
+    @Value("${grading.stream.reconcile-interval-ms:5000}")
+    private long reconcileIntervalMs;
+
+    @Autowired
+    private StudentAnswerMapper studentAnswerMapper;
+
+    @Autowired
+    private GradingTaskMapper gradingTaskMapper;
+
+    private final Map<Integer, List<Subscriber>> answerSubscribers = new ConcurrentHashMap<>();
+    private final Map<Integer, List<Subscriber>> assignmentSubscribers = new ConcurrentHashMap<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong reconciled = new AtomicLong();
+    private volatile ScheduledExecutorService scheduler;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "grading-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000L, reconcileIntervalMs);
+        scheduler.scheduleWithFixedDelay(this::reconcileQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * 订阅单份答案；snapshot 为调用方从数据库读出的当前状态，已是终态时发送后立即结束。
+     */
+    public SseEmitter subscribeAnswer(Integer answerId, Map<String, Object> snapshot) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        String status = String.valueOf(snapshot.get("gradingStatus"));
+        if (!sendQuietly(emitter, "snapshot", snapshot)) {
+            return emitter;
+        }
+        if (TERMINAL_STATUSES.contains(status)) {
+            sendQuietly(emitter, "done", Map.of("gradingStatus", status));
+            emitter.complete();
+            return emitter;
+        }
+        Subscriber subscriber = new Subscriber(emitter);
+        subscriber.sent.put(answerId, fingerprint(status, snapshot.get("score"), snapshot.get("gradingCompletedAt")));
+        register(answerSubscribers, answerId, subscriber);
+        return emitter;
+    }
+
+    /**
+     * 订阅整个题目的判题状态（教师端），answers 为当前全部答案的状态。
+     */
+    public SseEmitter subscribeAssignment(Integer assignmentId, List<StudentAnswerDto> answers) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        List<Map<String, Object>> states = answers.stream().map(GradingStatusHub::event).toList();
+        if (!sendQuietly(emitter, "snapshot", Map.of("assignmentId", assignmentId, "answers", states))) {
+            return emitter;
+        }
+        Subscriber subscriber = new Subscriber(emitter);
+        answers.forEach(answer -> subscriber.sent.put(answer.getId(), fingerprint(answer)));
+        register(assignmentSubscribers, assignmentId, subscriber);
+        return emitter;
+    }
+
+    public SseEmitter rejected(Map<String, Object> error) {
+        SseEmitter emitter = new SseEmitter(0L);
+        sendQuietly(emitter, "error", error);
+        emitter.complete();
+        return emitter;
+    }
+
+    /**
+     * 判题状态写入数据库后调用；没有订阅者时只是一次 Map 查找。
+     */
+    public void publish(StudentAnswerDto answer) {
+        if (answer == null || answer.getId() == null) {
+            return;
+        }
+        List<Subscriber> byAnswer = answerSubscribers.get(answer.getId());
+        List<Subscriber> byAssignment = answer.getAssignmentId() == null ? null : assignmentSubscribers.get(answer.getAssignmentId());
+        if ((byAnswer == null || byAnswer.isEmpty()) && (byAssignment == null || byAssignment.isEmpty())) {
+            return;
+        }
+        published.incrementAndGet();
+        Map<String, Object> event = event(answer);
+        String fingerprint = fingerprint(answer);
+        boolean terminal = TERMINAL_STATUSES.contains(answer.getGradingStatus());
+        if (byAnswer != null) {
+            for (Subscriber subscriber : byAnswer) {
+                if (!subscriber.offer(answer.getId(), fingerprint, event)) {
+                    byAnswer.remove(subscriber);
+                } else if (terminal) {
+                    sendQuietly(subscriber.emitter, "done", Map.of("gradingStatus", answer.getGradingStatus()));
+                    subscriber.emitter.complete();
+                    byAnswer.remove(subscriber);
+                }
+            }
+        }
+        if (byAssignment != null) {
+            for (Subscriber subscriber : byAssignment) {
+                if (!subscriber.offer(answer.getId(), fingerprint, event)) {
+                    byAssignment.remove(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * 流式判题中已到达的小题评分（partial 事件），不参与状态去重，也不结束单份答案的订阅。
+     */
+    public void publishPartial(StudentAnswerDto answer, List<?> itemScores) {
+        List<Subscriber> byAnswer = answerSubscribers.get(answer.getId());
+        List<Subscriber> byAssignment = answer.getAssignmentId() == null ? null : assignmentSubscribers.get(answer.getAssignmentId());
+        if ((byAnswer == null || byAnswer.isEmpty()) && (byAssignment == null || byAssignment.isEmpty())) {
+            return;
+        }
+        Map<String, Object> event = new HashMap<>();
+        event.put("answerId", answer.getId());
+        event.put("assignmentId", answer.getAssignmentId());
+        event.put("studentId", answer.getStudentId());
+        event.put("itemScores", itemScores);
+        for (List<Subscriber> subscribers : Arrays.asList(byAnswer, byAssignment)) {
+            if (subscribers != null) {
+                subscribers.removeIf(subscriber -> !subscriber.send("partial", event));
+            }
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("answerSubscribers", answerSubscribers.values().stream().mapToInt(List::size).sum());
+        result.put("assignmentSubscribers", assignmentSubscribers.values().stream().mapToInt(List::size).sum());
+        result.put("published", published.get());
+        result.put("reconcileQueries", reconciled.get());
+        return result;
+    }
+
+    private void register(Map<Integer, List<Subscriber>> registry, Integer key, Subscriber subscriber) {
+        registry.compute(key, (id, current) -> {
+            List<Subscriber> subscribers = current == null ? new CopyOnWriteArrayList<>() : current;
+            subscribers.add(subscriber);
+            return subscribers;
+        });
+        Runnable remove = () -> registry.computeIfPresent(key, (id, current) -> {
+            current.remove(subscriber);
+            return current.isEmpty() ? null : current;
+        });
+        subscriber.emitter.onCompletion(remove);
+        subscriber.emitter.onTimeout(remove);
+        subscriber.emitter.onError(e -> remove.run());
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            logger.warn("判题状态补发查询失败，error={}", e.getMessage());
+        }
+    }
+
+    /**
+     * 其他节点完成的判题不会经过本节点的 publish，这里把所有被订阅答案的当前状态一次查出再走 publish 去重分发。
+     */
+    private void reconcile() {
+        answerSubscribers.keySet().forEach(key -> answerSubscribers.computeIfPresent(key, (id, current) -> current.isEmpty() ? null : current));
+        assignmentSubscribers.keySet().forEach(key -> assignmentSubscribers.computeIfPresent(key, (id, current) -> current.isEmpty() ? null : current));
+        List<Integer> answerIds = new ArrayList<>(answerSubscribers.keySet());
+        List<Integer> assignmentIds = new ArrayList<>(assignmentSubscribers.keySet());
+        if (answerIds.isEmpty() && assignmentIds.isEmpty()) {
+            return;
+        }
+        QueryWrapper<StudentAnswerDto> query = new QueryWrapper<StudentAnswerDto>()
+                .select("id", "assignment_id", "student_id", "grading_status", "ai_score", "grading_error", "grading_completed_at");
+        if (!answerIds.isEmpty() && !assignmentIds.isEmpty()) {
+            query.and(wrapper -> wrapper.in("id", answerIds).or().in("assignment_id", assignmentIds));
+        } else if (!answerIds.isEmpty()) {
+            query.in("id", answerIds);
+        } else {
+            query.in("assignment_id", assignmentIds);
+        }
+        reconciled.incrementAndGet();
+        List<StudentAnswerDto> answers = studentAnswerMapper.selectList(query);
+        markRunning(answers);
+        answers.forEach(this::publish);
+    }
+
+    /**
+     * 答案行在判题期间保持 PENDING，RUNNING 只写在任务行上；对 PENDING 的答案再查一次任务行补上 RUNNING。
+     */
+    private void markRunning(List<StudentAnswerDto> answers) {
+        List<Integer> pendingIds = answers.stream()
+                .filter(answer -> answer.getGradingStatus() == null || "PENDING".equals(answer.getGradingStatus()))
+                .map(StudentAnswerDto::getId)
+                .toList();
+        if (pendingIds.isEmpty()) {
+            return;
+        }
+        Set<Integer> running = gradingTaskMapper.selectList(new QueryWrapper<GradingTaskDto>()
+                        .select("answer_id")
+                        .in("answer_id", pendingIds)
+                        .eq("status", "RUNNING"))
+                .stream()
+                .map(GradingTaskDto::getAnswerId)
+                .collect(Collectors.toSet());
+        answers.stream()
+                .filter(answer -> running.contains(answer.getId()))
+                .forEach(answer -> answer.setGradingStatus("RUNNING"));
+    }
+
+    private static Map<String, Object> event(StudentAnswerDto answer) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("answerId", answer.getId());
+        event.put("assignmentId", answer.getAssignmentId());
+        event.put("studentId", answer.getStudentId());
+        event.put("gradingStatus", answer.getGradingStatus() == null ? "PENDING" : answer.getGradingStatus());
+        event.put("score", answer.getAiScore());
+        event.put("gradingError", answer.getGradingError());
+        event.put("gradingCompletedAt", answer.getGradingCompletedAt());
+        return event;
+    }
+
+    private static String fingerprint(StudentAnswerDto answer) {
+        return fingerprint(answer.getGradingStatus() == null ? "PENDING" : answer.getGradingStatus(),
+                answer.getAiScore(), answer.getGradingCompletedAt());
+    }
+
+    private static String fingerprint(String status, Object score, Object completedAt) {
+        return status + "|" + score + "|" + completedAt;
+    }
+
+    private static boolean sendQuietly(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        // 每份答案最后一次推送给该订阅者的状态
+        private final Map<Integer, String> sent = new ConcurrentHashMap<>();
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        synchronized boolean send(String event, Object data) {
+            return sendQuietly(emitter, event, data);
+        }
+
+        synchronized boolean offer(Integer answerId, String fingerprint, Map<String, Object> event) {
+            String previous = sent.get(answerId);
+            if (fingerprint.equals(previous)) {
+                return true;
+            }
+            // 本节点推送的 RUNNING 早于补发查询看到任务行，不回退为 PENDING
+            if (previous != null && previous.startsWith("RUNNING|") && fingerprint.startsWith("PENDING|")) {
+                return true;
+            }
+            if (!sendQuietly(emitter, "status", event)) {
+                return false;
+            }
+            sent.put(answerId, fingerprint);
+            return true;
+        }
+    }
+}
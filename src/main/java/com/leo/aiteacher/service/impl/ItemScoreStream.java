@@ -0,0 +1,119 @@
+package com.leo.aiteacher.service.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.leo.aiteacher.client.DeepSeekChatClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * 从流式返回的评分 JSON 中逐项取出 itemScores：增量内容按到达顺序喂给非阻塞 JSON 解析器，
+ * 根对象 itemScores 数组中的一项解析完整就回调，不等待整份结果。
+ * 根对象之前的 ```json 等前缀跳过，根对象结束后的内容忽略；解析出错后不再回调，以最终结果为准。
+ */
+final class ItemScoreStream implements DeepSeekChatClient.StreamListener {
+
+    private static final String ITEMS_FIELD = "itemScores";
+
+    private final ObjectMapper objectMapper;
+    private final Consumer<JsonNode> onItem;
+    private JsonParser parser;
+    private boolean started;
+    private boolean stopped;
+    private int depth;
+    private String rootField;
+    private boolean inItems;
+    private TokenBuffer item;
+
+    ItemScoreStream(ObjectMapper objectMapper, Consumer<JsonNode> onItem) {
+        this.objectMapper = objectMapper;
+        this.onItem = onItem;
+    }
+
+    @Override
+    public synchronized void onDelta(String delta) {
+        if (stopped || delta == null || delta.isEmpty()) {
+            return;
+        }
+        String text = delta;
+        if (!started) {
+            int start = text.indexOf('{');
+            if (start < 0) {
+                return;
+            }
+            text = text.substring(start);
+            started = true;
+        }
+        try {
+            if (parser == null) {
+                parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+            JsonToken token;
+            while (!stopped && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                handle(token);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 解析中断只影响部分结果，不能影响流式调用本身；已回调的小题保留，其余等待最终结果
+            stopped = true;
+        }
+    }
+
+    /**
+     * 上游重试时重新开始解析；已回调的小题由调用方按题号覆盖。
+     */
+    @Override
+    public synchronized void onReset() {
+        parser = null;
+        started = false;
+        stopped = false;
+        depth = 0;
+        rootField = null;
+        inItems = false;
+        item = null;
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        if (token.isStructStart()) {
+            depth++;
+            if (depth == 2 && token == JsonToken.START_ARRAY && ITEMS_FIELD.equals(rootField)) {
+                inItems = true;
+            } else if (inItems && depth == 3 && token == JsonToken.START_OBJECT) {
+                item = new TokenBuffer(objectMapper, false);
+                item.copyCurrentEvent(parser);
+            } else if (item != null) {
+                item.copyCurrentEvent(parser);
+            }
+            return;
+        }
+        if (token.isStructEnd()) {
+            if (item != null) {
+                item.copyCurrentEvent(parser);
+                if (depth == 3) {
+                    JsonNode node = objectMapper.readTree(item.asParser());
+                    item = null;
+                    onItem.accept(node);
+                }
+            } else if (inItems && depth == 2) {
+                inItems = false;
+            }
+            depth--;
+            if (depth == 0) {
+                stopped = true;
+            }
+            return;
+        }
+        if (token == JsonToken.FIELD_NAME && depth == 1) {
+            rootField = parser.currentName();
+        } else if (item != null) {
+            item.copyCurrentEvent(parser);
+        }
+    }
+}
@@ -38,6 +38,17 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
     private static final Pattern RAW_JSON_PATTERN = Pattern.compile("(?s)(\\{.*\\})");
     private static final List<String> POSITIVE_HINTS = List.of("掌握", "准确", "清晰", "较好", "良好", "优秀", "完整", "正确");
     private static final List<String> NEGATIVE_HINTS = List.of("薄弱", "不熟悉", "错误", "遗漏", "不足", "混淆", "欠缺", "偏差");
+    private static final String STUDENT_PROFILE_SCENE = "learning-analysis-student-profile";
+    private static final String STUDENT_PROFILE_SYSTEM_PROMPT = """
+            你是一名资深班主任，请基于学生本次作业题目与参考答案、学生原始作答、AI评分结果和学生画像，生成该学生本次作业的个性化学情分析。
+            输出必须是纯文本，不要JSON，不要markdown，不超过220字。
+            需要明确包含：学习现状判断、主要问题、下一步建议。
+            要求：
+            1) 结论必须紧扣本次作业题目、参考答案和学生实际作答；
+            2) 优先指出学生与参考答案相比存在的具体错误、遗漏、理解偏差或表达问题；
+            3) 建议要能直接执行，避免空泛鼓励；
+            4) 不要重复粘贴题目原文。
+            """;
 
     private final StudentAnswerMapper studentAnswerMapper;
     private final AssignmentMapper assignmentMapper;
@@ -345,7 +356,7 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
 
         List<Map<String, Object>> weakPoints = topWeakPoints(weakPointCounter, 8);
         String summary = buildSummary(totalStudents, evaluatedStudents, overview.get("masteryRate"), riskStudentCount, weakPoints);
-        Map<String, Object> aiRecommendation = generateAiRecommendation(courseCode, assignment, overview, distribution, weakPoints, studentProfiles);
+        Map<String, Object> aiRecommendation = generateAiRecommendation(teacherId, courseCode, assignment, overview, distribution, weakPoints, studentProfiles);
 
         persistAnalysisLog(teacherId, courseCode, assignmentId, overview, weakPoints, studentProfiles, summary);
 
@@ -597,6 +608,10 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
         }
         try {
             JsonNode root = objectMapper.readTree(evaluationJson);
+            // 判题中的部分结果不计入学情
+            if (root.path("partial").asBoolean(false)) {
+                return -1;
+            }
             if (root.has("totalScore") && root.has("maxScore")) {
                 double total = root.path("totalScore").asDouble(-1);
                 double max = root.path("maxScore").asDouble(-1);
@@ -645,7 +660,7 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
         try {
             JsonNode root = objectMapper.readTree(evaluationJson);
             JsonNode itemScores = root.path("itemScores");
-            if (!itemScores.isArray()) {
+            if (!itemScores.isArray() || root.path("partial").asBoolean(false)) {
                 return;
             }
             for (JsonNode item : itemScores) {
@@ -722,7 +737,8 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
                 totalStudents, evaluatedStudents, masteryRate, riskStudentCount, firstWeak);
     }
 
-    private Map<String, Object> generateAiRecommendation(String courseCode,
+    private Map<String, Object> generateAiRecommendation(Integer teacherId,
+                                                         String courseCode,
                                                          AssignmentDto assignment,
                                                          Map<String, Object> overview,
                                                          Map<String, Object> distribution,
@@ -780,7 +796,8 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
                     weakestStudents
             );
 
-            DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat("learning-analysis-course-recommendation", prompt);
+            DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat(new DeepSeekChatClient.ChatRequest(
+                    "learning-analysis-course-recommendation", null, prompt, null).withUsageTag(teacherId, courseCode, null));
             String jsonText = extractJson(chatResult.content());
             if (jsonText == null || jsonText.isBlank()) {
                 jsonText = extractJson(chatResult.rawResponse());
@@ -926,7 +943,7 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
                 continue;
             }
             try {
-                String aiAnalysis = generateStudentAiAnalysis(courseCode, assignment, profile);
+                String aiAnalysis = generateStudentAiAnalysis(teacherId, courseCode, assignment, profile);
                 profile.put("aiAnalysis", aiAnalysis);
                 StudentAssignmentAnalysisDto dto = new StudentAssignmentAnalysisDto();
                 dto.setTeacherId(teacherId);
@@ -947,7 +964,7 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
         }
     }
 
-    private String generateStudentAiAnalysis(String courseCode, AssignmentDto assignment, Map<String, Object> profile) {
+    private String generateStudentAiAnalysis(Integer teacherId, String courseCode, AssignmentDto assignment, Map<String, Object> profile) {
         try {
             String assignmentText = assignment == null
                     ? "未知作业"
@@ -957,35 +974,27 @@ public class LearningAnalysisServiceImpl implements LearningAnalysisService {
                 assignmentContent = assignment == null ? "暂无作业题目与参考答案" : assignment.getContent();
             }
             String weakPoints = objectMapper.writeValueAsString(profile.getOrDefault("weakKnowledgePoints", List.of()));
-            String prompt = """
-                    你是一名资深班主任，请基于学生本次作业题目与参考答案、学生原始作答、AI评分结果和学生画像，生成该学生本次作业的个性化学情分析。
-                    输出必须是纯文本，不要JSON，不要markdown，不超过220字。
-                    需要明确包含：学习现状判断、主要问题、下一步建议。
-                    要求：
-                    1) 结论必须紧扣本次作业题目、参考答案和学生实际作答；
-                    2) 优先指出学生与参考答案相比存在的具体错误、遗漏、理解偏差或表达问题；
-                    3) 建议要能直接执行，避免空泛鼓励；
-                    4) 不要重复粘贴题目原文。
-                    
+            // 课程、作业与参考答案对同一作业的所有学生相同，作为公共前缀放在最前（逐字节一致，便于命中提供方前缀缓存），学生数据放在后缀
+            String prefix = """
                     课程：%s
                     作业：%s
                     作业题目与参考答案：%s
+                    """.formatted(courseCode, assignmentText, abbreviateText(assignmentContent, 2200));
+            String prompt = prefix + """
                     学生本次作答：%s
                     AI评分：%s
                     AI批改分析：%s
                     识别出的薄弱知识点：%s
                     学生画像：%s
                     """.formatted(
-                    courseCode,
-                    assignmentText,
-                    abbreviateText(assignmentContent, 2200),
                     abbreviateText(stringValue(profile, "studentAnswer"), 2200),
                     stringValue(profile, "aiScore"),
                     abbreviateText(stringValue(profile, "aiAnalysis"), 1200),
                     weakPoints,
                     objectMapper.writeValueAsString(profile)
             );
-            DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat("learning-analysis-student-profile", prompt);
+            DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat(new DeepSeekChatClient.ChatRequest(
+                    STUDENT_PROFILE_SCENE, STUDENT_PROFILE_SYSTEM_PROMPT, prompt, null).withUsageTag(teacherId, courseCode, null));
             String content = chatResult.content() == null ? "" : chatResult.content().trim();
             if (!content.isEmpty()) {
                 return content;
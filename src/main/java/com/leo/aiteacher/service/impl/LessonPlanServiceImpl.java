@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leo.aiteacher.client.DeepSeekChatClient;
+import com.leo.aiteacher.client.LlmResilience;
 import com.leo.aiteacher.pojo.dto.ConversationDto;
 import com.leo.aiteacher.pojo.dto.GenerationTaskDto;
 import com.leo.aiteacher.pojo.dto.LessonPlanDto;
@@ -24,6 +25,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -38,6 +40,7 @@ public class LessonPlanServiceImpl implements LessonPlanService {
     private static final Logger logger = LoggerFactory.getLogger(LessonPlanServiceImpl.class);
     private static final int DEFAULT_DURATION_MINUTES = 45;
     private static final int DEFAULT_INTERACTION_COUNT = 3;
+    private static final String STREAM_MODULE = "lesson-plan";
 
     @Resource
     private LessonPlanTaskMapper lessonPlanTaskMapper;
@@ -61,6 +64,9 @@ public class LessonPlanServiceImpl implements LessonPlanService {
     @Resource
     private DeepSeekChatClient deepSeekChatClient;
 
+    @Resource
+    private TaskStreamHub taskStreamHub;
+
     @Resource
     private JdbcTemplate jdbcTemplate;
 
@@ -559,6 +565,10 @@ public class LessonPlanServiceImpl implements LessonPlanService {
         result.put("createdAt", task.getCreatedAt());
         result.put("updatedAt", task.getUpdatedAt());
         result.put("completedAt", task.getCompletedAt());
+        String partialContent = taskStreamHub.partialContent(TaskStreamHub.channel(STREAM_MODULE, task.getId()));
+        if (partialContent != null && !partialContent.isEmpty()) {
+            result.put("partialContent", partialContent);
+        }
 
         LessonPlanDto lessonPlan = lessonPlanMapper.selectOne(
                 new QueryWrapper<LessonPlanDto>().eq("task_id", task.getId()).last("LIMIT 1")
@@ -577,6 +587,15 @@ public class LessonPlanServiceImpl implements LessonPlanService {
         return result;
     }
 
+    @Override
+    public SseEmitter subscribeLessonPlanTask(Long taskId) {
+        Map<String, Object> status = getLessonPlanTaskStatus(taskId);
+        if (!Boolean.TRUE.equals(status.get("success"))) {
+            return taskStreamHub.rejected(status);
+        }
+        return taskStreamHub.subscribe(TaskStreamHub.channel(STREAM_MODULE, taskId), String.valueOf(status.get("status")));
+    }
+
     @Override
     public Map<String, Object> listLessonPlans(Integer page, Integer pageSize) {
         ensureLessonPlanTaskSchema();
@@ -711,12 +730,33 @@ public class LessonPlanServiceImpl implements LessonPlanService {
             return;
         }
 
+        String streamChannel = TaskStreamHub.channel(STREAM_MODULE, task.getId());
+        DeepSeekChatClient.ChatRequest chatRequest = new DeepSeekChatClient.ChatRequest(STREAM_MODULE, null, task.getRequestPrompt(), null)
+                .withUsageTag(task.getTeacherId(), null, task.getId());
+
         try {
             task.setStatus("RUNNING");
             task.setUpdatedAt(LocalDateTime.now());
             lessonPlanTaskMapper.updateById(task);
+        } catch (Exception ex) {
+            onTaskFailed(task, chatRequest, streamChannel, ex);
+            return;
+        }
 
-            DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat(task.getRequestPrompt());
+        // 等待模型输出期间不占用线程，结果回到 lessonPlanExecutor 上解析、落库
+        deepSeekChatClient.chatStreamAsync(chatRequest, taskStreamHub.listener(streamChannel))
+                .whenCompleteAsync((chatResult, error) -> {
+                    if (error != null) {
+                        onTaskFailed(task, chatRequest, streamChannel, LlmResilience.unwrap(error));
+                    } else {
+                        completeTask(task, chatRequest, streamChannel, chatResult);
+                    }
+                }, lessonPlanExecutor);
+    }
+
+    private void completeTask(LessonPlanTaskDto task, DeepSeekChatClient.ChatRequest chatRequest, String streamChannel,
+                              DeepSeekChatClient.ChatResult chatResult) {
+        try {
             String generatedContent = chatResult.content();
             ParsedLessonPlan parsed = parseAndValidate(generatedContent, task.getInteractionCount());
 
@@ -747,13 +787,23 @@ public class LessonPlanServiceImpl implements LessonPlanService {
             task.setCompletedAt(LocalDateTime.now());
             task.setUpdatedAt(LocalDateTime.now());
             lessonPlanTaskMapper.updateById(task);
+            taskStreamHub.close(streamChannel, task.getStatus());
         } catch (Exception ex) {
-            logger.error("教案任务执行失败, taskId={}", taskId, ex);
+            onTaskFailed(task, chatRequest, streamChannel, ex);
+        }
+    }
+
+    private void onTaskFailed(LessonPlanTaskDto task, DeepSeekChatClient.ChatRequest chatRequest, String streamChannel, Exception ex) {
+        logger.error("教案任务执行失败, taskId={}", task.getId(), ex);
+        try {
+            deepSeekChatClient.invalidate(chatRequest);
             task.setStatus("FAILED");
             task.setErrorMessage("生成失败: " + ex.getMessage());
             task.setCompletedAt(LocalDateTime.now());
             task.setUpdatedAt(LocalDateTime.now());
             lessonPlanTaskMapper.updateById(task);
+        } finally {
+            taskStreamHub.close(streamChannel, task.getStatus());
         }
     }
 
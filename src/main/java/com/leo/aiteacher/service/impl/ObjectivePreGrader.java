@@ -0,0 +1,248 @@
+package com.leo.aiteacher.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 客观题本地预判分：按 questionStructureJson 中的题型、分值和参考答案，对单选、多选、判断和填空题直接判分，
+ * 生成与 normalizeEvaluationRoot 相同结构的 itemScores 项。只在结果确定时判分：
+ * 作答无法切分到题号、选项无法识别、多选只选对一部分、填空与参考答案不一致等情况都留给模型判。
+ */
+final class ObjectivePreGrader {
+
+    private static final Set<String> TRUE_WORDS = Set.of("对", "正确", "√", "✓", "✔", "t", "true", "是", "yes", "y");
+    private static final Set<String> FALSE_WORDS = Set.of("错", "错误", "×", "✗", "✘", "x", "f", "false", "否", "no", "n");
+    private static final Pattern OPTION_LETTERS = Pattern.compile("^[a-h]+$");
+    private static final Pattern REFERENCE_LETTERS = Pattern.compile("^\\s*([A-Ha-h](?:\\s*[,，、;；\\s]?\\s*[A-Ha-h])*)\\s*(?:[.．、:：)）]|$)");
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s,，、;；/|]+");
+    private static final Pattern EDGE_PUNCTUATION = Pattern.compile("^[,，、;；:：。.!！?？]+|[,，、;；:：。.!！?？]+$");
+    private static final Pattern ANSWER_PREFIX = Pattern.compile("^(?:答案|答|选)[:：]?");
+
+    private ObjectivePreGrader() {
+    }
+
+    /**
+     * 结构缺失、无法解析或没有任何可本地判定的题目时返回 null。
+     */
+    static Result grade(ObjectMapper objectMapper, String questionStructureJson, String studentAnswer) {
+        if (questionStructureJson == null || questionStructureJson.isBlank() || studentAnswer == null) {
+            return null;
+        }
+        JsonNode questions;
+        try {
+            questions = objectMapper.readTree(questionStructureJson);
+        } catch (Exception e) {
+            return null;
+        }
+        if (questions.isObject()) {
+            questions = questions.path("questions");
+        }
+        if (!questions.isArray() || questions.isEmpty()) {
+            return null;
+        }
+
+        List<String> segments = splitAnswers(studentAnswer, questions.size());
+        List<ObjectNode> graded = new ArrayList<>();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < questions.size(); i++) {
+            int questionNo = i + 1;
+            ObjectNode item = gradeQuestion(objectMapper, questions.get(i), questionNo, segments.get(i));
+            if (item == null) {
+                pending.add(questionNo);
+            } else {
+                graded.add(item);
+            }
+        }
+        return graded.isEmpty() ? null : new Result(graded, pending);
+    }
+
+    private static ObjectNode gradeQuestion(ObjectMapper objectMapper, JsonNode question, int questionNo, String answer) {
+        double fullScore = question.path("score").asDouble(0);
+        String reference = question.path("answer").asText("").trim();
+        if (answer == null || fullScore <= 0 || reference.isEmpty()) {
+            return null;
+        }
+        String type = question.path("type").asText("");
+        String expected;
+        String actual;
+        Boolean correct;
+        if (type.contains("判断")) {
+            Boolean referenceValue = truthValue(reference);
+            Boolean answerValue = truthValue(answer);
+            if (referenceValue == null || answerValue == null) {
+                return null;
+            }
+            correct = referenceValue.equals(answerValue);
+            expected = referenceValue ? "对" : "错";
+            actual = answerValue ? "对" : "错";
+        } else if (type.contains("选")) {
+            Set<Character> referenceLetters = referenceLetters(reference);
+            Set<Character> answerLetters = answerLetters(answer);
+            if (referenceLetters == null || answerLetters == null) {
+                return null;
+            }
+            boolean multiple = type.contains("多选") || type.contains("不定项") || referenceLetters.size() > 1;
+            if (multiple && !answerLetters.equals(referenceLetters) && referenceLetters.containsAll(answerLetters)) {
+                // 少选是否给部分分因题而异，交给模型按题目说明判断
+                return null;
+            }
+            correct = answerLetters.equals(referenceLetters);
+            expected = letters(referenceLetters);
+            actual = letters(answerLetters);
+        } else if (type.contains("填空")) {
+            String normalizedReference = normalizeBlank(reference);
+            String normalizedAnswer = normalizeBlank(answer);
+            if (normalizedAnswer.isEmpty() || !normalizedAnswer.equals(normalizedReference)) {
+                // 等价写法（如 0.5 与 1/2）无法穷举，不一致的填空交给模型
+                return null;
+            }
+            correct = true;
+            expected = reference;
+            actual = answer.trim();
+        } else {
+            return null;
+        }
+
+        double score = correct ? fullScore : 0;
+        ObjectNode item = objectMapper.createObjectNode();
+        item.put("questionNo", questionNo);
+        item.put("score", score);
+        item.put("fullScore", fullScore);
+        item.put("scoreDisplay", formatScore(score) + "/" + formatScore(fullScore));
+        item.put("comment", correct
+                ? "与参考答案一致（" + expected + "），系统自动判分"
+                : "参考答案：" + expected + "，作答：" + actual + "，系统自动判分");
+        item.put("isCorrect", correct);
+        JsonNode knowledgePoints = question.path("knowledgePoints");
+        item.put("knowledgePoint", knowledgePoints.isArray() && !knowledgePoints.isEmpty()
+                ? knowledgePoints.get(0).asText("") : question.path("knowledgePoint").asText(""));
+        return item;
+    }
+
+    /**
+     * 按题号切分作答，识别 "1." "1、" "1)" "(1)" "第1题" 等标记；必须按 1..n 顺序出现，找不到的题号对应 null。
+     * 只有一道题时整段作答即为该题答案。
+     */
+    static List<String> splitAnswers(String studentAnswer, int questionCount) {
+        List<String> segments = new ArrayList<>();
+        if (questionCount == 1) {
+            segments.add(studentAnswer);
+            return segments;
+        }
+        int[] starts = new int[questionCount];
+        int[] ends = new int[questionCount];
+        int position = 0;
+        for (int i = 0; i < questionCount; i++) {
+            starts[i] = -1;
+            Matcher matcher = marker(i + 1).matcher(studentAnswer);
+            if (matcher.find(position)) {
+                starts[i] = matcher.end();
+                ends[i] = matcher.start();
+                position = matcher.end();
+            }
+        }
+        for (int i = 0; i < questionCount; i++) {
+            if (starts[i] < 0) {
+                segments.add(null);
+                continue;
+            }
+            int end = studentAnswer.length();
+            for (int j = i + 1; j < questionCount; j++) {
+                if (starts[j] >= 0) {
+                    end = ends[j];
+                    break;
+                }
+            }
+            segments.add(studentAnswer.substring(starts[i], end).trim());
+        }
+        return segments;
+    }
+
+    private static Pattern marker(int questionNo) {
+        return Pattern.compile("(?:^|(?<=[\\s;；,，。]))(?:第\\s*" + questionNo + "\\s*题\\s*[.．、:：)）]?|[(（]\\s*"
+                + questionNo + "\\s*[)）]|" + questionNo + "\\s*[.．、:：)）](?!\\d))");
+    }
+
+    private static Boolean truthValue(String text) {
+        String normalized = stripPrefix(normalize(text));
+        if (TRUE_WORDS.contains(normalized)) {
+            return true;
+        }
+        if (FALSE_WORDS.contains(normalized)) {
+            return false;
+        }
+        return null;
+    }
+
+    private static Set<Character> referenceLetters(String reference) {
+        Matcher matcher = REFERENCE_LETTERS.matcher(Normalizer.normalize(reference, Normalizer.Form.NFKC));
+        if (!matcher.find()) {
+            return null;
+        }
+        return answerLetters(matcher.group(1));
+    }
+
+    private static Set<Character> answerLetters(String answer) {
+        String normalized = stripPrefix(SEPARATORS.matcher(normalize(answer)).replaceAll(""));
+        if (!OPTION_LETTERS.matcher(normalized).matches()) {
+            return null;
+        }
+        Set<Character> letters = new TreeSet<>();
+        for (char letter : normalized.toCharArray()) {
+            letters.add(Character.toUpperCase(letter));
+        }
+        return letters;
+    }
+
+    private static String normalizeBlank(String text) {
+        return stripPrefix(SEPARATORS.matcher(normalize(text)).replaceAll(";"))
+                .replaceAll("^;+|;+$", "");
+    }
+
+    private static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).trim().toLowerCase(Locale.ROOT);
+        return EDGE_PUNCTUATION.matcher(normalized).replaceAll("").trim();
+    }
+
+    private static String stripPrefix(String text) {
+        return ANSWER_PREFIX.matcher(text).replaceFirst("").trim();
+    }
+
+    private static String letters(Set<Character> letters) {
+        StringBuilder text = new StringBuilder();
+        letters.forEach(text::append);
+        return text.toString();
+    }
+
+    private static String formatScore(double value) {
+        return Math.rint(value) == value ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    /**
+     * graded 为已本地判分的题目（questionNo 从 1 开始），pending 为需要模型判分的题号。
+     */
+    record Result(List<ObjectNode> graded, List<Integer> pending) {
+
+        boolean complete() {
+            return pending.isEmpty();
+        }
+
+        double score() {
+            return graded.stream().mapToDouble(item -> item.path("score").asDouble()).sum();
+        }
+
+        double fullScore() {
+            return graded.stream().mapToDouble(item -> item.path("fullScore").asDouble()).sum();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leo.aiteacher.client.DeepSeekChatClient;
 import com.leo.aiteacher.pojo.dto.ConversationDto;
 import com.leo.aiteacher.pojo.dto.GenerationTaskDto;
 import com.leo.aiteacher.pojo.dto.LessonPlanTaskDto;
@@ -19,10 +20,9 @@ import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -32,15 +32,8 @@ import java.util.concurrent.Executor;
 public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTaskService {
 
     private static final Logger logger = LoggerFactory.getLogger(QuestionGenerationTaskServiceImpl.class);
-
-    @Value("${deepseek.api.url}")
-    private String deepSeekApiUrl;
-
-    @Value("${deepseek.api.key}")
-    private String apiKey;
-
-    @Value("${deepseek.api.model:deepseek-v4-flash}")
-    private String modelName;
+    private static final String STREAM_MODULE = "question-generation";
+    private static final String SYSTEM_PROMPT = "你是专业教学题目生成助手。必须严格输出JSON，不要输出JSON以外内容。";
 
     @Resource
     private GenerationTaskMapper generationTaskMapper;
@@ -58,6 +51,12 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
     @Qualifier("questionGenerationExecutor")
     private Executor questionGenerationExecutor;
 
+    @Resource
+    private DeepSeekChatClient deepSeekChatClient;
+
+    @Resource
+    private TaskStreamHub taskStreamHub;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Override
@@ -259,6 +258,10 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
         result.put("createdAt", task.getCreatedAt());
         result.put("updatedAt", task.getUpdatedAt());
         result.put("completedAt", task.getCompletedAt());
+        String partialContent = taskStreamHub.partialContent(TaskStreamHub.channel(STREAM_MODULE, task.getId()));
+        if (partialContent != null && !partialContent.isEmpty()) {
+            result.put("partialContent", partialContent);
+        }
 
         if (task.getResultJson() != null && !task.getResultJson().isBlank()) {
             try {
@@ -272,6 +275,15 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
         return result;
     }
 
+    @Override
+    public SseEmitter subscribeGenerationTask(Long taskId) {
+        Map<String, Object> status = getGenerationTaskStatus(taskId);
+        if (!Boolean.TRUE.equals(status.get("success"))) {
+            return taskStreamHub.rejected(status);
+        }
+        return taskStreamHub.subscribe(TaskStreamHub.channel(STREAM_MODULE, taskId), String.valueOf(status.get("status")));
+    }
+
     private void executeTask(Long taskId, Integer conversationId, String title) {
         GenerationTaskDto task = generationTaskMapper.selectById(taskId);
         if (task == null) {
@@ -283,8 +295,9 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
             task.setUpdatedAt(LocalDateTime.now());
             generationTaskMapper.updateById(task);
 
-            String rawContent = callDeepSeek(task.getRequestPrompt());
-            task.setRawResponse(rawContent);
+            DeepSeekChatClient.ChatResult chatResult = callDeepSeek(task);
+            String rawContent = chatResult.content();
+            task.setRawResponse(chatResult.rawResponse());
 
             JsonNode structured = parseStructuredContent(rawContent);
             List<Map<String, Object>> issues = qualityCheck(structured);
@@ -311,7 +324,7 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
                 message.setQuestion(title);
                 message.setAnswer(buildMarkdownFromQuestions(structured.path("questions")));
                 message.setUserPrompt(task.getRequestPrompt());
-                message.setRawModelResponse(rawContent);
+                message.setRawModelResponse(chatResult.rawResponse());
                 message.setStructuredStatus(task.getStatus());
                 messageMapper.insert(message);
             }
@@ -322,50 +335,26 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
 
         } catch (Exception e) {
             logger.error("生成任务执行失败, taskId={}", taskId, e);
+            deepSeekChatClient.invalidate(buildChatRequest(task.getRequestPrompt()));
             task.setStatus("FAILED");
             task.setQualityPassed(false);
             task.setErrorMessage("生成失败: " + e.getMessage());
             task.setCompletedAt(LocalDateTime.now());
             task.setUpdatedAt(LocalDateTime.now());
             generationTaskMapper.updateById(task);
+        } finally {
+            taskStreamHub.close(TaskStreamHub.channel(STREAM_MODULE, taskId), task.getStatus());
         }
     }
 
-    private String callDeepSeek(String prompt) throws Exception {
-        if (apiKey == null || apiKey.isBlank()) {
-            throw new RuntimeException("API密钥未配置");
-        }
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + apiKey);
-
-        List<Map<String, String>> messages = new ArrayList<>();
-        messages.add(Map.of(
-                "role", "system",
-                "content", "你是专业教学题目生成助手。必须严格输出JSON，不要输出JSON以外内容。"
-        ));
-        messages.add(Map.of(
-                "role", "user",
-                "content", prompt
-        ));
-
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", modelName);
-        requestBody.put("messages", messages);
-        requestBody.put("temperature", 0.3);
-
-        RestTemplate restTemplate = new RestTemplate();
-        ResponseEntity<String> response = restTemplate.exchange(
-                resolveChatCompletionsUrl(deepSeekApiUrl),
-                HttpMethod.POST,
-                new HttpEntity<>(requestBody, headers),
-                String.class
-        );
+    private DeepSeekChatClient.ChatResult callDeepSeek(GenerationTaskDto task) throws Exception {
+        return deepSeekChatClient.chatStream(
+                buildChatRequest(task.getRequestPrompt()).withUsageTag(task.getTeacherId(), null, task.getId()),
+                taskStreamHub.listener(TaskStreamHub.channel(STREAM_MODULE, task.getId())));
+    }
 
-        JsonNode rootNode = objectMapper.readTree(response.getBody());
-        JsonNode contentNode = rootNode.path("choices").get(0).path("message").path("content");
-        return contentNode.isMissingNode() || contentNode.isNull() ? "" : contentNode.asText("");
+    private DeepSeekChatClient.ChatRequest buildChatRequest(String prompt) {
+        return new DeepSeekChatClient.ChatRequest(STREAM_MODULE, SYSTEM_PROMPT, prompt, 0.3);
     }
 
     private JsonNode parseStructuredContent(String rawContent) throws Exception {
@@ -394,17 +383,6 @@ public class QuestionGenerationTaskServiceImpl implements QuestionGenerationTask
         return node;
     }
 
-    private String resolveChatCompletionsUrl(String configuredUrl) {
-        String normalized = configuredUrl == null ? "" : configuredUrl.trim();
-        if (normalized.endsWith("/chat/completions") || normalized.endsWith("/v1/chat/completions")) {
-            return normalized;
-        }
-        if (normalized.endsWith("/")) {
-            normalized = normalized.substring(0, normalized.length() - 1);
-        }
-        return normalized + "/chat/completions";
-    }
-
     private List<Map<String, Object>> qualityCheck(JsonNode node) {
         List<Map<String, Object>> issues = new ArrayList<>();
         JsonNode questions = node.path("questions");
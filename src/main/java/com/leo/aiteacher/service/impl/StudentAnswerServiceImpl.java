@@ -1,7 +1,10 @@
 package com.leo.aiteacher.service.impl;
 
+import com.leo.aiteacher.client.LlmGovernor;
+import com.leo.aiteacher.client.LlmResilience;
 import com.leo.aiteacher.client.QwenVisionClient;
 import com.leo.aiteacher.pojo.dto.AssignmentDto;
+import com.leo.aiteacher.pojo.dto.GradingJobDto;
 import com.leo.aiteacher.pojo.dto.GradingTaskDto;
 import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
 import com.leo.aiteacher.pojo.mapper.AssignmentMapper;
@@ -12,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -33,7 +37,22 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
     private GradingTaskMapper gradingTaskMapper;
 
     @Autowired
-    private StudentGradingAsyncService studentGradingAsyncService;
+    private GradingTaskQueue gradingTaskQueue;
+
+    @Autowired
+    private GradingDedupCache gradingDedupCache;
+
+    @Autowired
+    private GradingJobService gradingJobService;
+
+    @Autowired
+    private GradingAdmission gradingAdmission;
+
+    @Autowired
+    private GradingStatusHub gradingStatusHub;
+
+    @Autowired
+    private GradingStateWriter gradingStateWriter;
     
     @Override
     public Map<String, Object> submitAnswer(Integer assignmentId, Integer studentId, String studentAnswer, String imageDataUrl) {
@@ -68,15 +87,13 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             studentAnswerDto.setAiAnalysis(null);
             studentAnswerDto.setGradingStatus("PENDING");
             studentAnswerDto.setGradingError(null);
+            // 关闭去重时也写入 answer_hash：它同时标记“非重判”，判题时据此决定是否绕过响应缓存
+            gradingDedupCache.ensureSchema();
+            studentAnswerDto.setAnswerHash(gradingDedupCache.answerHash(
+                    assignment, preparedAnswer.finalAnswer(), StudentGradingAsyncService.PROMPT_VERSION));
             studentAnswerMapper.insert(studentAnswerDto);
 
-            GradingTaskDto gradingTask = new GradingTaskDto();
-            gradingTask.setAnswerId(studentAnswerDto.getId());
-            gradingTask.setStatus("PENDING");
-            gradingTask.setRetryCount(0);
-            gradingTaskMapper.insert(gradingTask);
-
-            studentGradingAsyncService.processGradingTask(gradingTask.getId());
+            GradingTaskDto gradingTask = gradingTaskQueue.enqueue(studentAnswerDto.getId(), assignment);
 
             logger.info("学生答案提交成功并进入异步判题，assignmentId={}, studentId={}, answerId={}, taskId={}",
                     assignmentId, studentId, studentAnswerDto.getId(), gradingTask.getId());
@@ -86,6 +103,7 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             result.put("answerId", studentAnswerDto.getId());
             result.put("gradingTaskId", gradingTask.getId());
             result.put("gradingStatus", "PENDING");
+            putWaitEstimate(result, gradingTask.getId(), "PENDING");
             result.put("ocrApplied", preparedAnswer.ocrApplied());
             if (preparedAnswer.detectedText() != null && !preparedAnswer.detectedText().isBlank()) {
                 result.put("ocrText", preparedAnswer.detectedText());
@@ -103,6 +121,11 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
     @Override
     public Map<String, Object> recognizeAnswerImage(String imageDataUrl) {
         Map<String, Object> result = new HashMap<>();
+        Long retryAfterSeconds = gradingAdmission.ocrRetryAfterSeconds();
+        if (retryAfterSeconds != null) {
+            logger.warn("图片识别服务繁忙，拒绝预识别请求，retryAfterSeconds={}", retryAfterSeconds);
+            return overloaded(result, retryAfterSeconds);
+        }
         try {
             String ocrText = extractTextFromImage(imageDataUrl);
             if (ocrText == null || ocrText.isBlank()) {
@@ -115,6 +138,12 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             result.put("message", "图片识别成功，请复核后再提交");
             return result;
         } catch (Exception e) {
+            Exception cause = LlmResilience.unwrap(e);
+            if (cause instanceof LlmResilience.CircuitOpenException || cause instanceof LlmGovernor.ThrottledException) {
+                logger.warn("图片识别服务繁忙，预识别失败，error={}", cause.getMessage());
+                Long retryAfter = gradingAdmission.ocrRetryAfterSeconds();
+                return overloaded(result, retryAfter == null ? 1L : retryAfter);
+            }
             logger.error("图片预识别失败", e);
             result.put("success", false);
             result.put("message", "图片识别失败: " + e.getMessage());
@@ -144,6 +173,15 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             result.put("evaluationJson", answer.getEvaluationJson());
             result.put("submittedAt", answer.getSubmittedAt());
             result.put("gradingCompletedAt", answer.getGradingCompletedAt());
+            String gradingStatus = answer.getGradingStatus() == null ? "PENDING" : answer.getGradingStatus();
+            if ("PENDING".equals(gradingStatus) || "RUNNING".equals(gradingStatus)) {
+                result.put("partialEvaluation", answer.getEvaluationJson() != null);
+                GradingTaskDto task = activeTask(answer.getId());
+                if (task != null && "RUNNING".equals(task.getStatus())) {
+                    result.put("gradingStatus", "RUNNING");
+                }
+                putWaitEstimate(result, task == null ? null : task.getId(), task == null ? gradingStatus : task.getStatus());
+            }
             return result;
         } catch (Exception e) {
             logger.error("查询答题状态失败，assignmentId={}, studentId={}", assignmentId, studentId, e);
@@ -226,6 +264,20 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
         
         return studentAnswerMapper.getAssignmentStudentAnswers(assignmentId);
     }
+
+    @Override
+    public Map<String, Object> getAssignmentDedupStats(Integer assignmentId, Integer teacherId) {
+        Map<String, Object> result = new HashMap<>();
+        AssignmentDto assignment = assignmentMapper.selectById(assignmentId);
+        if (assignment == null || !assignment.getTeacherId().equals(teacherId)) {
+            result.put("success", false);
+            result.put("message", "无权限查看该题目");
+            return result;
+        }
+        result.putAll(gradingDedupCache.stats(assignmentId));
+        result.put("success", true);
+        return result;
+    }
     
     @Override
     public Map<String, Object> updateStudentAnswer(Integer answerId, Integer teacherId, String score, String analysis) {
@@ -254,7 +306,11 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             answer.setGradingStatus("SUCCESS");
             answer.setGradingError(null);
             answer.setGradingCompletedAt(LocalDateTime.now());
-            studentAnswerMapper.updateById(answer);
+            answer.setAnswerHash(null);
+            answer.setDedupSourceId(null);
+            gradingDedupCache.ensureSchema();
+            gradingStateWriter.writeManualScore(answer);
+            gradingStatusHub.publish(answer);
             
             logger.info("教师更新学生答案成功，answerId={}, teacherId={}", answerId, teacherId);
             
@@ -297,15 +353,14 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             answer.setRawResponse(null);
             answer.setGradingStartedAt(null);
             answer.setGradingCompletedAt(null);
-            studentAnswerMapper.updateById(answer);
+            answer.setAnswerHash(null);
+            answer.setDedupSourceId(null);
+            // 清空去重键表示本次重新调用模型：不复用其他相同答案的评分，也绕过判题场景的响应缓存
+            gradingDedupCache.ensureSchema();
+            gradingStateWriter.resetForRegrade(answerId);
+            gradingStatusHub.publish(answer);
 
-            GradingTaskDto gradingTask = new GradingTaskDto();
-            gradingTask.setAnswerId(answerId);
-            gradingTask.setStatus("PENDING");
-            gradingTask.setRetryCount(0);
-            gradingTaskMapper.insert(gradingTask);
-
-            studentGradingAsyncService.processGradingTask(gradingTask.getId());
+            GradingTaskDto gradingTask = gradingTaskQueue.enqueue(answerId, assignment);
 
             result.put("success", true);
             result.put("message", "已触发重新判题");
@@ -348,6 +403,14 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             result.put("gradingError", answer.getGradingError());
             result.put("evaluationJson", answer.getEvaluationJson());
             result.put("gradingCompletedAt", answer.getGradingCompletedAt());
+            if ("PENDING".equals(result.get("gradingStatus"))) {
+                // 判题中的 evaluation_json 为已到达的小题（partial=true），最终结果写入时整体替换
+                result.put("partialEvaluation", answer.getEvaluationJson() != null);
+                GradingTaskDto task = activeTask(answer.getId());
+                if (task != null && "RUNNING".equals(task.getStatus())) {
+                    result.put("gradingStatus", "RUNNING");
+                }
+            }
             return result;
         } catch (Exception e) {
             logger.error("教师查询判题状态失败，answerId={}, teacherId={}", answerId, teacherId, e);
@@ -356,6 +419,164 @@ public class StudentAnswerServiceImpl implements StudentAnswerService {
             return result;
         }
     }
+
+    @Override
+    public Map<String, Object> startAssignmentRegradeJob(Integer assignmentId, Integer teacherId) {
+        AssignmentDto assignment = assignmentMapper.selectById(assignmentId);
+        if (assignment == null || !assignment.getTeacherId().equals(teacherId)) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "无权限重判该题目");
+            return result;
+        }
+        return startRegradeJob(teacherId, GradingJobService.SCOPE_ASSIGNMENT, assignmentId, null);
+    }
+
+    @Override
+    public Map<String, Object> startCourseRegradeJob(String courseCode, Integer teacherId) {
+        AssignmentDto assignment = assignmentMapper.selectOne(
+            new com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<AssignmentDto>()
+                .eq("course_code", courseCode)
+                .eq("teacher_id", teacherId)
+                .last("LIMIT 1")
+        );
+        if (assignment == null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "无权限重判该课程");
+            return result;
+        }
+        return startRegradeJob(teacherId, GradingJobService.SCOPE_COURSE, null, courseCode);
+    }
+
+    @Override
+    public Map<String, Object> getRegradeJob(Long jobId, Integer teacherId) {
+        Map<String, Object> result = new HashMap<>();
+        GradingJobDto job = gradingJobService.find(jobId, teacherId);
+        if (job == null) {
+            result.put("success", false);
+            result.put("message", "重判任务不存在");
+            return result;
+        }
+        result.putAll(gradingJobService.progress(job));
+        result.put("success", true);
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> cancelRegradeJob(Long jobId, Integer teacherId) {
+        Map<String, Object> result = new HashMap<>();
+        GradingJobDto job = gradingJobService.find(jobId, teacherId);
+        if (job == null) {
+            result.put("success", false);
+            result.put("message", "重判任务不存在");
+            return result;
+        }
+        int cancelled = gradingJobService.cancel(job);
+        if (cancelled < 0) {
+            result.put("success", false);
+            result.put("message", "重判任务已结束，无法取消");
+            return result;
+        }
+        result.putAll(gradingJobService.progress(gradingJobService.find(jobId, teacherId)));
+        result.put("success", true);
+        result.put("message", "已取消，正在判题的答案完成后结束");
+        return result;
+    }
+
+    private Map<String, Object> startRegradeJob(Integer teacherId, String scope, Integer assignmentId, String courseCode) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            GradingJobDto active = gradingJobService.findActive(teacherId, scope, assignmentId, courseCode);
+            if (active != null) {
+                result.put("success", false);
+                result.put("message", "已有进行中的批量重判任务");
+                result.put("jobId", active.getId());
+                return result;
+            }
+            GradingJobDto job = gradingJobService.create(teacherId, scope, assignmentId, courseCode);
+            if (job == null) {
+                result.put("success", false);
+                result.put("message", "没有可重判的答案");
+                return result;
+            }
+            result.putAll(gradingJobService.progress(gradingJobService.find(job.getId(), teacherId)));
+            result.put("success", true);
+            result.put("message", "已创建批量重判任务");
+            return result;
+        } catch (Exception e) {
+            logger.error("创建批量重判任务失败，teacherId={}, scope={}, assignmentId={}, courseCode={}",
+                    teacherId, scope, assignmentId, courseCode, e);
+            result.put("success", false);
+            result.put("message", "创建批量重判任务失败: " + e.getMessage());
+            return result;
+        }
+    }
+
+    @Override
+    public SseEmitter subscribeAnswerStatus(Integer assignmentId, Integer studentId) {
+        Map<String, Object> status = getAnswerStatus(assignmentId, studentId);
+        if (!Boolean.TRUE.equals(status.get("success"))) {
+            return gradingStatusHub.rejected(status);
+        }
+        return gradingStatusHub.subscribeAnswer((Integer) status.get("answerId"), status);
+    }
+
+    @Override
+    public SseEmitter subscribeAnswerStatusForTeacher(Integer answerId, Integer teacherId) {
+        Map<String, Object> status = getAnswerStatusForTeacher(answerId, teacherId);
+        if (!Boolean.TRUE.equals(status.get("success"))) {
+            return gradingStatusHub.rejected(status);
+        }
+        return gradingStatusHub.subscribeAnswer(answerId, status);
+    }
+
+    @Override
+    public SseEmitter subscribeAssignmentStatus(Integer assignmentId, Integer teacherId) {
+        AssignmentDto assignment = assignmentMapper.selectById(assignmentId);
+        if (assignment == null || !assignment.getTeacherId().equals(teacherId)) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "无权限查看该题目");
+            return gradingStatusHub.rejected(result);
+        }
+        List<StudentAnswerDto> answers = studentAnswerMapper.selectList(
+            new com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<StudentAnswerDto>()
+                .select("id", "assignment_id", "student_id", "grading_status", "ai_score", "grading_error", "grading_completed_at")
+                .eq("assignment_id", assignmentId)
+        );
+        return gradingStatusHub.subscribeAssignment(assignmentId, answers);
+    }
+
+    /**
+     * 答案行在判题期间保持 PENDING，是否已开始判题以任务行为准。
+     */
+    private GradingTaskDto activeTask(Integer answerId) {
+        return gradingTaskMapper.selectOne(new com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<GradingTaskDto>()
+                .eq("answer_id", answerId)
+                .in("status", "PENDING", "RUNNING")
+                .orderByDesc("id")
+                .last("LIMIT 1"));
+    }
+
+    /**
+     * 估算失败不影响提交与查询，只是不返回预计等待时间。
+     */
+    private void putWaitEstimate(Map<String, Object> result, Long taskId, String taskStatus) {
+        try {
+            result.putAll(gradingAdmission.estimate(taskId, taskStatus));
+        } catch (Exception e) {
+            logger.warn("估算判题等待时间失败，taskId={}, error={}", taskId, e.getMessage());
+        }
+    }
+
+    private Map<String, Object> overloaded(Map<String, Object> result, long retryAfterSeconds) {
+        result.put("success", false);
+        result.put("overloaded", true);
+        result.put("retryAfterSeconds", retryAfterSeconds);
+        result.put("message", "图片识别服务繁忙，请约" + retryAfterSeconds + "秒后重试，或直接输入文字答案提交");
+        return result;
+    }
     
     @Autowired
     private QwenVisionClient qwenVisionClient;
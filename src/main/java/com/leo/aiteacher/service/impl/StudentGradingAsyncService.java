@@ -3,31 +3,47 @@ package com.leo.aiteacher.service.impl;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leo.aiteacher.client.DeepSeekChatClient;
+import com.leo.aiteacher.client.LlmResilience;
 import com.leo.aiteacher.pojo.dto.AssignmentDto;
 import com.leo.aiteacher.pojo.dto.GradingTaskDto;
 import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
 import com.leo.aiteacher.pojo.mapper.AssignmentMapper;
-import com.leo.aiteacher.pojo.mapper.GradingTaskMapper;
 import com.leo.aiteacher.pojo.mapper.StudentAnswerMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 @Service
 public class StudentGradingAsyncService {
 
     private static final Logger logger = LoggerFactory.getLogger(StudentGradingAsyncService.class);
-    private static final String PROMPT_VERSION = "v3.0-week3-structured-json";
+    static final String PROMPT_VERSION = "v3.1-week3-structured-json";
+    private static final String GRADING_SCENE = "grading";
+    private static final String GRADING_BATCH_SCENE = "grading-batch";
+    private static final String OBJECTIVE_MODEL_NAME = "local-objective";
     private static final Pattern JSON_BLOCK_PATTERN = Pattern.compile("(?s)```json\\s*(\\{.*?\\})\\s*```");
     private static final Pattern RAW_JSON_PATTERN = Pattern.compile("(?s)(\\{.*\\})");
+    // 评分说明与输出格式对所有作业相同，放在 system 消息中作为最稳定的前缀
+    private static final String GRADING_SYSTEM_PROMPT = gradingSystemPrompt();
+    private static final String GRADING_BATCH_SYSTEM_PROMPT = batchGradingSystemPrompt();
 
     @Value("${grading.task.max-attempts:3}")
     private int maxAttempts;
@@ -35,8 +51,32 @@ public class StudentGradingAsyncService {
     @Value("${grading.task.retry-delay-ms:1500}")
     private long retryDelayMs;
 
-    @Autowired
-    private GradingTaskMapper gradingTaskMapper;
+    @Value("${grading.task.max-defer-ms:1800000}")
+    private long maxDeferMs;
+
+    @Value("${grading.objective.enabled:true}")
+    private boolean objectiveEnabled;
+
+    @Value("${grading.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${grading.batch.max-size:8}")
+    private int batchMaxSize;
+
+    @Value("${grading.batch.linger-ms:1000}")
+    private long batchLingerMs;
+
+    @Value("${grading.partial.enabled:true}")
+    private boolean partialEnabled;
+
+    @Value("${grading.partial.min-interval-ms:1000}")
+    private long partialMinIntervalMs;
+
+    // 本节点处理中的任务，进入终态时完成对应 future，队列据此释放并发名额
+    private final Map<Long, CompletableFuture<Void>> runningTasks = new ConcurrentHashMap<>();
+
+    // 按作业攒批：同一作业在 linger-ms 内到达的答案合并为一次调用，达到 max-size 立即发出
+    private final Map<Integer, List<BatchItem>> pendingBatches = new HashMap<>();
 
     @Autowired
     private StudentAnswerMapper studentAnswerMapper;
@@ -47,117 +87,497 @@ public class StudentGradingAsyncService {
     @Autowired
     private DeepSeekChatClient deepSeekChatClient;
 
+    @Autowired
+    private GradingDedupCache gradingDedupCache;
+
+    @Autowired
+    private GradingStatusHub gradingStatusHub;
+
+    @Autowired
+    private GradingStateWriter gradingStateWriter;
+
+    @Autowired
+    @Qualifier("gradingExecutor")
+    private Executor gradingExecutor;
+
     @Autowired
     private ObjectMapper objectMapper;
 
-    @Async("gradingExecutor")
-    public void processGradingTask(Long gradingTaskId) {
-        GradingTaskDto task = gradingTaskMapper.selectById(gradingTaskId);
-        if (task == null) {
-            logger.warn("判题任务不存在，taskId={}", gradingTaskId);
-            return;
-        }
+    /**
+     * 处理一个已由 GradingTaskQueue 认领（持有租约）的任务，返回的 future 在任务进入终态或交还队列等待重试时完成。
+     * 对任务行的写入都带租约条件，租约被其他节点回收后本节点的迟到结果不会覆盖对方。
+     * 认领时已置为 RUNNING，这里不再写任务行；retry_count 记录已失败的次数，本次为第 retry_count + 1 次尝试。
+     */
+    public CompletableFuture<Void> processClaimedTask(GradingTaskDto task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        runningTasks.put(task.getId(), done);
 
         StudentAnswerDto answer = studentAnswerMapper.selectById(task.getAnswerId());
         if (answer == null) {
             markTaskFailed(task, "答案记录不存在");
-            return;
+            return done;
         }
 
         AssignmentDto assignment = assignmentMapper.selectById(answer.getAssignmentId());
         if (assignment == null) {
             markTaskFailed(task, "题目记录不存在");
             markAnswerFailed(answer, "题目记录不存在");
-            return;
+            return done;
         }
 
-        task.setStatus("RUNNING");
-        task.setLastError(null);
-        task.setNextRetryAt(null);
-        gradingTaskMapper.updateById(task);
-
+        int attempt = nextAttempt(task);
+        // 提交时写入的 answer_hash 表示允许复用；重判时被清空，本次重新调用模型（同时绕过响应缓存），判完后回填
+        boolean fresh = answer.getAnswerHash() == null;
+        boolean dedupAllowed = attempt == 1 && gradingDedupCache.isEnabled() && !fresh;
+        answer.setAnswerHash(gradingDedupCache.answerHash(assignment, answer.getStudentAnswer(), PROMPT_VERSION));
+        // RUNNING 已由认领写入任务行，答案行不再单独写一次，开始时间随结果一并写入
         answer.setGradingStatus("RUNNING");
         answer.setGradingError(null);
-        answer.setGradingStartedAt(LocalDateTime.now());
-        studentAnswerMapper.updateById(answer);
+        if (attempt == 1 || answer.getGradingStartedAt() == null) {
+            answer.setGradingStartedAt(LocalDateTime.now());
+        }
+        if (attempt == 1) {
+            gradingStatusHub.publish(answer);
+        }
+
+        ObjectivePreGrader.Result objective = preGrade(assignment, answer);
+        if (objective != null && objective.complete()) {
+            try {
+                completeGrading(task, answer, objectiveEvaluation(objective), OBJECTIVE_MODEL_NAME, null, attempt);
+                logger.info("客观题本地判分完成，未调用模型，taskId={}, answerId={}", task.getId(), answer.getId());
+                return done;
+            } catch (Exception e) {
+                logger.warn("客观题本地判分失败，改由模型判分，taskId={}, error={}", task.getId(), e.getMessage());
+            }
+        }
+
+        if (fresh) {
+            // 题目与答案未变时 Prompt 逐字节相同，不清掉缓存的判题结果，重判会原样拿回上次的输出
+            deepSeekChatClient.invalidate(gradingRequest(task, answer, assignment, objective));
+        }
+        if (dedupAllowed) {
+            if (reuseGraded(task, answer)) {
+                return done;
+            }
+            CompletableFuture<Boolean> leader = gradingDedupCache.joinInFlight(answer.getAnswerHash(), task.getId(), assignment.getId());
+            if (leader != null) {
+                logger.info("相同答案正在判题，等待共享结果，taskId={}, answerId={}", task.getId(), answer.getId());
+                leader.whenCompleteAsync((graded, error) -> {
+                    if (!Boolean.TRUE.equals(graded) || !reuseGraded(task, answer)) {
+                        startGrading(task, answer, assignment, attempt);
+                    }
+                }, gradingExecutor);
+                return done;
+            }
+        }
+        startGrading(task, answer, assignment, attempt);
+        return done;
+    }
+
+    private void startGrading(GradingTaskDto task, StudentAnswerDto answer, AssignmentDto assignment, int attempt) {
+        if (attempt == 1 && batchEnabled && batchMaxSize > 1) {
+            enqueueBatch(new BatchItem(task, answer, assignment));
+        } else {
+            gradeAttempt(task, answer, assignment, attempt);
+        }
+    }
+
+    /**
+     * 复用同一作业下已判完的相同答案，成功时任务直接完成；查询失败按未命中处理。
+     */
+    private boolean reuseGraded(GradingTaskDto task, StudentAnswerDto answer) {
+        StudentAnswerDto source;
+        try {
+            source = gradingDedupCache.findGraded(answer.getAssignmentId(), answer.getAnswerHash(), answer.getId());
+        } catch (Exception e) {
+            logger.warn("查询相同答案判题结果失败，answerId={}, error={}", answer.getId(), e.getMessage());
+            return false;
+        }
+        if (source == null) {
+            return false;
+        }
+        answer.setAiScore(source.getAiScore());
+        answer.setAiAnalysis(source.getAiAnalysis());
+        answer.setEvaluationJson(source.getEvaluationJson());
+        answer.setModelName(source.getModelName());
+        answer.setPromptVersion(PROMPT_VERSION);
+        answer.setDedupSourceId(source.getDedupSourceId() != null ? source.getDedupSourceId() : source.getId());
+        answer.setGradingStatus("SUCCESS");
+        answer.setGradingError(null);
+        answer.setGradingCompletedAt(LocalDateTime.now());
+        gradingStateWriter.writeResult(answer);
+        gradingStatusHub.publish(answer);
+
+        task.setStatus("SUCCESS");
+        task.setRetryCount(0);
+        task.setLastError(null);
+        task.setCompletedAt(LocalDateTime.now());
+        finishTask(task);
+        finish(task);
 
-        Exception lastException = null;
+        logger.info("复用相同答案的判题结果，taskId={}, answerId={}, sourceAnswerId={}",
+                task.getId(), answer.getId(), answer.getDedupSourceId());
+        return true;
+    }
+
+    private void enqueueBatch(BatchItem item) {
+        Integer assignmentId = item.assignment().getId();
+        List<BatchItem> ready = null;
+        synchronized (pendingBatches) {
+            List<BatchItem> batch = pendingBatches.computeIfAbsent(assignmentId, id -> new ArrayList<>());
+            batch.add(item);
+            if (batch.size() == 1) {
+                CompletableFuture.delayedExecutor(Math.max(0L, batchLingerMs), TimeUnit.MILLISECONDS, gradingExecutor)
+                        .execute(() -> flushBatch(assignmentId, batch));
+            }
+            if (batch.size() >= batchMaxSize) {
+                pendingBatches.remove(assignmentId);
+                ready = batch;
+            }
+        }
+        if (ready != null) {
+            gradeBatch(ready);
+        }
+    }
+
+    private void flushBatch(Integer assignmentId, List<BatchItem> batch) {
+        synchronized (pendingBatches) {
+            // 已因攒满提前发出的批次不再重复发送
+            if (pendingBatches.get(assignmentId) != batch) {
+                return;
+            }
+            pendingBatches.remove(assignmentId);
+        }
+        gradeBatch(batch);
+    }
+
+    /**
+     * 一次调用批改同一作业的多份答案，题目、分值结构、参考答案只发送一次。
+     * 逐份校验模型输出，缺失或不合格的答案退回单份判题；整批调用失败见 onBatchFailure。
+     */
+    private void gradeBatch(List<BatchItem> items) {
+        if (items.size() == 1) {
+            BatchItem item = items.get(0);
+            gradeAttempt(item.task(), item.answer(), item.assignment(), 1);
+            return;
+        }
+        AssignmentDto assignment = items.get(0).assignment();
+        DeepSeekChatClient.ChatRequest chatRequest = new DeepSeekChatClient.ChatRequest(
+                        GRADING_BATCH_SCENE, GRADING_BATCH_SYSTEM_PROMPT, constructBatchPromptForEvaluation(assignment, items), null)
+                .withUsageTag(assignment.getTeacherId(), assignment.getCourseCode(), null);
+        logger.info("批量判题开始，assignmentId={}, answers={}", assignment.getId(), items.size());
+        deepSeekChatClient.chatAsync(chatRequest).whenCompleteAsync((chatResult, error) -> {
+            if (error != null) {
+                onBatchFailure(items, LlmResilience.unwrap(error));
+                return;
+            }
+            List<BatchItem> fallback = new ArrayList<>();
+            try {
+                fallback.addAll(onBatchResult(items, chatResult));
+            } catch (Exception e) {
+                logger.error("批量判题结果处理失败，assignmentId={}", assignment.getId(), e);
+                items.stream()
+                        .filter(item -> !"SUCCESS".equals(item.task().getStatus()))
+                        .forEach(fallback::add);
+            }
+            if (!fallback.isEmpty()) {
+                logger.warn("批量判题部分未通过校验，退回单份判题，assignmentId={}, fallback={}/{}",
+                        assignment.getId(), fallback.size(), items.size());
+                fallback.forEach(item -> gradeAttempt(item.task(), item.answer(), item.assignment(), nextAttempt(item.task())));
+            }
+        }, gradingExecutor);
+    }
+
+    /**
+     * 整批调用失败时不立即拆成单份调用（上游已在出错，N 份各自带重试只会放大压力），与单份判题的失败处理一致：
+     * 熔断/排队超时未发出请求的，不计尝试次数按剩余时间延后；5xx、超时等计一次尝试，退避后交还队列，
+     * 重新认领时走单份判题（仍受熔断与调用闸门约束），尝试次数用尽则标记失败。
+     */
+    private void onBatchFailure(List<BatchItem> items, Exception failure) {
         int attempts = Math.max(1, maxAttempts);
+        long deferMs = LlmResilience.deferMs(failure);
+        logger.warn("批量判题调用失败，answers={}, deferMs={}, error={}", items.size(), deferMs, failure.getMessage());
+        for (BatchItem item : items) {
+            GradingTaskDto task = item.task();
+            task.setLastError(failure.getMessage());
+            if (deferMs >= 0 && withinDeferWindow(task)) {
+                task.setRetryCount(0);
+                requeueForRetry(task, Math.max(retryDelayMs, deferMs), true);
+            } else if (attempts > 1) {
+                task.setRetryCount(1);
+                requeueForRetry(task, retryDelayMs, false);
+            } else {
+                markTaskFailed(task, failure.getMessage());
+                markAnswerFailed(item.answer(), failure.getMessage());
+            }
+        }
+    }
 
-        for (int attempt = 1; attempt <= attempts; attempt++) {
+    private List<BatchItem> onBatchResult(List<BatchItem> items, DeepSeekChatClient.ChatResult chatResult) throws Exception {
+        Map<Integer, JsonNode> results = parseBatchResults(chatResult.content());
+        List<BatchItem> fallback = new ArrayList<>();
+        for (BatchItem item : items) {
+            JsonNode node = results.get(item.answer().getId());
+            EvaluationResult evaluation = node == null ? null : parseBatchItem(node, item.assignment());
+            if (evaluation == null) {
+                fallback.add(item);
+                continue;
+            }
+            completeGrading(item.task(), item.answer(), mergeObjective(evaluation, preGrade(item.assignment(), item.answer())),
+                    chatResult.modelName(), chatResult.rawResponse(), 1);
+        }
+        return fallback;
+    }
+
+    /**
+     * 按 answerId 拆分批量结果；编号重复的结果无法确定归属，全部丢弃。
+     */
+    private Map<Integer, JsonNode> parseBatchResults(String content) {
+        Map<Integer, JsonNode> results = new HashMap<>();
+        try {
+            String jsonText = extractJson(content);
+            if (jsonText == null || jsonText.isBlank()) {
+                return results;
+            }
+            JsonNode items = objectMapper.readTree(jsonText).path("results");
+            Set<Integer> duplicated = new HashSet<>();
+            for (JsonNode item : items) {
+                if (!item.path("answerId").canConvertToInt()) {
+                    continue;
+                }
+                int answerId = item.path("answerId").asInt();
+                if (results.put(answerId, item) != null) {
+                    duplicated.add(answerId);
+                }
+            }
+            duplicated.forEach(results::remove);
+        } catch (Exception e) {
+            logger.warn("批量判题结果无法解析: {}", e.getMessage());
+        }
+        return results;
+    }
+
+    private EvaluationResult parseBatchItem(JsonNode node, AssignmentDto assignment) throws Exception {
+        EvaluationResult evaluation = parseStructuredEvaluation(node);
+        if (evaluation == null) {
+            return null;
+        }
+        double maxScore = parseNumericField(node, "maxScore");
+        if (assignment.getTotalScore() != null && maxScore > 0 && Math.abs(maxScore - assignment.getTotalScore()) > 1e-6) {
+            return null;
+        }
+        return evaluation;
+    }
+
+    /**
+     * 发起一次判题调用，结果回到 gradingExecutor 上处理；失败且可重试时任务交还队列，等待期间不占用线程和租约。
+     * 开启 grading.partial.enabled 时以流式调用，每道小题的评分一到达就写入 evaluation_json 供教师先行查看。
+     * 流式调用不走对冲，判题场景在 deepseek.api.hedge.scenes 中时保留对冲、不输出部分结果。
+     */
+    private void gradeAttempt(GradingTaskDto task, StudentAnswerDto answer, AssignmentDto assignment, int attempt) {
+        ObjectivePreGrader.Result objective = preGrade(assignment, answer);
+        DeepSeekChatClient.ChatRequest chatRequest = gradingRequest(task, answer, assignment, objective);
+        CompletableFuture<DeepSeekChatClient.ChatResult> call = partialEnabled && !deepSeekChatClient.hedgingEnabled(GRADING_SCENE)
+                ? deepSeekChatClient.chatStreamAsync(chatRequest,
+                        new ItemScoreStream(objectMapper, new PartialEvaluation(answer, objective)::add))
+                : deepSeekChatClient.chatAsync(chatRequest);
+        call.whenCompleteAsync((chatResult, error) -> {
+            try {
+                onGradingResult(task, answer, assignment, objective, attempt, chatRequest, chatResult, error);
+            } catch (Exception e) {
+                logger.error("异步判题结果处理失败，taskId={}, answerId={}", task.getId(), answer.getId(), e);
+                markTaskFailed(task, e.getMessage());
+                markAnswerFailed(answer, e.getMessage());
+            }
+        }, gradingExecutor);
+    }
+
+    private DeepSeekChatClient.ChatRequest gradingRequest(GradingTaskDto task, StudentAnswerDto answer, AssignmentDto assignment,
+                                                          ObjectivePreGrader.Result objective) {
+        return new DeepSeekChatClient.ChatRequest(
+                        GRADING_SCENE, GRADING_SYSTEM_PROMPT, constructPromptForEvaluation(assignment, answer.getStudentAnswer(), objective), null)
+                .withUsageTag(assignment.getTeacherId(), assignment.getCourseCode(), task.getId());
+    }
+
+    private void onGradingResult(GradingTaskDto task, StudentAnswerDto answer, AssignmentDto assignment,
+                                 ObjectivePreGrader.Result objective, int attempt,
+                                 DeepSeekChatClient.ChatRequest chatRequest, DeepSeekChatClient.ChatResult chatResult,
+                                 Throwable error) {
+        int attempts = Math.max(1, maxAttempts);
+        Exception failure = error == null ? null : LlmResilience.unwrap(error);
+        if (failure == null) {
             try {
-                String promptMessage = constructPromptForEvaluation(assignment, answer.getStudentAnswer());
-                DeepSeekChatClient.ChatResult chatResult = deepSeekChatClient.chat(promptMessage);
-                EvaluationResult evaluation = parseEvaluation(chatResult.content());
-
-                answer.setAiScore(evaluation.score());
-                answer.setAiAnalysis(evaluation.analysis());
-                answer.setGradingStatus("SUCCESS");
-                answer.setGradingError(null);
-                answer.setModelName(chatResult.modelName());
-                answer.setPromptVersion(PROMPT_VERSION);
-                answer.setRawResponse(chatResult.rawResponse());
-                answer.setEvaluationJson(evaluation.evaluationJson());
-                answer.setGradingCompletedAt(LocalDateTime.now());
-                studentAnswerMapper.updateById(answer);
-
-                task.setStatus("SUCCESS");
-                task.setRetryCount(attempt - 1);
-                task.setLastError(null);
-                task.setCompletedAt(LocalDateTime.now());
-                gradingTaskMapper.updateById(task);
-
-                logger.info("异步判题完成，taskId={}, answerId={}, attempt={}", task.getId(), answer.getId(), attempt);
+                completeGrading(task, answer, mergeObjective(parseEvaluation(chatResult.content()), objective),
+                        chatResult.modelName(), chatResult.rawResponse(), attempt);
                 return;
             } catch (Exception e) {
-                lastException = e;
-                task.setRetryCount(attempt);
-                task.setLastError(e.getMessage());
-                if (attempt < attempts) {
-                    task.setStatus("PENDING");
-                    task.setNextRetryAt(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(retryDelayMs)));
-                    gradingTaskMapper.updateById(task);
-                    sleepRetry(retryDelayMs);
-                    task.setStatus("RUNNING");
-                    task.setNextRetryAt(null);
-                    gradingTaskMapper.updateById(task);
-                }
-                logger.warn("异步判题失败，taskId={}, answerId={}, attempt={}/{}", task.getId(), answer.getId(), attempt, attempts);
+                failure = e;
             }
         }
 
-        String finalError = lastException == null ? "判题失败" : lastException.getMessage();
-        markTaskFailed(task, finalError);
-        markAnswerFailed(answer, finalError);
+        // 熔断中或本地排队超时并未发出请求：不计入尝试次数，按熔断剩余时间/排队上限延后，上游恢复后继续判
+        long deferMs = LlmResilience.deferMs(failure);
+        if (deferMs >= 0 && withinDeferWindow(task)) {
+            task.setRetryCount(attempt - 1);
+            task.setLastError(failure.getMessage());
+            logger.warn("判题调用未发出，延后重新排期，taskId={}, answerId={}, deferMs={}", task.getId(), answer.getId(), deferMs);
+            requeueForRetry(task, Math.max(retryDelayMs, deferMs), true);
+            return;
+        }
+
+        deepSeekChatClient.invalidate(chatRequest);
+        task.setRetryCount(attempt);
+        task.setLastError(failure.getMessage());
+        logger.warn("异步判题失败，taskId={}, answerId={}, attempt={}/{}", task.getId(), answer.getId(), attempt, attempts);
+        // 只有模型输出无法解析时重新生成（每次一个上游调用）；5xx、超时等已在客户端退避重试过，
+        // 不再整体重试，避免任务重试 × 客户端重试放大上游调用
+        boolean outputRejected = chatResult != null;
+        if (outputRejected && attempt < attempts) {
+            requeueForRetry(task, retryDelayMs << Math.min(attempt - 1, 10), false);
+            return;
+        }
+
+        markTaskFailed(task, failure.getMessage());
+        markAnswerFailed(answer, failure.getMessage());
+    }
+
+    private void completeGrading(GradingTaskDto task, StudentAnswerDto answer, EvaluationResult evaluation,
+                                 String modelName, String rawResponse, int attempt) {
+        answer.setAiScore(evaluation.score());
+        answer.setAiAnalysis(evaluation.analysis());
+        answer.setGradingStatus("SUCCESS");
+        answer.setGradingError(null);
+        answer.setModelName(modelName);
+        answer.setPromptVersion(PROMPT_VERSION);
+        answer.setRawResponse(rawResponse);
+        answer.setEvaluationJson(evaluation.evaluationJson());
+        answer.setGradingCompletedAt(LocalDateTime.now());
+        gradingStateWriter.writeResult(answer);
+        gradingStatusHub.publish(answer);
+
+        task.setStatus("SUCCESS");
+        task.setRetryCount(attempt - 1);
+        task.setLastError(null);
+        task.setCompletedAt(LocalDateTime.now());
+        finishTask(task);
+        finish(task);
+
+        logger.info("异步判题完成，taskId={}, answerId={}, attempt={}", task.getId(), answer.getId(), attempt);
     }
 
     private void markTaskFailed(GradingTaskDto task, String error) {
         task.setStatus("FAILED");
         task.setLastError(error);
         task.setCompletedAt(LocalDateTime.now());
-        gradingTaskMapper.updateById(task);
+        finishTask(task);
+        finish(task);
+    }
+
+    /**
+     * 任务交还队列：一次写入置回 PENDING、记录 next_retry_at 并释放租约，到期后由任意节点重新认领。
+     * next_retry_at 按数据库时间计算，与认领条件使用同一时钟。
+     */
+    private void requeueForRetry(GradingTaskDto task, long delayMs, boolean deferred) {
+        if (!gradingStateWriter.requeueTask(task, delayMs, deferred)) {
+            logger.warn("判题任务租约已失效，放弃重试排期，taskId={}", task.getId());
+        } else {
+            logger.info("判题任务已交还队列等待重试，taskId={}, retryCount={}, delayMs={}", task.getId(), task.getRetryCount(), delayMs);
+        }
+        finish(task);
+    }
+
+    /**
+     * 延后排期自首次延后起以 max-defer-ms 为限，上游长时间不可用时最终仍标记失败。
+     */
+    private boolean withinDeferWindow(GradingTaskDto task) {
+        return task.getDeferredSince() == null
+                || task.getDeferredSince().plusNanos(TimeUnit.MILLISECONDS.toNanos(maxDeferMs)).isAfter(LocalDateTime.now());
+    }
+
+    private int nextAttempt(GradingTaskDto task) {
+        return (task.getRetryCount() == null ? 0 : task.getRetryCount()) + 1;
+    }
+
+    /**
+     * 任务进入终态，只写状态、重试次数、错误、完成时间并释放租约；返回 false 表示租约已被回收，本节点应放弃该任务。
+     */
+    private boolean finishTask(GradingTaskDto task) {
+        String leaseOwner = task.getLeaseOwner();
+        boolean updated = gradingStateWriter.finishTask(task);
+        task.setLeaseOwner(null);
+        task.setLeaseExpiresAt(null);
+        task.setNextRetryAt(null);
+        if (!updated) {
+            logger.warn("判题任务租约已失效，放弃本节点结果，taskId={}, leaseOwner={}", task.getId(), leaseOwner);
+        }
+        return updated;
+    }
+
+    private void finish(GradingTaskDto task) {
+        gradingDedupCache.release(task.getId(), "SUCCESS".equals(task.getStatus()));
+        CompletableFuture<Void> done = runningTasks.remove(task.getId());
+        if (done != null) {
+            done.complete(null);
+        }
     }
 
     private void markAnswerFailed(StudentAnswerDto answer, String error) {
         answer.setGradingStatus("FAILED");
         answer.setGradingError(error);
         answer.setGradingCompletedAt(LocalDateTime.now());
-        studentAnswerMapper.updateById(answer);
-    }
-
-    private void sleepRetry(long delayMs) {
-        try {
-            Thread.sleep(Math.max(0L, delayMs));
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        gradingStateWriter.writeFailure(answer);
+        gradingStatusHub.publish(answer);
     }
 
-    private String constructPromptForEvaluation(AssignmentDto assignment, String studentAnswer) {
+    private static String gradingSystemPrompt() {
         StringBuilder prompt = new StringBuilder();
         prompt.append("你是一位严谨的一线教师评卷助手。请基于标准答案对学生作答评分。\n");
         prompt.append("必须只返回一个 JSON 对象，不要返回任何额外文本、解释、Markdown。\n");
         prompt.append("JSON结构必须严格包含以下字段：\n");
+        appendEvaluationFormat(prompt);
+        prompt.append("5) 严禁输出 JSON 以外的内容。\n");
+        return prompt.toString();
+    }
+
+    private static String batchGradingSystemPrompt() {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("你是一位严谨的一线教师评卷助手。请基于标准答案对用户给出的多份学生作答分别独立评分，各份作答之间互不参考。\n");
+        prompt.append("必须只返回一个 JSON 对象，不要返回任何额外文本、解释、Markdown。\n");
+        prompt.append("JSON结构为 {\"results\": [每份作答一个评分对象]}，每个评分对象必须包含 \"answerId\": 答卷编号，并严格包含以下字段：\n");
+        appendEvaluationFormat(prompt);
+        prompt.append("5) 严禁输出 JSON 以外的内容。\n");
+        prompt.append("6) results 必须为每份作答各返回一项，answerId 与答卷编号一致，不得遗漏或合并。\n");
+        return prompt.toString();
+    }
+
+    /**
+     * 用户消息 = 作业的固定前缀（题目、分值结构、参考答案）+ 每份作答的可变后缀，
+     * 同一作业的各次调用前缀逐字节相同，可命中提供方的前缀缓存。
+     */
+    private String constructPromptForEvaluation(AssignmentDto assignment, String studentAnswer,
+                                                ObjectivePreGrader.Result objective) {
+        StringBuilder prompt = new StringBuilder(assignmentPrefix(assignment));
+        prompt.append("学生答案：\n").append(studentAnswer).append("\n");
+        if (objective != null) {
+            prompt.append("\n以下客观题已由系统按参考答案判分，无需重复评分，itemScores 中可省略：第");
+            prompt.append(String.join("、", objective.graded().stream()
+                    .map(item -> item.path("questionNo").asText()).toList())).append("题\n");
+        }
+        return prompt.toString();
+    }
+
+    private String constructBatchPromptForEvaluation(AssignmentDto assignment, List<BatchItem> items) {
+        StringBuilder prompt = new StringBuilder(assignmentPrefix(assignment));
+        prompt.append("本批共 ").append(items.size()).append(" 份学生作答：\n\n");
+        for (BatchItem item : items) {
+            prompt.append("【答卷编号：").append(item.answer().getId()).append("】\n")
+                    .append(item.answer().getStudentAnswer()).append("\n")
+                    .append("【答卷编号：").append(item.answer().getId()).append(" 结束】\n\n");
+        }
+        return prompt.toString();
+    }
+
+    private static void appendEvaluationFormat(StringBuilder prompt) {
         prompt.append("{\n");
         prompt.append("  \"totalScore\": 得分数值,\n");
         prompt.append("  \"maxScore\": 总分数值,\n");
@@ -182,7 +602,15 @@ public class StudentGradingAsyncService {
         prompt.append("2) itemScores 至少1项，questionNo 从1递增。\n");
         prompt.append("3) 必须严格按题目给定分值评分，不得自行更改总分。\n");
         prompt.append("4) weakPoints 和 suggestions 为字符串数组，可为空数组。\n");
-        prompt.append("5) 严禁输出 JSON 以外的内容。\n\n");
+    }
+
+    private String assignmentPrefix(AssignmentDto assignment) {
+        StringBuilder prefix = new StringBuilder();
+        appendAssignmentContext(prefix, assignment);
+        return prefix.toString();
+    }
+
+    private void appendAssignmentContext(StringBuilder prompt, AssignmentDto assignment) {
         prompt.append("题目标题：").append(assignment.getTitle()).append("\n\n");
         if (assignment.getTotalScore() != null) {
             prompt.append("本次作业总分：").append(assignment.getTotalScore()).append("分\n\n");
@@ -193,8 +621,6 @@ public class StudentGradingAsyncService {
                     .append("\n\n");
         }
         prompt.append("题目内容与参考答案：\n").append(assignment.getContent()).append("\n\n");
-        prompt.append("学生答案：\n").append(studentAnswer).append("\n");
-        return prompt.toString();
     }
 
     private EvaluationResult parseEvaluation(String aiResponse) throws Exception {
@@ -203,16 +629,23 @@ public class StudentGradingAsyncService {
             return fallbackEvaluation(aiResponse);
         }
 
-        JsonNode root = objectMapper.readTree(jsonText);
+        EvaluationResult evaluation = parseStructuredEvaluation(objectMapper.readTree(jsonText));
+        return evaluation == null ? fallbackEvaluation(aiResponse) : evaluation;
+    }
+
+    /**
+     * 结构不完整时返回 null。
+     */
+    private EvaluationResult parseStructuredEvaluation(JsonNode root) throws Exception {
         if (!root.isObject()) {
-            return fallbackEvaluation(aiResponse);
+            return null;
         }
 
         JsonNode totalScoreNode = root.get("totalScore");
         JsonNode overallCommentNode = root.get("overallComment");
         JsonNode itemScoresNode = root.get("itemScores");
         if (totalScoreNode == null || overallCommentNode == null || itemScoresNode == null || !itemScoresNode.isArray()) {
-            return fallbackEvaluation(aiResponse);
+            return null;
         }
 
         String totalScore = normalizeTotalScoreDisplay(root);
@@ -222,6 +655,59 @@ public class StudentGradingAsyncService {
         return new EvaluationResult(totalScore, analysis, normalizedJson);
     }
 
+    private ObjectivePreGrader.Result preGrade(AssignmentDto assignment, StudentAnswerDto answer) {
+        if (!objectiveEnabled) {
+            return null;
+        }
+        return ObjectivePreGrader.grade(objectMapper, assignment.getQuestionStructureJson(), answer.getStudentAnswer());
+    }
+
+    /**
+     * 全部为可本地判定的客观题时直接生成评分结果，不调用模型。
+     */
+    private EvaluationResult objectiveEvaluation(ObjectivePreGrader.Result objective) throws Exception {
+        com.fasterxml.jackson.databind.node.ObjectNode root = objectMapper.createObjectNode();
+        List<String> wrong = objective.graded().stream()
+                .filter(item -> !item.path("isCorrect").asBoolean())
+                .map(item -> item.path("questionNo").asText())
+                .toList();
+        root.put("totalScore", objective.score());
+        root.put("maxScore", objective.fullScore());
+        root.put("overallComment", "客观题由系统按参考答案自动判分，共" + objective.graded().size()
+                + "题，答对" + (objective.graded().size() - wrong.size()) + "题。");
+        root.set("itemScores", objectMapper.createArrayNode().addAll(objective.graded()));
+        root.set("weakPoints", objectMapper.createArrayNode());
+        com.fasterxml.jackson.databind.node.ArrayNode suggestions = objectMapper.createArrayNode();
+        if (!wrong.isEmpty()) {
+            suggestions.add("订正第" + String.join("、", wrong) + "题，对照参考答案复习相关知识点");
+        }
+        root.set("suggestions", suggestions);
+        return toEvaluation(root);
+    }
+
+    /**
+     * 用本地判分结果覆盖模型给出的同题号评分，并按各题得分重新汇总总分；模型输出无法结构化时原样返回。
+     */
+    private EvaluationResult mergeObjective(EvaluationResult evaluation, ObjectivePreGrader.Result objective) throws Exception {
+        if (objective == null || evaluation.evaluationJson() == null) {
+            return evaluation;
+        }
+        com.fasterxml.jackson.databind.node.ObjectNode root =
+                (com.fasterxml.jackson.databind.node.ObjectNode) objectMapper.readTree(evaluation.evaluationJson());
+        Map<Integer, JsonNode> items = new TreeMap<>();
+        root.path("itemScores").forEach(item -> items.put(item.path("questionNo").asInt(0), item));
+        objective.graded().forEach(item -> items.put(item.path("questionNo").asInt(), item));
+        root.set("itemScores", objectMapper.createArrayNode().addAll(items.values()));
+        root.put("totalScore", items.values().stream().mapToDouble(item -> Math.max(0, parseNumericField(item, "score"))).sum());
+        return toEvaluation(root);
+    }
+
+    private EvaluationResult toEvaluation(JsonNode root) throws Exception {
+        JsonNode normalized = normalizeEvaluationRoot(root);
+        return new EvaluationResult(normalizeTotalScoreDisplay(normalized), buildAnalysisFromStructured(normalized),
+                objectMapper.writeValueAsString(normalized));
+    }
+
     private String extractJson(String text) {
         if (text == null || text.isBlank()) return null;
 
@@ -304,25 +790,7 @@ public class StudentGradingAsyncService {
         JsonNode itemScores = root.path("itemScores");
         if (itemScores.isArray()) {
             for (JsonNode item : itemScores) {
-                com.fasterxml.jackson.databind.node.ObjectNode normalizedItem = objectMapper.createObjectNode();
-                double score = parseNumericField(item, "score");
-                double fullScore = parseNumericField(item, "fullScore");
-                if (fullScore <= 0) {
-                    fullScore = parseNumericField(item, "maxScore");
-                }
-                if (fullScore <= 0 && item.has("scoreDisplay")) {
-                    double[] pair = parseScorePair(item.path("scoreDisplay").asText(""));
-                    score = pair[0];
-                    fullScore = pair[1];
-                }
-                normalizedItem.put("questionNo", item.path("questionNo").asInt(0));
-                normalizedItem.put("score", score);
-                normalizedItem.put("fullScore", fullScore);
-                normalizedItem.put("scoreDisplay", formatScoreDisplay(score, fullScore));
-                normalizedItem.put("comment", item.path("comment").asText(""));
-                normalizedItem.put("isCorrect", item.path("isCorrect").asBoolean(false));
-                normalizedItem.put("knowledgePoint", item.path("knowledgePoint").asText(""));
-                normalizedItems.add(normalizedItem);
+                normalizedItems.add(normalizeItem(item));
             }
         }
         normalized.set("itemScores", normalizedItems);
@@ -331,6 +799,28 @@ public class StudentGradingAsyncService {
         return normalized;
     }
 
+    private JsonNode normalizeItem(JsonNode item) {
+        com.fasterxml.jackson.databind.node.ObjectNode normalizedItem = objectMapper.createObjectNode();
+        double score = parseNumericField(item, "score");
+        double fullScore = parseNumericField(item, "fullScore");
+        if (fullScore <= 0) {
+            fullScore = parseNumericField(item, "maxScore");
+        }
+        if (fullScore <= 0 && item.has("scoreDisplay")) {
+            double[] pair = parseScorePair(item.path("scoreDisplay").asText(""));
+            score = pair[0];
+            fullScore = pair[1];
+        }
+        normalizedItem.put("questionNo", item.path("questionNo").asInt(0));
+        normalizedItem.put("score", score);
+        normalizedItem.put("fullScore", fullScore);
+        normalizedItem.put("scoreDisplay", formatScoreDisplay(score, fullScore));
+        normalizedItem.put("comment", item.path("comment").asText(""));
+        normalizedItem.put("isCorrect", item.path("isCorrect").asBoolean(false));
+        normalizedItem.put("knowledgePoint", item.path("knowledgePoint").asText(""));
+        return normalizedItem;
+    }
+
     private String normalizeTotalScoreDisplay(JsonNode root) {
         if (root.has("totalScoreDisplay")) {
             String display = root.path("totalScoreDisplay").asText("");
@@ -407,4 +897,70 @@ public class StudentGradingAsyncService {
 
     private record EvaluationResult(String score, String analysis, String evaluationJson) {
     }
+
+    /**
+     * 流式判题中已完整到达的小题，按题号累积（本地判分的客观题以本地结果为准），
+     * 按 grading.partial.min-interval-ms 合并写入 evaluation_json（{"partial":true,"itemScores":[...]}）并推送。
+     * 写入以答案行仍为 PENDING 为条件，最终结果写入后迟到的部分结果不会覆盖。
+     */
+    private final class PartialEvaluation {
+        private final StudentAnswerDto answer;
+        private final Map<Integer, JsonNode> items = new TreeMap<>();
+        private final Set<Integer> objectiveNos = new HashSet<>();
+        private final Object writeLock = new Object();
+        private long lastFlushAt;
+        private boolean flushScheduled;
+
+        PartialEvaluation(StudentAnswerDto answer, ObjectivePreGrader.Result objective) {
+            this.answer = answer;
+            if (objective != null) {
+                objective.graded().forEach(item -> {
+                    int questionNo = item.path("questionNo").asInt();
+                    objectiveNos.add(questionNo);
+                    items.put(questionNo, normalizeItem(item));
+                });
+            }
+        }
+
+        /**
+         * 在 I/O 线程上回调，只累积并排期，写库在 gradingExecutor 上进行。
+         */
+        synchronized void add(JsonNode item) {
+            int questionNo = item.path("questionNo").asInt(0);
+            if (objectiveNos.contains(questionNo)) {
+                return;
+            }
+            items.put(questionNo, normalizeItem(item));
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+            long delayMs = Math.max(0L, lastFlushAt + partialMinIntervalMs - System.currentTimeMillis());
+            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, gradingExecutor).execute(this::flush);
+        }
+
+        private void flush() {
+            synchronized (writeLock) {
+                List<JsonNode> snapshot;
+                synchronized (this) {
+                    flushScheduled = false;
+                    lastFlushAt = System.currentTimeMillis();
+                    snapshot = new ArrayList<>(items.values());
+                }
+                try {
+                    com.fasterxml.jackson.databind.node.ObjectNode root = objectMapper.createObjectNode();
+                    root.put("partial", true);
+                    root.set("itemScores", objectMapper.createArrayNode().addAll(snapshot));
+                    if (gradingStateWriter.writePartial(answer.getId(), objectMapper.writeValueAsString(root))) {
+                        gradingStatusHub.publishPartial(answer, snapshot);
+                    }
+                } catch (Exception e) {
+                    logger.warn("写入部分判题结果失败，answerId={}, error={}", answer.getId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private record BatchItem(GradingTaskDto task, StudentAnswerDto answer, AssignmentDto assignment) {
+    }
 }
@@ -0,0 +1,143 @@
+package com.leo.aiteacher.service.impl;
+
+import com.leo.aiteacher.client.DeepSeekChatClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成类任务的内存流式通道：累积模型增量内容，并通过 SSE 推送给订阅的教师页面。
+ * 通道按 "模块:任务ID" 命名，任务结束后保留短暂的终态，供晚到的订阅者直接收到 done 事件。
+ */
+@Component
+public class TaskStreamHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskStreamHub.class);
+    private static final long EMITTER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long CLOSED_RETENTION_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final Set<String> TERMINAL_STATUSES = Set.of("SUCCESS", "FAILED", "COMPLETED_WITH_WARNINGS");
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Map<String, ClosedChannel> closedChannels = new ConcurrentHashMap<>();
+
+    public static String channel(String module, Long taskId) {
+        return module + ":" + taskId;
+    }
+
+    public DeepSeekChatClient.StreamListener listener(String channelName) {
+        Channel channel = channels.computeIfAbsent(channelName, key -> new Channel());
+        return new DeepSeekChatClient.StreamListener() {
+            @Override
+            public void onDelta(String delta) {
+                channel.append(delta);
+            }
+
+            @Override
+            public void onReset() {
+                channel.reset();
+            }
+        };
+    }
+
+    public String partialContent(String channelName) {
+        Channel channel = channels.get(channelName);
+        return channel == null ? null : channel.snapshot();
+    }
+
+    public void close(String channelName, String status) {
+        Channel channel = channels.remove(channelName);
+        long now = System.currentTimeMillis();
+        closedChannels.values().removeIf(closed -> now - closed.closedAt() > CLOSED_RETENTION_MS);
+        closedChannels.put(channelName, new ClosedChannel(status, now));
+        if (channel != null) {
+            channel.finish(status);
+        }
+    }
+
+    public SseEmitter subscribe(String channelName, String currentStatus) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        ClosedChannel closed = closedChannels.get(channelName);
+        if (closed != null || TERMINAL_STATUSES.contains(currentStatus)) {
+            String status = closed != null ? closed.status() : currentStatus;
+            sendQuietly(emitter, "done", Map.of("status", status));
+            emitter.complete();
+            return emitter;
+        }
+        Channel channel = channels.computeIfAbsent(channelName, key -> new Channel());
+        channel.subscribe(emitter);
+        return emitter;
+    }
+
+    public SseEmitter rejected(Map<String, Object> error) {
+        SseEmitter emitter = new SseEmitter(0L);
+        sendQuietly(emitter, "error", error);
+        emitter.complete();
+        return emitter;
+    }
+
+    private static boolean sendQuietly(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private static final class Channel {
+        private final StringBuilder content = new StringBuilder();
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+        synchronized void append(String delta) {
+            content.append(delta);
+            broadcast("delta", Map.of("content", delta, "length", content.length()));
+        }
+
+        synchronized void reset() {
+            content.setLength(0);
+            broadcast("reset", Map.of("length", 0));
+        }
+
+        synchronized String snapshot() {
+            return content.toString();
+        }
+
+        synchronized void subscribe(SseEmitter emitter) {
+            emitter.onCompletion(() -> emitters.remove(emitter));
+            emitter.onTimeout(() -> emitters.remove(emitter));
+            emitter.onError(e -> emitters.remove(emitter));
+            if (sendQuietly(emitter, "snapshot", Map.of("content", content.toString(), "length", content.length()))) {
+                emitters.add(emitter);
+            }
+        }
+
+        synchronized void finish(String status) {
+            broadcast("done", Map.of("status", status == null ? "" : status));
+            for (SseEmitter emitter : emitters) {
+                emitter.complete();
+            }
+            emitters.clear();
+        }
+
+        private void broadcast(String event, Object data) {
+            for (SseEmitter emitter : emitters) {
+                if (!sendQuietly(emitter, event, data)) {
+                    emitters.remove(emitter);
+                    logger.debug("SSE订阅者已断开，移除");
+                }
+            }
+        }
+    }
+
+    private record ClosedChannel(String status, long closedAt) {
+    }
+}
@@ -136,11 +136,14 @@ CREATE TABLE IF NOT EXISTS student_answers (
     grading_started_at   TIMESTAMP                           NULL COMMENT '判题开始时间',
     grading_completed_at TIMESTAMP                           NULL COMMENT '判题完成时间',
     evaluation_json      LONGTEXT                            NULL COMMENT '结构化判题结果(JSON)',
+    answer_hash          CHAR(64)                            NULL COMMENT '去重键：作业+Prompt版本+归一化答案的 SHA-256',
+    dedup_source_id      INT                                 NULL COMMENT '复用评分的来源答案ID',
     submitted_at         TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL COMMENT '提交时间',
     UNIQUE KEY uq_student_answer (assignment_id, student_id),
     KEY idx_student_answers_student (student_id),
     KEY idx_student_answers_assignment (assignment_id),
     KEY idx_student_answers_grading_status (grading_status),
+    KEY idx_student_answers_dedup (assignment_id, answer_hash),
     CONSTRAINT fk_answer_assignment
         FOREIGN KEY (assignment_id) REFERENCES assignments (id)
             ON DELETE CASCADE,
@@ -149,17 +152,42 @@ CREATE TABLE IF NOT EXISTS student_answers (
             ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+CREATE TABLE IF NOT EXISTS grading_jobs (
+    id            BIGINT AUTO_INCREMENT PRIMARY KEY,
+    teacher_id    INT                                 NOT NULL COMMENT '教师ID',
+    scope         VARCHAR(20)                         NOT NULL COMMENT '范围：ASSIGNMENT/COURSE',
+    assignment_id INT                                 NULL COMMENT '作业ID（scope=ASSIGNMENT）',
+    course_code   VARCHAR(50)                         NULL COMMENT '课程代码（scope=COURSE）',
+    status        VARCHAR(20)                         NOT NULL COMMENT 'RUNNING/CANCELLING/COMPLETED/CANCELLED',
+    total         INT       DEFAULT 0                 NOT NULL COMMENT '纳入重判的答案数',
+    created_at    TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL,
+    updated_at    TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL ON UPDATE CURRENT_TIMESTAMP,
+    finished_at   TIMESTAMP                           NULL,
+    KEY idx_grading_jobs_teacher (teacher_id, status),
+    KEY idx_grading_jobs_status (status)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 CREATE TABLE IF NOT EXISTS grading_tasks (
     id            BIGINT AUTO_INCREMENT PRIMARY KEY,
     answer_id     INT                                 NOT NULL COMMENT '关联 student_answers.id',
-    status        VARCHAR(20)                         NOT NULL COMMENT '任务状态：PENDING/RUNNING/SUCCESS/FAILED',
+    status        VARCHAR(20)                         NOT NULL COMMENT '任务状态：WAITING/PENDING/RUNNING/SUCCESS/FAILED/CANCELLED',
     retry_count   INT       DEFAULT 0                 NOT NULL COMMENT '重试次数',
     next_retry_at TIMESTAMP                           NULL COMMENT '下次重试时间',
     last_error    VARCHAR(500)                        NULL COMMENT '最后失败原因',
     created_at    TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL,
     updated_at    TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL ON UPDATE CURRENT_TIMESTAMP,
     completed_at  TIMESTAMP                           NULL,
+    lease_owner      VARCHAR(100)                     NULL COMMENT '持有租约的节点',
+    lease_expires_at TIMESTAMP                        NULL COMMENT '租约到期时间',
+    job_id        BIGINT                              NULL COMMENT '所属批量重判任务',
+    tenant        VARCHAR(120)                        NULL COMMENT '公平调度租户：课程代码/教师ID',
+    deferred_since TIMESTAMP                          NULL COMMENT '首次因熔断/排队超时延后的时间',
     KEY idx_grading_tasks_status (status),
+    KEY idx_grading_tasks_claim (status, next_retry_at),
+    KEY idx_grading_tasks_lease (status, lease_expires_at),
+    KEY idx_grading_tasks_job (job_id, status),
+    KEY idx_grading_tasks_completed (completed_at),
+    KEY idx_grading_tasks_tenant (tenant, status, next_retry_at),
     CONSTRAINT fk_grading_task_answer
         FOREIGN KEY (answer_id) REFERENCES student_answers (id)
             ON DELETE CASCADE
@@ -504,3 +532,37 @@ WHERE NOT EXISTS (
     SELECT 1 FROM exam_paper_prompt_presets
     WHERE is_system_default = 1 AND title = '错因诊断强化版'
 );
+
+-- ============================================
+-- 8) 大模型调用（响应缓存，deepseek.api.cache.db-enabled=true 时使用）
+-- ============================================
+CREATE TABLE IF NOT EXISTS llm_response_cache (
+    cache_key    CHAR(64)     NOT NULL PRIMARY KEY COMMENT 'scene+model+temperature+prompt 的 SHA-256',
+    scene        VARCHAR(100) NOT NULL COMMENT '调用场景',
+    model_name   VARCHAR(100) NULL COMMENT '模型名称',
+    content      LONGTEXT     NOT NULL COMMENT '模型输出内容',
+    raw_response LONGTEXT     NULL COMMENT '模型原始响应',
+    created_at   TIMESTAMP DEFAULT CURRENT_TIMESTAMP NULL,
+    expires_at   TIMESTAMP    NOT NULL COMMENT '过期时间',
+    KEY idx_llm_cache_expires (expires_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- ============================================
+-- 9) 大模型用量记账（按场景/教师/课程/任务的 Token 与费用明细）
+-- ============================================
+CREATE TABLE IF NOT EXISTS llm_usage (
+    id                BIGINT AUTO_INCREMENT PRIMARY KEY,
+    scene             VARCHAR(100)   NOT NULL COMMENT '调用场景',
+    model_name        VARCHAR(100)   NULL COMMENT '模型名称（备用端点为 端点名/模型名）',
+    teacher_id        INT            NULL COMMENT '发起调用的教师',
+    course_code       VARCHAR(50)    NULL COMMENT '课程代码',
+    task_id           BIGINT         NULL COMMENT '关联任务ID（判题/教案/试卷/出题任务）',
+    prompt_tokens     INT            NOT NULL DEFAULT 0 COMMENT '输入Token',
+    completion_tokens INT            NOT NULL DEFAULT 0 COMMENT '输出Token',
+    cached_tokens     INT            NOT NULL DEFAULT 0 COMMENT '命中前缀缓存的输入Token',
+    latency_ms        INT            NOT NULL DEFAULT 0 COMMENT '调用耗时',
+    cost              DECIMAL(14, 6) NOT NULL DEFAULT 0 COMMENT '按配置单价估算的费用',
+    created_at        TIMESTAMP      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    KEY idx_llm_usage_created (created_at),
+    KEY idx_llm_usage_teacher (teacher_id, created_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
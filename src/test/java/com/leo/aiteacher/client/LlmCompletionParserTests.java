@@ -0,0 +1,49 @@
+package com.leo.aiteacher.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LlmCompletionParserTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String RESPONSE = """
+            {"id":"x","choices":[{"index":0,"message":{"role":"assistant","content":"第一题：勾股定理 a²+b²=c²"}},
+            {"index":1,"message":{"content":"ignored"}}],"content":"ignored",
+            "usage":{"prompt_tokens":12,"completion_tokens":8,"prompt_tokens_details":{"cached_tokens":4}}}
+            """;
+
+    @Test
+    void extractsContentAndUsageFromChunkedBody() throws Exception {
+        byte[] bytes = RESPONSE.getBytes(StandardCharsets.UTF_8);
+        // 3 字节分块会把多字节汉字切开，验证增量解析不依赖分块边界
+        LlmCompletionParser parser = new LlmCompletionParser(objectMapper, 0);
+        for (int offset = 0; offset < bytes.length; offset += 3) {
+            parser.onData(ByteBuffer.wrap(bytes, offset, Math.min(3, bytes.length - offset)));
+        }
+        LlmCompletionParser.Completion completion = parser.onComplete();
+
+        assertEquals("第一题：勾股定理 a²+b²=c²", completion.content());
+        assertEquals(12, completion.usage().path("prompt_tokens").asInt());
+        assertEquals(4, completion.usage().path("prompt_tokens_details").path("cached_tokens").asInt());
+        assertNull(completion.rawResponse());
+    }
+
+    @Test
+    void capturesTruncatedRawBodyWhenSampledAndParsesStreamChunks() throws Exception {
+        LlmCompletionParser parser = new LlmCompletionParser(objectMapper, 10);
+        parser.onData(ByteBuffer.wrap(RESPONSE.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(RESPONSE.substring(0, 10), parser.onComplete().rawResponse());
+
+        LlmCompletionParser.Completion chunk = LlmCompletionParser.parse(objectMapper,
+                "{\"choices\":[{\"delta\":{\"content\":\"增量\"}}],\"usage\":null}");
+        assertEquals("增量", chunk.content());
+        assertNull(chunk.usage());
+    }
+}
@@ -0,0 +1,107 @@
+package com.leo.aiteacher.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LlmGovernorTests {
+
+    private static LlmGovernor governor(int maxConcurrent, long rpm, long maxWaitMs) {
+        return LlmGovernor.create("stub", new LlmGovernor.Settings(maxConcurrent, rpm, 0, 0, maxWaitMs, 0, 1,
+                Map.of("lesson-plan", 0, "grading", 2)));
+    }
+
+    @Test
+    void interactiveSceneOvertakesQueuedGrading() throws Exception {
+        LlmGovernor governor = governor(1, 0, 5000);
+        List<String> order = new CopyOnWriteArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            LlmGovernor.Permit holder = governor.acquire("lesson-plan", 1);
+            Future<?> grading = pool.submit(() -> take(governor, "grading", order));
+            waitForQueue(governor, 1);
+            Future<?> lessonPlan = pool.submit(() -> take(governor, "lesson-plan", order));
+            waitForQueue(governor, 2);
+
+            holder.close();
+            grading.get(5, TimeUnit.SECONDS);
+            lessonPlan.get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("lesson-plan", "grading"), order);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void waitingBeyondMaxWaitIsRejected() throws Exception {
+        LlmGovernor governor = governor(1, 0, 100);
+        try (LlmGovernor.Permit ignored = governor.acquire("grading", 1)) {
+            assertThrows(LlmGovernor.ThrottledException.class, () -> governor.acquire("grading", 1));
+        }
+        assertEquals(1L, governor.snapshot().get("throttled"));
+    }
+
+    @Test
+    void requestsPerMinuteBucketBlocksBurst() throws Exception {
+        LlmGovernor governor = governor(10, 2, 100);
+        governor.acquire("grading", 1).close();
+        governor.acquire("grading", 1).close();
+        assertThrows(LlmGovernor.ThrottledException.class, () -> governor.acquire("grading", 1));
+    }
+
+    @Test
+    void asyncWaitersShareQueueWithoutHoldingThreads() throws Exception {
+        LlmGovernor governor = governor(1, 0, 5000);
+        List<String> order = new CopyOnWriteArrayList<>();
+        LlmGovernor.Permit holder = governor.acquire("lesson-plan", 1);
+        CompletableFuture<LlmGovernor.Permit> grading = governor.acquireAsync("grading", 1);
+        CompletableFuture<LlmGovernor.Permit> lessonPlan = governor.acquireAsync("lesson-plan", 1);
+        grading.thenAccept(permit -> {
+            order.add("grading");
+            permit.close();
+        });
+        lessonPlan.thenAccept(permit -> {
+            order.add("lesson-plan");
+            permit.close();
+        });
+        assertEquals(2, governor.snapshot().get("waiting"));
+
+        holder.close();
+        CompletableFuture.allOf(grading, lessonPlan).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("lesson-plan", "grading"), order);
+
+        LlmGovernor impatient = governor(1, 0, 50);
+        try (LlmGovernor.Permit ignored = impatient.acquire("grading", 1)) {
+            CompletableFuture<LlmGovernor.Permit> rejected = impatient.acquireAsync("grading", 1);
+            ExecutionException error = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(LlmGovernor.ThrottledException.class, error.getCause());
+        }
+        assertEquals(0, impatient.snapshot().get("inFlight"));
+    }
+
+    private static Void take(LlmGovernor governor, String scene, List<String> order) throws InterruptedException {
+        try (LlmGovernor.Permit ignored = governor.acquire(scene, 1)) {
+            order.add(scene);
+        }
+        return null;
+    }
+
+    private static void waitForQueue(LlmGovernor governor, int waiting) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((int) governor.snapshot().get("waiting") < waiting && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.leo.aiteacher.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对比每次 new RestTemplate() 与共享连接池在本地桩服务上的建连次数。
+ */
+class LlmHttpTransportBenchmarkTests {
+
+    private static final int CONCURRENCY = 16;
+    private static final int REQUESTS = 800;
+    private static final String BODY = "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"}}]}";
+
+    private HttpServer server;
+    private final Set<String> connections = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/chat/completions", exchange -> {
+            connections.add(exchange.getRemoteAddress().toString());
+            exchange.getRequestBody().readAllBytes();
+            byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newFixedThreadPool(CONCURRENCY));
+        server.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void pooledTransportReusesConnections() throws Exception {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/chat/completions";
+
+        connections.clear();
+        drive(RestTemplate::new, url);
+        int baselineConnections = connections.size();
+
+        LlmHttpTransport.Settings settings = new LlmHttpTransport.Settings(
+                CONCURRENCY, CONCURRENCY, 30, 60, 300, false, 2000, 5000, 1);
+        try (LlmHttpTransport transport = LlmHttpTransport.create("stub", settings)) {
+            connections.clear();
+            drive(transport::restTemplate, url);
+            int pooledConnections = connections.size();
+
+            assertTrue(pooledConnections <= CONCURRENCY, "连接池建连数不应超过 max-per-route");
+            assertTrue(pooledConnections < REQUESTS / 10, "连接应被复用");
+            assertTrue(pooledConnections < baselineConnections,
+                    "pooled=" + pooledConnections + " baseline=" + baselineConnections);
+        }
+    }
+
+    private void drive(Supplier<RestTemplate> templates, String url) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(Map.of("model", "stub"), headers);
+
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                futures.add(pool.submit(() -> templates.get().exchange(url, HttpMethod.POST, entity, String.class).getBody()));
+            }
+            for (Future<String> future : futures) {
+                assertEquals(BODY, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
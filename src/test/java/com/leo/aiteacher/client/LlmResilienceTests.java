@@ -0,0 +1,88 @@
+package com.leo.aiteacher.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmResilienceTests {
+
+    private static LlmResilience resilience(int failureThreshold) {
+        return LlmResilience.create("stub", new LlmResilience.Settings(3, 1, 5, 2000, failureThreshold, 200));
+    }
+
+    @Test
+    void retriesServerErrorsButNotClientErrors() throws Exception {
+        LlmResilience resilience = resilience(10);
+        AtomicInteger calls = new AtomicInteger();
+        String result = resilience.execute("grading", attempt -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+
+        calls.set(0);
+        assertThrows(HttpClientErrorException.class, () -> resilience.execute("grading", attempt -> {
+            calls.incrementAndGet();
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+        }));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void honorsRetryAfterOn429() throws Exception {
+        LlmResilience resilience = resilience(10);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        resilience.execute("grading", attempt -> {
+            if (calls.incrementAndGet() == 1) {
+                throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+                        headers, new byte[0], StandardCharsets.UTF_8);
+            }
+            return "ok";
+        });
+        assertTrue(System.currentTimeMillis() - start >= 1000, "应按 Retry-After 等待");
+    }
+
+    @Test
+    void breakerOpensAndRecoversAfterProbe() throws Exception {
+        LlmResilience resilience = resilience(2);
+        // 第二次失败即熔断，第三次重试直接快速失败
+        assertThrows(LlmResilience.CircuitOpenException.class, () -> resilience.execute("grading", attempt -> {
+            throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        }));
+        assertEquals("OPEN", resilience.snapshot().get("breakerState"));
+        assertThrows(LlmResilience.CircuitOpenException.class, () -> resilience.execute("grading", attempt -> "ok"));
+
+        Thread.sleep(250);
+        assertEquals("HALF_OPEN", resilience.snapshot().get("breakerState"));
+        assertEquals("ok", resilience.execute("grading", attempt -> "ok"));
+        assertEquals("CLOSED", resilience.snapshot().get("breakerState"));
+    }
+
+    @Test
+    void defersOnlyFailuresThatNeverReachedUpstream() {
+        LlmResilience resilience = resilience(1);
+        LlmResilience.CircuitOpenException open = assertThrows(LlmResilience.CircuitOpenException.class,
+                () -> resilience.execute("grading", attempt -> {
+                    throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+                }));
+        long deferMs = LlmResilience.deferMs(open);
+        assertTrue(deferMs > 0 && deferMs <= 200, "熔断剩余时间应作为延后时间");
+        assertEquals(3000L, LlmResilience.deferMs(new LlmGovernor.ThrottledException("stub", "grading", 3000L)));
+        assertEquals(-1L, LlmResilience.deferMs(new HttpServerErrorException(HttpStatus.BAD_GATEWAY)));
+    }
+}
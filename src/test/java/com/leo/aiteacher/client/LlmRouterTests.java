@@ -0,0 +1,65 @@
+package com.leo.aiteacher.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmRouterTests {
+
+    private static LlmEndpoint endpoint(String name, boolean primary, int weight, List<String> scenes) {
+        LlmGovernor governor = LlmGovernor.create(name, new LlmGovernor.Settings(4, 0, 0, 0, 1000, 0, 1, Map.of()));
+        return new LlmEndpoint(name, primary, "http://" + name, "key", name + "-model", weight, scenes, true, governor);
+    }
+
+    private static LlmRouter router(LlmEndpoint... endpoints) {
+        return LlmRouter.create("stub", List.of(endpoints), new LlmRouter.Settings(0.5, 4, 0.5, 3, 60000));
+    }
+
+    @Test
+    void fasterEndpointReceivesMostTraffic() {
+        LlmEndpoint fast = endpoint("fast", true, 1, List.of());
+        LlmEndpoint slow = endpoint("slow", false, 1, List.of());
+        LlmRouter router = router(fast, slow);
+        for (int i = 0; i < 5; i++) {
+            router.recordSuccess(fast, "grading", 200);
+            router.recordSuccess(slow, "grading", 1000);
+        }
+
+        int fastPicks = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (router.select("grading", Set.of()) == fast) {
+                fastPicks++;
+            }
+        }
+        // 耗时 1:5 时流量约为 25:1
+        assertTrue(fastPicks > 900, "fastPicks=" + fastPicks);
+        assertEquals("slow/slow-model", slow.label());
+        assertEquals("fast-model", fast.label());
+    }
+
+    @Test
+    void failingEndpointIsEjectedAndRetriesMoveElsewhere() {
+        LlmEndpoint primary = endpoint("primary", true, 10, List.of());
+        LlmEndpoint backup = endpoint("backup", false, 1, List.of());
+        LlmEndpoint ocrOnly = endpoint("ocr", false, 100, List.of("ocr"));
+        LlmRouter router = router(primary, backup, ocrOnly);
+
+        assertEquals(backup, router.select("grading", Set.of(primary)));
+        for (int i = 0; i < 3; i++) {
+            router.recordFailure(primary, "grading", new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE), 50);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(backup, router.select("lesson-plan", Set.of()));
+        }
+        // 所有可用端点都失败过时仍然返回一个端点，而不是拒绝调用
+        assertTrue(Set.of(primary, backup).contains(router.select("grading", Set.of(primary, backup))));
+        assertEquals(true, ((Map<?, ?>) ((List<?>) router.snapshot().get("endpoints")).get(0)).get("ejected"));
+    }
+}
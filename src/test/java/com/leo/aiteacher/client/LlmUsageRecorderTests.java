@@ -0,0 +1,57 @@
+package com.leo.aiteacher.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LlmUsageRecorderTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void aggregatesTokensCostAndCacheHitsPerSceneAndTeacher() throws Exception {
+        LlmUsageRecorder recorder = new LlmUsageRecorder(null, false, 10000, 200, 1000, 2, 0.5, 8, "cheap-model:1/0.1/2");
+        LlmGovernor governor = LlmGovernor.create("stub", new LlmGovernor.Settings(4, 0, 0, 0, 1000, 0, 1, Map.of()));
+        LlmEndpoint primary = new LlmEndpoint("primary", true, "http://primary", "key", "deepseek-v4-flash", 1, List.of(), true, governor);
+        LlmEndpoint cheap = new LlmEndpoint("cheap", false, "http://cheap", "key", "cheap-model", 1, List.of(), true, governor);
+        DeepSeekChatClient.UsageTag tag = new DeepSeekChatClient.UsageTag(7, "C001", 42L);
+
+        // DeepSeek 字段：1000 输入中 600 命中缓存，500 输出
+        recorder.record("grading", tag, primary, objectMapper.readTree("""
+                {"prompt_tokens":1000,"completion_tokens":500,"prompt_cache_hit_tokens":600}
+                """), 1000);
+        // OpenAI 字段
+        recorder.record("grading", tag, cheap, objectMapper.readTree("""
+                {"prompt_tokens":1000,"completion_tokens":500,"prompt_tokens_details":{"cached_tokens":0}}
+                """), 1000);
+        recorder.recordCacheHit("grading");
+
+        Map<String, Object> snapshot = recorder.snapshot(null);
+        Map<String, Object> grading = (Map<String, Object>) ((Map<String, Object>) snapshot.get("scenes")).get("grading");
+        assertEquals(2L, grading.get("calls"));
+        assertEquals(2000L, grading.get("promptTokens"));
+        assertEquals(600L, grading.get("cachedTokens"));
+        assertEquals(0.3, grading.get("promptCacheHitRatio"));
+        assertEquals(0.3333, grading.get("responseCacheHitRatio"));
+        assertEquals(500.0, grading.get("outputTokensPerSecond"));
+        // (400×2 + 600×0.5 + 500×8)/1e6 + (1000×1 + 500×2)/1e6
+        assertEquals(0.0071, grading.get("cost"));
+
+        Map<String, Object> teacher = (Map<String, Object>) ((Map<String, Object>) snapshot.get("teachers")).get("7");
+        assertEquals(2L, teacher.get("calls"));
+        assertEquals(0, snapshot.get("pending"));
+
+        Map<String, Object> other = recorder.snapshot(8);
+        assertTrue(((Map<String, Object>) other.get("teachers")).isEmpty());
+        assertFalse(other.containsKey("scenes"));
+        assertEquals(Set.of("7"), ((Map<String, Object>) recorder.snapshot(7).get("teachers")).keySet());
+    }
+}
@@ -0,0 +1,97 @@
+package com.leo.aiteacher.client;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用合成的手机拍照作业图（偏色纸面、阴影渐变、噪点、手写风格文字）对比预处理前后的字节数。
+ */
+class OcrImagePreprocessorTests {
+
+    private final OcrImagePreprocessor preprocessor = new OcrImagePreprocessor(2000, 0.85, 1.0, 200 * 1024);
+
+    @Test
+    void shrinksPhonePhoto() throws Exception {
+        String dataUrl = "data:image/png;base64," + Base64.getEncoder().encodeToString(photo(4000, 3000, "png"));
+
+        OcrImagePreprocessor.Result result = preprocessor.process(dataUrl);
+
+        assertTrue(result.applied());
+        assertEquals(2000, result.width());
+        assertEquals(1500, result.height());
+        assertTrue(result.sentBytes() * 4 < result.originalBytes(),
+                result.originalBytes() + " -> " + result.sentBytes() + " bytes");
+        assertTrue(result.dataUrl().length() * 4 < dataUrl.length());
+        assertTrue(result.dataUrl().startsWith("data:image/jpeg;base64,"));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(
+                Base64.getDecoder().decode(result.dataUrl().substring(result.dataUrl().indexOf(',') + 1))));
+        assertEquals(1, decoded.getColorModel().getNumComponents());
+    }
+
+    @Test
+    void keepsSmallOrUndecodableImages() throws Exception {
+        String small = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(photo(600, 400, "jpeg"));
+        assertSame(small, preprocessor.process(small).dataUrl());
+
+        String heic = "data:image/heic;base64," + Base64.getEncoder().encodeToString(new byte[300 * 1024]);
+        OcrImagePreprocessor.Result result = preprocessor.process(heic);
+        assertFalse(result.applied());
+        assertSame(heic, result.dataUrl());
+    }
+
+    @Test
+    void readsExifOrientation() {
+        byte[] jpeg = {
+                (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0,
+                0, 0, 0, 0
+        };
+        assertEquals(6, OcrImagePreprocessor.exifOrientation(jpeg));
+        assertEquals(1, OcrImagePreprocessor.exifOrientation(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA}));
+    }
+
+    private static byte[] photo(int width, int height, String format) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(214, 205, 178), width, height, new Color(150, 142, 120)));
+        g.fillRect(0, 0, width, height);
+        g.setColor(new Color(40, 45, 90));
+        g.setFont(new Font(Font.SERIF, Font.ITALIC, Math.max(12, height / 40)));
+        for (int line = 1; line < 30; line++) {
+            g.drawString("Q" + line + ": v = s / t = 120 m / 8 s = 15 m/s", width / 20, line * height / 30);
+        }
+        g.dispose();
+        Random random = new Random(7);
+        for (int i = 0; i < width * height / 4; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int rgb = image.getRGB(x, y);
+            int delta = random.nextInt(17) - 8;
+            int r = Math.max(0, Math.min(255, ((rgb >> 16) & 0xff) + delta));
+            int gr = Math.max(0, Math.min(255, ((rgb >> 8) & 0xff) + delta));
+            int b = Math.max(0, Math.min(255, (rgb & 0xff) + delta));
+            image.setRGB(x, y, (r << 16) | (gr << 8) | b);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package com.leo.aiteacher.loadtest;
+
+import com.leo.aiteacher.client.DeepSeekChatClient;
+import com.leo.aiteacher.client.LlmGovernor;
+import com.leo.aiteacher.client.QwenVisionClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 在桩服务上驱动真实的 DeepSeek / 通义客户端（连接池、调用闸门、重试、熔断、对冲全部生效），
+ * 混合判题、流式教案和 OCR 三类调用，注入少量 5xx / 429，校验在重试之后仍全部成功。
+ * 不依赖数据库，但耗时较长且依赖本机调度，不随默认的 mvn test 运行：
+ * <pre>
+ * mvn -q test -Dtest=LlmClientLoadTests -Dloadtest.clients=true [-Dloadtest.rps=30 -Dloadtest.seconds=3 -Dloadtest.seed=42]
+ * </pre>
+ * 故障按 loadtest.seed 注入，同一 seed 下注入的 5xx / 429 序列相同。
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "loadtest.clients", matches = "true")
+class LlmClientLoadTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmClientLoadTests.class);
+
+    private static final StubLlmServer STUB = startStub();
+
+    @Autowired
+    private DeepSeekChatClient deepSeekChatClient;
+
+    @Autowired
+    private QwenVisionClient qwenVisionClient;
+
+    @Autowired
+    @Qualifier("deepSeekGovernor")
+    private LlmGovernor deepSeekGovernor;
+
+    @Autowired
+    @Qualifier("qwenGovernor")
+    private LlmGovernor qwenGovernor;
+
+    private static StubLlmServer startStub() {
+        try {
+            return StubLlmServer.start(StubLlmServer.Settings.defaults()
+                    .withLatency(40, 400)
+                    .withFaults(0.02, 0.01)
+                    .withSeed(Long.getLong("loadtest.seed", 42L)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void stubProperties(DynamicPropertyRegistry registry) {
+        registry.add("deepseek.api.url", STUB::baseUrl);
+        registry.add("deepseek.api.key", () -> "stub");
+        registry.add("qwen.api.url", STUB::baseUrl);
+        registry.add("qwen.api.key", () -> "stub");
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.close();
+    }
+
+    @Test
+    void mixedPipelinesUnderLoad() throws Exception {
+        double rps = Double.parseDouble(System.getProperty("loadtest.rps", "30"));
+        long seconds = Long.parseLong(System.getProperty("loadtest.seconds", "3"));
+
+        LoadHarness.Report report = LoadHarness.run("llm-clients", rps, Duration.ofSeconds(seconds),
+                this::request, this::queueDepths);
+        logger.info("{}", report);
+        logger.info("[load:llm-clients] stub={}", STUB.stats());
+
+        assertTrue(report.sent() > 0, "应至少发出一个请求");
+        assertTrue(report.failed() <= Math.max(1, report.sent() / 50), "重试后失败率应低于 2%: " + report);
+    }
+
+    private Callable<?> request(int index) {
+        return switch (index % 3) {
+            case 0 -> () -> deepSeekChatClient.chat(new DeepSeekChatClient.ChatRequest(
+                    "grading", null, "你是一位严谨的一线教师评卷助手。学生作答 #" + index, null));
+            case 1 -> () -> deepSeekChatClient.chatStream(new DeepSeekChatClient.ChatRequest(
+                    "lesson-plan", null, "你是一位拥有20年教龄的数学特级教师。请设计 3 个有效互动环节。#" + index, null),
+                    delta -> {
+                    });
+            default -> () -> qwenVisionClient.recognizeTextFromImageDataUrl("data:image/png;base64,iVBORw0KGgo=" + index);
+        };
+    }
+
+    private Map<String, Number> queueDepths() {
+        Map<String, Number> depths = new HashMap<>();
+        Map<String, Object> deepSeek = deepSeekGovernor.snapshot();
+        Map<String, Object> qwen = qwenGovernor.snapshot();
+        depths.put("deepseek.inFlight", (Number) deepSeek.get("inFlight"));
+        depths.put("deepseek.waiting", (Number) deepSeek.get("waiting"));
+        depths.put("qwen.inFlight", (Number) qwen.get("inFlight"));
+        depths.put("qwen.waiting", (Number) qwen.get("waiting"));
+        return depths;
+    }
+}
@@ -0,0 +1,133 @@
+package com.leo.aiteacher.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * 开环压测驱动：按目标 RPS 定时发起请求（不因上一请求未完成而放慢），
+ * 统计吞吐、p50/p99 延迟、失败数，并周期性采样队列深度（如调用闸门的 waiting/inFlight）。
+ */
+public final class LoadHarness {
+
+    private static final long PROBE_INTERVAL_MS = 200;
+
+    private LoadHarness() {
+    }
+
+    public static Report run(String name,
+                             double targetRps,
+                             Duration duration,
+                             IntFunction<Callable<?>> requestFactory,
+                             Supplier<Map<String, Number>> depthProbe) throws InterruptedException {
+        ExecutorService workers = Executors.newCachedThreadPool();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        List<Future<?>> futures = new ArrayList<>();
+        Map<String, long[]> depths = new TreeMap<>();
+        AtomicLong sent = new AtomicLong();
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(0.1, targetRps));
+        long start = System.nanoTime();
+        scheduler.scheduleAtFixedRate(() -> {
+            int index = (int) sent.getAndIncrement();
+            Callable<?> request = requestFactory.apply(index);
+            synchronized (futures) {
+                futures.add(workers.submit(() -> {
+                    long begin = System.nanoTime();
+                    try {
+                        request.call();
+                        latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                    } catch (Exception e) {
+                        errors.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+                    }
+                }));
+            }
+        }, 0, intervalNanos, TimeUnit.NANOSECONDS);
+        if (depthProbe != null) {
+            scheduler.scheduleAtFixedRate(() -> {
+                Map<String, Number> sample = depthProbe.get();
+                synchronized (depths) {
+                    sample.forEach((key, value) -> {
+                        long[] stat = depths.computeIfAbsent(key, k -> new long[3]);
+                        stat[0] = Math.max(stat[0], value.longValue());
+                        stat[1] += value.longValue();
+                        stat[2]++;
+                    });
+                }
+            }, 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(duration.toMillis());
+        scheduler.shutdownNow();
+        List<Future<?>> submitted;
+        synchronized (futures) {
+            submitted = new ArrayList<>(futures);
+        }
+        for (Future<?> future : submitted) {
+            try {
+                future.get(5, TimeUnit.MINUTES);
+            } catch (Exception ignored) {
+                // 单个请求的异常已在 errors 中记录
+            }
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        workers.shutdownNow();
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        Map<String, String> depthSummary = new TreeMap<>();
+        synchronized (depths) {
+            depths.forEach((key, stat) -> depthSummary.put(key,
+                    "max=" + stat[0] + " avg=" + String.format("%.1f", stat[2] == 0 ? 0.0 : (double) stat[1] / stat[2])));
+        }
+        return new Report(name, targetRps, submitted.size(), sorted.length, errors.size(), elapsedMs,
+                percentile(sorted, 50), percentile(sorted, 99), sorted.length == 0 ? 0 : sorted[sorted.length - 1],
+                depthSummary, errors.stream().distinct().limit(5).toList());
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+    }
+
+    public record Report(String name,
+                         double targetRps,
+                         int sent,
+                         int succeeded,
+                         int failed,
+                         long elapsedMs,
+                         long p50Ms,
+                         long p99Ms,
+                         long maxMs,
+                         Map<String, String> queueDepths,
+                         List<String> sampleErrors) {
+
+        public double throughputRps() {
+            return elapsedMs == 0 ? 0 : succeeded * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[load:%s] target=%.1frps sent=%d ok=%d failed=%d throughput=%.1frps p50=%dms p99=%dms max=%dms depth=%s%s",
+                    name, targetRps, sent, succeeded, failed, throughputRps(), p50Ms, p99Ms, maxMs, queueDepths,
+                    sampleErrors.isEmpty() ? "" : " errors=" + Arrays.toString(sampleErrors.toArray()));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.leo.aiteacher.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 端到端压测：对已启动的应用（需连接 MySQL）按目标 RPS 调用出题、教案、试卷、重新判题接口，
+ * 每个请求从提交任务计时到轮询到终态为止，并通过 /teacher/llm/v1/metrics 采样调用闸门的队列深度。
+ * <p>
+ * 应用需以 --deepseek.api.url=http://127.0.0.1:18080 --qwen.api.url=http://127.0.0.1:18080 启动，然后执行：
+ * <pre>
+ * mvn -q test -Dtest=RestPipelineLoadTests -Dloadtest.baseUrl=http://localhost:8081 \
+ *     -Dloadtest.teacherId=T001 -Dloadtest.password=123456 \
+ *     [-Dloadtest.rps=2 -Dloadtest.seconds=60 -Dloadtest.answerIds=1,2,3 -Dloadtest.stubMedianMs=800 -Dloadtest.stubP99Ms=8000]
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "loadtest.baseUrl", matches = ".+")
+class RestPipelineLoadTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(RestPipelineLoadTests.class);
+
+    private static final Set<String> TERMINAL = Set.of("SUCCESS", "FAILED", "COMPLETED_WITH_WARNINGS");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl = System.getProperty("loadtest.baseUrl");
+    private final HttpClient http = HttpClient.newBuilder()
+            .cookieHandler(new CookieManager())
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Test
+    void restControllersUnderLoad() throws Exception {
+        StubLlmServer.Settings settings = StubLlmServer.Settings.defaults()
+                .withPort(Integer.parseInt(System.getProperty("loadtest.stubPort", "18080")))
+                .withLatency(Long.parseLong(System.getProperty("loadtest.stubMedianMs", "800")),
+                        Long.parseLong(System.getProperty("loadtest.stubP99Ms", "8000")))
+                .withFaults(Double.parseDouble(System.getProperty("loadtest.stubErrorRate", "0.01")),
+                        Double.parseDouble(System.getProperty("loadtest.stubThrottleRate", "0.01")))
+                .withSeed(Long.getLong("loadtest.seed", 42L));
+        List<Long> answerIds = Arrays.stream(System.getProperty("loadtest.answerIds", "").split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .map(Long::valueOf)
+                .toList();
+
+        try (StubLlmServer stub = StubLlmServer.start(settings)) {
+            login();
+            double rps = Double.parseDouble(System.getProperty("loadtest.rps", "2"));
+            long seconds = Long.parseLong(System.getProperty("loadtest.seconds", "30"));
+            LoadHarness.Report report = LoadHarness.run("rest-pipelines", rps, Duration.ofSeconds(seconds),
+                    index -> request(index, answerIds), this::queueDepths);
+            logger.info("{}", report);
+            logger.info("[load:rest-pipelines] stub={}", stub.stats());
+            assertTrue(report.sent() > 0, "应至少发出一个请求");
+        }
+    }
+
+    private void login() throws Exception {
+        Map<String, Object> body = Map.of(
+                "userId", System.getProperty("loadtest.teacherId", ""),
+                "passWord", System.getProperty("loadtest.password", ""));
+        HttpResponse<String> response = send("POST", "/login/teacherLogin", body);
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("教师登录失败: " + response.statusCode() + " " + response.body());
+        }
+    }
+
+    private Callable<?> request(int index, List<Long> answerIds) {
+        int kinds = answerIds.isEmpty() ? 3 : 4;
+        return switch (index % kinds) {
+            case 0 -> () -> submitAndAwait("/teacher/question/v2/tasks", "/teacher/question/v2/tasks/", Map.of(
+                    "subject", "数学", "grade", "八年级", "difficulty", "中等", "questionType", "单选题",
+                    "questionCount", 5, "customMessage", "压测请求 #" + index));
+            case 1 -> () -> submitAndAwait("/teacher/lesson-plan/v1/tasks", "/teacher/lesson-plan/v1/tasks/", Map.of(
+                    "subject", "数学", "grade", "八年级", "teachingTopic", "勾股定理 #" + index,
+                    "durationMinutes", 45, "interactionCount", 3));
+            case 2 -> () -> submitAndAwait("/teacher/exam-paper/v1/tasks", "/teacher/exam-paper/v1/tasks/", Map.of(
+                    "subject", "数学", "grade", "八年级", "examType", "单元测试", "durationMinutes", 90,
+                    "totalScore", 100, "questionCount", 10, "questionTypeCounts", Map.of("解答题", 10),
+                    "customRequirement", "压测请求 #" + index));
+            default -> () -> regradeAndAwait(answerIds.get((index / kinds) % answerIds.size()));
+        };
+    }
+
+    private String submitAndAwait(String createPath, String statusPath, Map<String, Object> body) throws Exception {
+        HttpResponse<String> created = send("POST", createPath, body);
+        JsonNode createdJson = objectMapper.readTree(created.body());
+        if (created.statusCode() != 200 || !createdJson.path("taskId").canConvertToLong()) {
+            throw new IllegalStateException(createPath + " -> " + created.statusCode() + " " + created.body());
+        }
+        return awaitTerminal(statusPath + createdJson.path("taskId").asLong(), "status");
+    }
+
+    private String regradeAndAwait(long answerId) throws Exception {
+        HttpResponse<String> response = send("POST", "/studentAnswer/" + answerId + "/regrade", Map.of());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("regrade " + answerId + " -> " + response.statusCode() + " " + response.body());
+        }
+        return awaitTerminal("/studentAnswer/" + answerId + "/status", "gradingStatus");
+    }
+
+    private String awaitTerminal(String statusPath, String field) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        while (System.currentTimeMillis() < deadline) {
+            JsonNode status = objectMapper.readTree(send("GET", statusPath, null).body());
+            String value = status.path(field).asText("");
+            if (TERMINAL.contains(value)) {
+                if ("FAILED".equals(value)) {
+                    throw new IllegalStateException(statusPath + " FAILED: " + status.path("errorMessage").asText(""));
+                }
+                return value;
+            }
+            TimeUnit.MILLISECONDS.sleep(500);
+        }
+        throw new IllegalStateException(statusPath + " 未在 5 分钟内结束");
+    }
+
+    private Map<String, Number> queueDepths() {
+        Map<String, Number> depths = new HashMap<>();
+        try {
+            JsonNode governors = objectMapper.readTree(send("GET", "/teacher/llm/v1/metrics", null).body()).path("governors");
+            governors.fields().forEachRemaining(entry -> {
+                depths.put(entry.getKey() + ".inFlight", entry.getValue().path("inFlight").asLong());
+                depths.put(entry.getKey() + ".waiting", entry.getValue().path("waiting").asLong());
+            });
+        } catch (Exception ignored) {
+            // 采样失败不影响压测
+        }
+        return depths;
+    }
+
+    private HttpResponse<String> send(String method, String path, Object body) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30));
+        if (body == null) {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            builder.header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)));
+        }
+        return http.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
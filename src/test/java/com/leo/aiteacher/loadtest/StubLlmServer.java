@@ -0,0 +1,361 @@
+package com.leo.aiteacher.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 OpenAI 兼容桩服务，模拟 DeepSeek / 通义 的 /chat/completions 接口，用于压测时不消耗付费额度。
+ * <p>
+ * 按 Prompt 特征识别场景并返回能通过业务校验的固定 JSON（出题、教案、试卷、判题、OCR）；
+ * 支持 stream=true 的 SSE 分片、对数正态分布的响应延迟，以及按比例注入 5xx / 429（带 Retry-After）。
+ * 故障注入与延迟均由 seed 决定的随机序列产生，同一 seed 下注入的故障数与延迟分布可复现。
+ * 使用方式见 {@link LlmClientLoadTests}（客户端级）与 {@link RestPipelineLoadTests}（端到端），均需手动开启。
+ */
+public class StubLlmServer implements AutoCloseable {
+
+    private static final Pattern QUESTION_COUNT = Pattern.compile("题量：\\s*(\\d+)");
+    private static final Pattern TOTAL_SCORE = Pattern.compile("总分：\\s*(\\d+)");
+    private static final Pattern INTERACTION_COUNT = Pattern.compile("(\\d+)\\s*个有效互动环节");
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, AtomicLong> requestsByScene = new HashMap<>();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedThrottles = new AtomicLong();
+    private final Random faultRandom;
+    private final Random random;
+
+    private StubLlmServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.faultRandom = new Random(settings.seed());
+        this.random = new Random(settings.seed() + 1);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", settings.port()), 256);
+        this.executor = Executors.newCachedThreadPool();
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static StubLlmServer start(Settings settings) throws IOException {
+        return new StubLlmServer(settings);
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> result = new HashMap<>();
+        requestsByScene.forEach((scene, count) -> result.put(scene, count.get()));
+        result.put("injectedErrors", injectedErrors.get());
+        result.put("injectedThrottles", injectedThrottles.get());
+        return result;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String scene = detectScene(request);
+            synchronized (this) {
+                requestsByScene.computeIfAbsent(scene, key -> new AtomicLong()).incrementAndGet();
+            }
+
+            double roll = faultRandom.nextDouble();
+            if (roll < settings.throttleRate()) {
+                injectedThrottles.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(settings.retryAfterSeconds()));
+                writeJson(exchange, 429, "{\"error\":{\"message\":\"rate limited\"}}");
+                return;
+            }
+            if (roll < settings.throttleRate() + settings.errorRate()) {
+                injectedErrors.incrementAndGet();
+                sleep(sampleLatencyMs() / 4);
+                writeJson(exchange, 503, "{\"error\":{\"message\":\"stub overloaded\"}}");
+                return;
+            }
+
+            String content = cannedContent(scene, promptText(request));
+            long latencyMs = sampleLatencyMs();
+            if (request.path("stream").asBoolean(false)) {
+                stream(exchange, content, latencyMs);
+            } else {
+                sleep(latencyMs);
+                writeJson(exchange, 200, objectMapper.writeValueAsString(completion(content)));
+            }
+        } catch (IOException e) {
+            // 客户端超时断开，忽略
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stream(HttpExchange exchange, String content, long latencyMs) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int chunks = Math.max(1, settings.streamChunks());
+        int size = Math.max(1, (content.length() + chunks - 1) / chunks);
+        long firstTokenMs = latencyMs / 3;
+        long perChunkMs = chunks <= 1 ? 0 : (latencyMs - firstTokenMs) / chunks;
+        sleep(firstTokenMs);
+        for (int offset = 0; offset < content.length(); offset += size) {
+            ObjectNode chunk = objectMapper.createObjectNode();
+            chunk.putArray("choices").addObject().putObject("delta")
+                    .put("content", content.substring(offset, Math.min(content.length(), offset + size)));
+            writeEvent(out, objectMapper.writeValueAsString(chunk));
+            sleep(perChunkMs);
+        }
+        ObjectNode usageChunk = objectMapper.createObjectNode();
+        usageChunk.putArray("choices");
+        usageChunk.set("usage", usage(content));
+        writeEvent(out, objectMapper.writeValueAsString(usageChunk));
+        writeEvent(out, "[DONE]");
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void writeJson(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private ObjectNode completion(String content) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("model", "stub-llm");
+        ObjectNode message = root.putArray("choices").addObject().putObject("message");
+        message.put("role", "assistant");
+        message.put("content", content);
+        root.set("usage", usage(content));
+        return root;
+    }
+
+    private ObjectNode usage(String content) {
+        ObjectNode usage = objectMapper.createObjectNode();
+        usage.put("prompt_tokens", 800);
+        usage.put("completion_tokens", content.length());
+        usage.put("total_tokens", 800 + content.length());
+        return usage;
+    }
+
+    /**
+     * 对数正态分布：median 与 p99 决定分布形状，长尾与真实大模型接口相近。
+     */
+    private long sampleLatencyMs() {
+        if (settings.medianLatencyMs() <= 0) {
+            return 0;
+        }
+        double sigma = Math.log(Math.max(settings.p99LatencyMs(), settings.medianLatencyMs()) / (double) settings.medianLatencyMs()) / 2.326;
+        double sample = settings.medianLatencyMs() * Math.exp(sigma * random.nextGaussian());
+        return (long) Math.min(sample, settings.p99LatencyMs() * 3.0);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String promptText(JsonNode request) {
+        StringBuilder builder = new StringBuilder();
+        for (JsonNode message : request.path("messages")) {
+            JsonNode content = message.path("content");
+            if (content.isTextual()) {
+                builder.append(content.asText()).append('\n');
+            } else if (content.isArray()) {
+                for (JsonNode part : content) {
+                    builder.append(part.path("text").asText("")).append('\n');
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private String detectScene(JsonNode request) {
+        for (JsonNode message : request.path("messages")) {
+            if (message.path("content").isArray()) {
+                for (JsonNode part : message.path("content")) {
+                    if ("image_url".equals(part.path("type").asText())) {
+                        return "ocr";
+                    }
+                }
+            }
+        }
+        String prompt = promptText(request);
+        if (prompt.contains("评卷助手")) {
+            return "grading";
+        }
+        if (prompt.contains("题目生成助手")) {
+            return "question-generation";
+        }
+        if (prompt.contains("命题专家")) {
+            return "exam-paper";
+        }
+        if (prompt.contains("特级教师")) {
+            return "lesson-plan";
+        }
+        return "other";
+    }
+
+    private String cannedContent(String scene, String prompt) throws IOException {
+        return switch (scene) {
+            case "ocr" -> "1. 解：由题意得 x = 3\n2. 答：该三角形为直角三角形";
+            case "grading" -> objectMapper.writeValueAsString(grading());
+            case "question-generation" -> objectMapper.writeValueAsString(questions(5));
+            case "exam-paper" -> objectMapper.writeValueAsString(
+                    examPaper(intOf(QUESTION_COUNT, prompt, 10), intOf(TOTAL_SCORE, prompt, 100)));
+            case "lesson-plan" -> objectMapper.writeValueAsString(lessonPlan(intOf(INTERACTION_COUNT, prompt, 3)));
+            default -> "{\"summary\":\"桩服务返回的分析结果\",\"suggestions\":[\"巩固基础概念\",\"加强错题复盘\"]}";
+        };
+    }
+
+    private static int intOf(Pattern pattern, String text, int fallback) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : fallback;
+    }
+
+    private ObjectNode grading() {
+        ObjectNode root = objectMapper.createObjectNode();
+        int score = 60 + random.nextInt(41);
+        root.put("totalScore", score);
+        root.put("maxScore", 100);
+        root.put("totalScoreDisplay", score + "/100");
+        root.put("overallComment", "整体思路清晰，个别步骤书写不够规范。");
+        ArrayNode items = root.putArray("itemScores");
+        ObjectNode item = items.addObject();
+        item.put("questionNo", 1);
+        item.put("score", score);
+        item.put("fullScore", 100);
+        item.put("scoreDisplay", score + "/100");
+        item.put("comment", "主要步骤正确");
+        root.putArray("strengths").add("概念理解到位");
+        root.putArray("improvements").add("注意单位换算");
+        return root;
+    }
+
+    private ObjectNode questions(int count) {
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode questions = root.putArray("questions");
+        for (int i = 1; i <= count; i++) {
+            ObjectNode question = questions.addObject();
+            question.put("type", "单选题");
+            question.put("stem", "桩题目 " + i + "：下列说法正确的是？");
+            ArrayNode options = question.putArray("options");
+            options.add("A. 选项一").add("B. 选项二").add("C. 选项三").add("D. 选项四");
+            question.put("answer", "A");
+            question.put("analysis", "根据定义可知 A 正确。");
+        }
+        return root;
+    }
+
+    private ObjectNode examPaper(int questionCount, int totalScore) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("title", "桩服务生成的试卷");
+        root.put("summary", "覆盖基础与综合能力");
+        root.put("notes", "考试时间 90 分钟");
+        ArrayNode questions = root.putArray("questions");
+        int base = Math.max(1, totalScore / Math.max(1, questionCount));
+        int remaining = totalScore;
+        for (int i = 1; i <= questionCount; i++) {
+            int score = i == questionCount ? Math.max(1, remaining) : base;
+            remaining -= score;
+            ObjectNode question = questions.addObject();
+            question.put("type", "解答题");
+            question.put("stem", "桩试题 " + i);
+            question.put("answer", "略");
+            question.put("analysis", "按步骤给分");
+            question.put("score", score);
+        }
+        return root;
+    }
+
+    private ObjectNode lessonPlan(int interactionCount) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("title", "桩服务生成的教案");
+        root.put("overview", "围绕核心概念展开探究式教学");
+        root.putArray("objectives").add("理解核心概念").add("能够迁移应用");
+        root.putArray("keyPoints").add("概念辨析");
+        root.putArray("difficultyPoints").add("综合应用");
+        ArrayNode process = root.putArray("teachingProcess");
+        for (int i = 1; i <= Math.max(1, interactionCount); i++) {
+            ObjectNode step = process.addObject();
+            step.put("stage", "环节" + i);
+            step.put("durationMinutes", 8);
+            step.put("teacherActivity", "提出问题并引导");
+            step.put("studentActivity", "小组讨论");
+            step.put("interactionDesign", "同伴互评");
+            step.put("expectedOutcome", "形成结论");
+        }
+        root.put("homework", "完成练习册对应章节");
+        root.put("assessment", "课堂观察与当堂检测");
+        return root;
+    }
+
+    /**
+     * port 为 0 表示随机端口；medianLatencyMs 为 0 表示无延迟；seed 决定故障注入与延迟序列。
+     */
+    public record Settings(int port,
+                           long medianLatencyMs,
+                           long p99LatencyMs,
+                           double errorRate,
+                           double throttleRate,
+                           int retryAfterSeconds,
+                           int streamChunks,
+                           long seed) {
+
+        public static Settings defaults() {
+            return new Settings(0, 200, 1500, 0.0, 0.0, 1, 20, 42L);
+        }
+
+        public Settings withPort(int port) {
+            return new Settings(port, medianLatencyMs, p99LatencyMs, errorRate, throttleRate, retryAfterSeconds, streamChunks, seed);
+        }
+
+        public Settings withLatency(long medianMs, long p99Ms) {
+            return new Settings(port, medianMs, p99Ms, errorRate, throttleRate, retryAfterSeconds, streamChunks, seed);
+        }
+
+        public Settings withFaults(double errorRate, double throttleRate) {
+            return new Settings(port, medianLatencyMs, p99LatencyMs, errorRate, throttleRate, retryAfterSeconds, streamChunks, seed);
+        }
+
+        public Settings withSeed(long seed) {
+            return new Settings(port, medianLatencyMs, p99LatencyMs, errorRate, throttleRate, retryAfterSeconds, streamChunks, seed);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.leo.aiteacher.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FairShareSchedulerTests {
+
+    @Test
+    void singleTenantUsesFullCapacity() {
+        FairShareScheduler scheduler = new FairShareScheduler(Map.of(), 1);
+        assertEquals(Map.of("EXAM/1", 16), scheduler.allocate(Map.of("EXAM/1", 2000L), 16));
+    }
+
+    @Test
+    void smallTenantIsNotStarvedByBurst() {
+        FairShareScheduler scheduler = new FairShareScheduler(Map.of(), 1);
+        Map<String, Integer> allocation = scheduler.allocate(Map.of("EXAM/1", 2000L, "HW/2", 3L), 16);
+        assertEquals(3, allocation.get("HW/2"));
+        assertEquals(13, allocation.get("EXAM/1"));
+    }
+
+    @Test
+    void sharesCapacityByWeight() {
+        FairShareScheduler scheduler = new FairShareScheduler(FairShareScheduler.parseWeights("A:3, bad, B/7:x"), 1);
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < 10; i++) {
+            Map<String, Integer> allocation = scheduler.allocate(Map.of("A/1", 1000L, "B/7", 1000L), 8);
+            a += allocation.getOrDefault("A/1", 0);
+            b += allocation.getOrDefault("B/7", 0);
+        }
+        assertEquals(80, a + b);
+        assertEquals(60, a);
+        assertEquals(20, b);
+    }
+
+    @Test
+    void parsesTenantAndCourseWeights() {
+        FairShareScheduler scheduler = new FairShareScheduler(FairShareScheduler.parseWeights("CS101:4,CS101/12:2"), 1);
+        assertEquals(2, scheduler.weightOf("CS101/12"));
+        assertEquals(4, scheduler.weightOf("CS101/9"));
+        assertEquals(1, scheduler.weightOf("CS102/9"));
+        assertEquals("CS101/12", FairShareScheduler.tenantOf("CS101", 12));
+    }
+}
@@ -0,0 +1,55 @@
+package com.leo.aiteacher.service.impl;
+
+import com.leo.aiteacher.pojo.dto.AssignmentDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GradingDedupCacheTests {
+
+    @Test
+    void normalizesWhitespaceWidthAndOptionSeparators() {
+        assertEquals("Ab", GradingDedupCache.normalize(" Ａ、 b。"));
+        assertEquals("AB", GradingDedupCache.normalize("A,B"));
+        assertNotEquals(GradingDedupCache.normalize("Co"), GradingDedupCache.normalize("CO"));
+        assertEquals("x=3.5", GradingDedupCache.normalize("ｘ = ３．５"));
+        assertEquals("-3", GradingDedupCache.normalize("-3"));
+        assertNotEquals(GradingDedupCache.normalize("3.5"), GradingDedupCache.normalize("35"));
+    }
+
+    @Test
+    void hashDependsOnAssignmentContentAndPromptVersion() {
+        GradingDedupCache cache = new GradingDedupCache();
+        AssignmentDto assignment = new AssignmentDto();
+        assignment.setId(1);
+        assignment.setContent("1+1=?");
+        assignment.setTotalScore(10);
+
+        String hash = cache.answerHash(assignment, "2", "v1");
+        assertEquals(hash, cache.answerHash(assignment, " ２。", "v1"));
+        assertNotEquals(hash, cache.answerHash(assignment, "2", "v2"));
+        assignment.setTotalScore(5);
+        assertNotEquals(hash, cache.answerHash(assignment, "2", "v1"));
+    }
+
+    @Test
+    void followersShareTheLeaderResult() {
+        GradingDedupCache cache = new GradingDedupCache();
+        assertNull(cache.joinInFlight("h", 1L, 7));
+        CompletableFuture<Boolean> follower = cache.joinInFlight("h", 2L, 7);
+        assertNotNull(follower);
+
+        cache.release(2L, true);
+        assertFalse(follower.isDone());
+        cache.release(1L, true);
+        assertTrue(follower.join());
+        assertNull(cache.joinInFlight("h", 3L, 7));
+    }
+}
@@ -0,0 +1,74 @@
+package com.leo.aiteacher.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
+import com.leo.aiteacher.pojo.mapper.StudentAnswerMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用内存中的一行答案模拟 UpdateWrapper 的 SET 与部分结果写入条件，验证重判后部分结果能够写入。
+ */
+class GradingStateWriterTests {
+
+    @Test
+    void regradeClearsPreviousResultSoPartialsAreWritten() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("grading_status", "SUCCESS");
+        row.put("ai_score", "86/100");
+        row.put("ai_analysis", "总评：概念掌握较好");
+        row.put("evaluation_json", "{\"itemScores\":[{\"questionNo\":1,\"score\":8}]}");
+        row.put("raw_response", "{\"id\":\"chatcmpl\"}");
+        row.put("grading_completed_at", LocalDateTime.now().minusDays(1));
+
+        StudentAnswerMapper mapper = mock(StudentAnswerMapper.class);
+        when(mapper.update(isNull(), any())).thenAnswer(invocation -> apply(row, invocation.getArgument(1)));
+        GradingStateWriter writer = new GradingStateWriter();
+        ReflectionTestUtils.setField(writer, "studentAnswerMapper", mapper);
+
+        assertFalse(writer.writePartial(7, "{\"partial\":true,\"itemScores\":[]}"));
+
+        writer.resetForRegrade(7);
+        assertEquals("PENDING", row.get("grading_status"));
+        for (String column : new String[]{"ai_score", "ai_analysis", "evaluation_json", "raw_response", "grading_completed_at"}) {
+            assertTrue(row.containsKey(column));
+            assertNull(row.get(column), column);
+        }
+
+        String partial = "{\"partial\":true,\"itemScores\":[{\"questionNo\":1,\"score\":9}]}";
+        assertTrue(writer.writePartial(7, partial));
+        assertEquals(partial, row.get("evaluation_json"));
+    }
+
+    /**
+     * 按 SQL 片段执行 writePartial 的条件（状态为 NULL/PENDING 且未完成），再按 SET 子句逐列写入。
+     */
+    private static int apply(Map<String, Object> row, UpdateWrapper<StudentAnswerDto> wrapper) {
+        String where = wrapper.getSqlSegment();
+        if (where.contains("grading_completed_at IS NULL")
+                && (row.get("grading_completed_at") != null
+                || (row.get("grading_status") != null && !"PENDING".equals(row.get("grading_status"))))) {
+            return 0;
+        }
+        Map<String, Object> params = wrapper.getParamNameValuePairs();
+        for (String assignment : wrapper.getSqlSet().split(",")) {
+            String[] parts = assignment.split("=", 2);
+            String param = parts[1].substring(parts[1].lastIndexOf('.') + 1, parts[1].length() - 1);
+            row.put(parts[0].trim(), params.get(param));
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,110 @@
+package com.leo.aiteacher.service.impl;
+
+import com.leo.aiteacher.pojo.dto.GradingTaskDto;
+import com.leo.aiteacher.pojo.dto.StudentAnswerDto;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 一次判题周期的写入量对比：原先答案行 RUNNING 与结果各 updateById 一次、任务行按实体非空字段更新，
+ * 现在答案行只写一次结果列、任务行只写终态列。字节数按列值估算。
+ */
+class GradingWriteBenchmarkTests {
+
+    @Test
+    void partialWritesShrinkGradingCycle() throws Exception {
+        StudentAnswerDto answer = gradedAnswer();
+        GradingTaskDto task = finishedTask();
+
+        StudentAnswerDto running = copyOf(answer);
+        running.setAiScore(null);
+        running.setAiAnalysis(null);
+        running.setEvaluationJson(null);
+        running.setRawResponse(null);
+        running.setModelName(null);
+        running.setGradingCompletedAt(null);
+        running.setGradingStatus("RUNNING");
+        long legacyBytes = GradingStateWriter.payloadBytes(entityColumns(running))
+                + GradingStateWriter.payloadBytes(entityColumns(answer))
+                + GradingStateWriter.payloadBytes(entityColumns(task));
+
+        long partialBytes = GradingStateWriter.payloadBytes(GradingStateWriter.resultColumns(answer))
+                + GradingStateWriter.payloadBytes(GradingStateWriter.taskTerminalColumns(task));
+
+        // 答案行不再整行写两次（RUNNING + 结果），学生作答正文也不再回写：写入量至少减半
+        assertTrue(partialBytes * 2 < legacyBytes, "partial=" + partialBytes + " legacy=" + legacyBytes);
+        assertFalse(GradingStateWriter.resultColumns(answer).containsKey("student_answer"));
+        assertEquals(12, GradingStateWriter.resultColumns(answer).size());
+        assertEquals(4, GradingStateWriter.failureColumns(answer).size());
+    }
+
+    private static StudentAnswerDto gradedAnswer() {
+        StudentAnswerDto answer = new StudentAnswerDto();
+        answer.setId(1024);
+        answer.setAssignmentId(17);
+        answer.setStudentId(3051);
+        answer.setStudentAnswer("1. 光合作用在叶绿体中进行，需要光照、二氧化碳和水。\n".repeat(40));
+        answer.setSubmittedAt(LocalDateTime.now().minusMinutes(2));
+        answer.setAnswerHash("9f2c1e6a4b7d8e0f9f2c1e6a4b7d8e0f9f2c1e6a4b7d8e0f9f2c1e6a4b7d8e0f");
+        answer.setGradingStartedAt(LocalDateTime.now().minusSeconds(20));
+        answer.setPromptVersion(StudentGradingAsyncService.PROMPT_VERSION);
+        answer.setGradingStatus("SUCCESS");
+        answer.setAiScore("86/100");
+        answer.setAiAnalysis("总评：概念掌握较好，个别步骤表述不完整。\n".repeat(12));
+        answer.setEvaluationJson("{\"questionNo\":1,\"score\":8,\"fullScore\":10,\"comment\":\"要点基本齐全\"},".repeat(10));
+        answer.setRawResponse("{\"id\":\"chatcmpl\",\"choices\":[{\"message\":{\"content\":\"...\"}}]}".repeat(30));
+        answer.setModelName("deepseek-chat");
+        answer.setGradingCompletedAt(LocalDateTime.now());
+        return answer;
+    }
+
+    private static GradingTaskDto finishedTask() {
+        GradingTaskDto task = new GradingTaskDto();
+        task.setId(88L);
+        task.setAnswerId(1024);
+        task.setStatus("SUCCESS");
+        task.setRetryCount(0);
+        task.setTenant("BIO101/12");
+        task.setCreatedAt(LocalDateTime.now().minusMinutes(2));
+        task.setUpdatedAt(LocalDateTime.now().minusSeconds(20));
+        task.setCompletedAt(LocalDateTime.now());
+        return task;
+    }
+
+    private static StudentAnswerDto copyOf(StudentAnswerDto answer) throws Exception {
+        StudentAnswerDto copy = new StudentAnswerDto();
+        for (Field field : StudentAnswerDto.class.getDeclaredFields()) {
+            if (!java.lang.reflect.Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                field.set(copy, field.get(answer));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * updateById / update(entity, wrapper) 写入的列：实体中全部非空字段。
+     */
+    private static Map<String, Object> entityColumns(Object entity) throws Exception {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            if (java.lang.reflect.Modifier.isStatic(field.getModifiers()) || "id".equals(field.getName())) {
+                continue;
+            }
+            field.setAccessible(true);
+            Object value = field.get(entity);
+            if (value != null) {
+                columns.put(field.getName(), value);
+            }
+        }
+        return columns;
+    }
+}
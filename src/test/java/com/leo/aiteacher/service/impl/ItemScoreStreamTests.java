@@ -0,0 +1,50 @@
+package com.leo.aiteacher.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ItemScoreStreamTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void emitsEachItemAsSoonAsItCompletes() {
+        List<JsonNode> items = new ArrayList<>();
+        ItemScoreStream stream = new ItemScoreStream(objectMapper, items::add);
+        String content = "```json\n{\"totalScore\": 15, \"maxScore\": 20, \"overallComment\": \"较好\", \"itemScores\": ["
+                + "{\"questionNo\": 1, \"score\": 8, \"fullScore\": 10, \"comment\": \"步骤[1]完整\", \"isCorrect\": true},"
+                + "{\"questionNo\": 2, \"score\": 7, \"fullScore\": 10, \"comment\": \"漏写单位\", \"isCorrect\": false}"
+                + "], \"weakPoints\": [\"单位换算\"], \"suggestions\": []}\n```";
+
+        int firstItemEnd = content.indexOf("},") + 1;
+        for (int i = 0; i < content.length(); i += 7) {
+            stream.onDelta(content.substring(i, Math.min(content.length(), i + 7)));
+            if (i + 7 <= firstItemEnd) {
+                assertEquals(0, items.size());
+            }
+            if (i + 7 >= firstItemEnd && i + 7 < content.indexOf("{\"questionNo\": 2")) {
+                assertEquals(1, items.size());
+            }
+        }
+        assertEquals(2, items.size());
+        assertEquals(8, items.get(0).path("score").asInt());
+        assertEquals("漏写单位", items.get(1).path("comment").asText());
+    }
+
+    @Test
+    void restartsAfterReset() {
+        List<JsonNode> items = new ArrayList<>();
+        ItemScoreStream stream = new ItemScoreStream(objectMapper, items::add);
+        stream.onDelta("{\"itemScores\": [{\"questionNo\": 1, \"score\": 3}, {\"questionNo\": 2,");
+        stream.onReset();
+        stream.onDelta("{\"overallComment\": \"{}\", \"itemScores\": [{\"questionNo\": 1, \"score\": 4}]}");
+        assertEquals(2, items.size());
+        assertEquals(4, items.get(1).path("score").asInt());
+    }
+}
@@ -0,0 +1,56 @@
+package com.leo.aiteacher.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectivePreGraderTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String STRUCTURE = """
+            [
+              {"stem":"s1","type":"单选题","options":["A. x","B. y"],"answer":"B. y","score":2},
+              {"stem":"s2","type":"多选题","options":["A","B","C","D"],"answer":"A、C","score":4},
+              {"stem":"s3","type":"判断题","answer":"正确","score":2},
+              {"stem":"s4","type":"填空题","answer":"3.5","score":2},
+              {"stem":"s5","type":"简答题","answer":"略","score":10}
+            ]
+            """;
+
+    @Test
+    void gradesObjectiveItemsAndLeavesTheRestToTheModel() {
+        ObjectivePreGrader.Result result = ObjectivePreGrader.grade(objectMapper, STRUCTURE,
+                "1. b\n2、C，A\n3) ×\n(4) 3.5\n第5题：因为……");
+
+        assertEquals(List.of(5), result.pending());
+        assertEquals(4, result.graded().size());
+        assertEquals(8.0, result.score());
+        assertEquals(10.0, result.fullScore());
+        assertTrue(result.graded().get(0).path("isCorrect").asBoolean());
+        assertFalse(result.graded().get(2).path("isCorrect").asBoolean());
+        assertEquals("0/2", result.graded().get(2).path("scoreDisplay").asText());
+    }
+
+    @Test
+    void ambiguousAnswersAreNotGradedLocally() {
+        // 多选少选、填空不一致、题号缺失都交给模型
+        ObjectivePreGrader.Result result = ObjectivePreGrader.grade(objectMapper, STRUCTURE,
+                "1. B 2. A 4. 7/2");
+
+        assertEquals(List.of(2, 3, 4, 5), result.pending());
+        assertNull(ObjectivePreGrader.grade(objectMapper, STRUCTURE, "B A 对 3.5"));
+    }
+
+    @Test
+    void splitsOnlyOnSequentialQuestionNumbers() {
+        assertEquals(List.of("1.5", "3"), ObjectivePreGrader.splitAnswers("1. 1.5 2. 3", 2));
+        assertEquals(List.of("2.5", "x"), ObjectivePreGrader.splitAnswers("1. 2.5 2. x", 2));
+    }
+}